@@ -0,0 +1,13 @@
+package com.yingxue.lesson.aop.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 注入当前登录用户id
+ * controller 方法参数加上这个注解就能拿到当前请求 token 里的用户id，不用再自己去 header 里拿 token 解析
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUserId {
+}
@@ -7,7 +7,8 @@ import com.yingxue.lesson.entity.SysLog;
 import com.yingxue.lesson.mapper.SysLogMapper;
 import com.yingxue.lesson.utils.HttpContextUtils;
 import com.yingxue.lesson.utils.IPUtils;
-import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.TokenContextHolder;
+import com.yingxue.lesson.utils.VerifiedToken;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
@@ -116,9 +117,10 @@ public class SysLogAspect {
         log.info("Ip{}，接口地址{}，请求方式{}，入参：{}",sysLog.getIp(),request.getRequestURL(),request.getMethod(),sysLog.getParams());
         //从请求头获取token
         String token = request.getHeader(Constant.ACCESS_TOKEN);
-        //从token获取用户id
-        String userId= JwtTokenUtil.getUserId(token);
-        String username= JwtTokenUtil.getUserName(token);
+        //从token获取用户id，过滤器已经解析过的直接从请求上下文拿
+        VerifiedToken verifiedToken= TokenContextHolder.resolve(token);
+        String userId= verifiedToken==null?null:verifiedToken.getUserId();
+        String username= verifiedToken==null?null:verifiedToken.getUsername();
         sysLog.setUsername(username);
         sysLog.setUserId(userId);
         //耗时
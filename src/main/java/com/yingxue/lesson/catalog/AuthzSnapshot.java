@@ -0,0 +1,89 @@
+package com.yingxue.lesson.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 用户的授权快照：角色id、角色名称、权限标识、菜单权限id
+ * 由 AuthzSnapshotLoader 用一条联表查询加载，登录、刷新 token、域加载授权信息都用它，不再分别查好几次数据库
+ */
+public final class AuthzSnapshot {
+    private static final AuthzSnapshot EMPTY = new AuthzSnapshot(Collections.<AuthzSnapshotRow>emptyList());
+
+    /**
+     * 排好序的角色id
+     */
+    private final List<String> roleIds;
+    private final List<String> roleNames;
+    private final Set<String> perms;
+    /**
+     * 菜单权限id(目录、菜单、按钮)
+     */
+    private final Set<String> menuIds;
+    /**
+     * 角色集合指纹，角色集合相同的用户指纹相同
+     */
+    private final String roleSetFingerprint;
+
+    private AuthzSnapshot(List<AuthzSnapshotRow> rows) {
+        TreeMap<String, String> roles = new TreeMap<>();
+        Set<String> perms = new LinkedHashSet<>();
+        Set<String> menuIds = new LinkedHashSet<>();
+        for (AuthzSnapshotRow row : rows) {
+            roles.put(row.getRoleId(), row.getRoleName());
+            if (row.getPermissionId() != null) {
+                menuIds.add(row.getPermissionId());
+            }
+            if (row.getPerms() != null && !row.getPerms().isEmpty()) {
+                perms.add(row.getPerms());
+            }
+        }
+        this.roleIds = Collections.unmodifiableList(new ArrayList<>(roles.keySet()));
+        this.roleNames = Collections.unmodifiableList(new ArrayList<>(roles.values()));
+        this.perms = Collections.unmodifiableSet(perms);
+        this.menuIds = Collections.unmodifiableSet(menuIds);
+        this.roleSetFingerprint = fingerprint(this.roleIds);
+    }
+
+    public static AuthzSnapshot of(List<AuthzSnapshotRow> rows) {
+        return rows == null || rows.isEmpty() ? EMPTY : new AuthzSnapshot(rows);
+    }
+
+    public List<String> getRoleIds() {
+        return roleIds;
+    }
+
+    public List<String> getRoleNames() {
+        return roleNames;
+    }
+
+    public Set<String> getPerms() {
+        return perms;
+    }
+
+    public Set<String> getMenuIds() {
+        return menuIds;
+    }
+
+    public String getRoleSetFingerprint() {
+        return roleSetFingerprint;
+    }
+
+    /**
+     * 角色集合指纹：排好序的角色id的 SHA-256 前 12 个字节
+     */
+    private static String fingerprint(List<String> roleIds) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String roleId : roleIds) {
+                digest.update(roleId.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 12));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
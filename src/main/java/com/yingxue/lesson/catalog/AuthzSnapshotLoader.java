@@ -0,0 +1,20 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.mapper.SysUserRoleMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * 授权快照加载器
+ * 以前登录要先查用户角色id、再查角色、再查一遍角色id、再查角色的权限id、再查权限，刷新 token 和域里又各来一遍
+ * 现在 sys_user_role/sys_role/sys_role_permission/sys_permission 一条联表查询全部查回来
+ */
+@Component
+public class AuthzSnapshotLoader {
+    @Autowired
+    private SysUserRoleMapper sysUserRoleMapper;
+
+    public AuthzSnapshot load(String userId) {
+        return AuthzSnapshot.of(sysUserRoleMapper.selectAuthzSnapshot(userId));
+    }
+}
@@ -0,0 +1,18 @@
+package com.yingxue.lesson.catalog;
+
+import lombok.Data;
+
+/**
+ * 授权快照联表查询的一行：一个角色和它的一个菜单权限
+ * 角色没有任何菜单权限时 permissionId/perms 为 null
+ */
+@Data
+public class AuthzSnapshotRow {
+    private String roleId;
+
+    private String roleName;
+
+    private String permissionId;
+
+    private String perms;
+}
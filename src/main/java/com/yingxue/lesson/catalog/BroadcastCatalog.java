@@ -0,0 +1,133 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.service.RedisService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 整表加载到内存、靠广播失效的目录(菜单权限树、部门字典)
+ * 第一次用到时加载一次；数据增删改的事务提交后广播(包括自己)，各节点丢弃当前的版本，下次用到时重新加载；
+ * 广播丢了靠子类给的兜底间隔重新加载
+ * 版本号只在内容变了的时候加一，兜底重新加载、没改动内容的广播都不会让按版本号缓存的结果失效
+ */
+@Slf4j
+public abstract class BroadcastCatalog<T extends CatalogSnapshot<T>> implements MessageListener {
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private volatile T current;
+    /**
+     * 上次加载的版本，失效之后也留着，重新加载时和它比较内容有没有变，只在 reload 里读写
+     */
+    private T last;
+
+    /**
+     * 本节点的版本号，加载出来的内容和上次不一样时加一
+     */
+    private final AtomicLong versions = new AtomicLong();
+    /**
+     * 每失效一次加一，加载前记下来，加载完如果变了说明加载期间有变化，不放入缓存
+     */
+    private final AtomicLong invalidationSequence = new AtomicLong();
+
+    /**
+     * 失效广播的频道
+     */
+    protected abstract String channel();
+
+    /**
+     * 没有收到广播时多久重新加载一次
+     */
+    protected abstract Duration reloadInterval();
+
+    /**
+     * 从数据库加载全部数据，使用给定的版本号
+     */
+    protected abstract T load(long version);
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(channel()));
+    }
+
+    /**
+     * 当前的版本，第一次使用、收到变化广播或者到了兜底时间时重新加载
+     */
+    public T current() {
+        T snapshot = current;
+        if (snapshot == null || System.currentTimeMillis() - snapshot.getLoadedAt() > reloadInterval().toMillis()) {
+            return reload(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 数据发生了变化，有事务的等提交之后再广播，回滚了什么都不做
+     */
+    public void changed() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    publish();
+                }
+            });
+        } else {
+            publish();
+        }
+    }
+
+    /**
+     * 收到其它节点(包括自己)广播的变化，下次用到时重新加载
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evict();
+    }
+
+    private void publish() {
+        evict();
+        try {
+            redisService.convertAndSend(channel(), String.valueOf(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("publish {} error", channel(), e);
+        }
+    }
+
+    private void evict() {
+        invalidationSequence.incrementAndGet();
+        current = null;
+    }
+
+    /**
+     * 并发时只加载一次：拿到锁后发现已经被别人换掉了就直接用新的
+     */
+    private synchronized T reload(T stale) {
+        T snapshot = current;
+        if (snapshot != null && snapshot != stale) {
+            return snapshot;
+        }
+        long sequence = invalidationSequence.get();
+        snapshot = load(last == null ? versions.incrementAndGet() : last.getVersion());
+        if (last != null && !snapshot.getAll().equals(last.getAll())) {
+            snapshot = snapshot.withVersion(versions.incrementAndGet());
+        }
+        last = snapshot;
+        if (sequence == invalidationSequence.get()) {
+            current = snapshot;
+        }
+        return snapshot;
+    }
+}
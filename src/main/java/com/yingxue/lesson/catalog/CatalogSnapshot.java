@@ -0,0 +1,26 @@
+package com.yingxue.lesson.catalog;
+
+import java.util.List;
+
+/**
+ * BroadcastCatalog 里缓存的一个版本，创建后不可变
+ */
+public interface CatalogSnapshot<T extends CatalogSnapshot<T>> {
+
+    /**
+     * 本节点的版本号，内容变了才会变
+     */
+    long getVersion();
+
+    long getLoadedAt();
+
+    /**
+     * 全部数据，重新加载时按它比较内容有没有变
+     */
+    List<?> getAll();
+
+    /**
+     * 同样的内容换一个版本号，内容是共用的
+     */
+    T withVersion(long version);
+}
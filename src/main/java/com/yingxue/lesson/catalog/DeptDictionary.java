@@ -0,0 +1,41 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysDept;
+import com.yingxue.lesson.mapper.SysDeptMapper;
+import com.yingxue.lesson.utils.DeptHierarchySettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 部门字典
+ * 部门列表、部门树、用户列表里的部门名称都从内存取，不再逐条查数据库
+ * 广播丢了靠 dept-hierarchy.dictionary-reload-interval 兜底
+ */
+@Component
+public class DeptDictionary extends BroadcastCatalog<DeptTree> {
+    @Autowired
+    private SysDeptMapper sysDeptMapper;
+    @Autowired
+    private DeptHierarchySettings deptHierarchySettings;
+
+    @Override
+    protected String channel() {
+        return Constant.DEPT_DICTIONARY_INVALIDATION_CHANNEL;
+    }
+
+    @Override
+    protected Duration reloadInterval() {
+        return deptHierarchySettings.getDictionaryReloadInterval();
+    }
+
+    @Override
+    protected DeptTree load(long version) {
+        List<SysDept> list = sysDeptMapper.selectAll();
+        return new DeptTree(version, list == null ? new ArrayList<>() : list);
+    }
+}
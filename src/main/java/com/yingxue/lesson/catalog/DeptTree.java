@@ -0,0 +1,122 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.entity.SysDept;
+import com.yingxue.lesson.vo.resp.DeptRespNodeVO;
+
+import java.util.*;
+
+/**
+ * 部门字典的一个版本
+ * 一次查出全部部门，建好 id 索引和父级 -> 子集的邻接表：id -> 名称、id -> 父级、部门树都从这里取，不用再逐条查数据库
+ * 创建后不可变，返回的实体是共用的不能修改；组装出来的树每次都是新的
+ */
+public final class DeptTree implements CatalogSnapshot<DeptTree> {
+    /**
+     * 顶级部门的父级id
+     */
+    public static final String ROOT_ID = "0";
+
+    private final long version;
+    private final long loadedAt;
+    private final List<SysDept> all;
+    private final Map<String, SysDept> index;
+    private final Map<String, List<SysDept>> children;
+
+    public DeptTree(long version, List<SysDept> list) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+        Map<String, SysDept> index = new HashMap<>(list.size() * 2);
+        Map<String, List<SysDept>> children = new HashMap<>();
+        for (SysDept sysDept : list) {
+            index.put(sysDept.getId(), sysDept);
+            children.computeIfAbsent(sysDept.getPid(), k -> new ArrayList<>()).add(sysDept);
+        }
+        for (SysDept sysDept : list) {
+            SysDept parent = index.get(sysDept.getPid());
+            if (parent != null) {
+                sysDept.setPidName(parent.getName());
+            }
+        }
+        this.all = Collections.unmodifiableList(new ArrayList<>(list));
+        this.index = index;
+        this.children = children;
+    }
+
+    private DeptTree(long version, DeptTree content) {
+        this.version = version;
+        this.loadedAt = content.loadedAt;
+        this.all = content.all;
+        this.index = content.index;
+        this.children = content.children;
+    }
+
+    @Override
+    public DeptTree withVersion(long version) {
+        return new DeptTree(version, this);
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * 全部部门(已经带上父级名称)
+     */
+    @Override
+    public List<SysDept> getAll() {
+        return all;
+    }
+
+    public SysDept get(String id) {
+        return id == null ? null : index.get(id);
+    }
+
+    /**
+     * 部门名称，部门不存在返回 null
+     */
+    public String getName(String id) {
+        SysDept sysDept = get(id);
+        return sysDept == null ? null : sysDept.getName();
+    }
+
+    /**
+     * 父级部门id，部门不存在返回 null
+     */
+    public String getPid(String id) {
+        SysDept sysDept = get(id);
+        return sysDept == null ? null : sysDept.getPid();
+    }
+
+    /**
+     * 组装部门树
+     * @param excludeId 不显示这个部门和它的子孙(选择上级部门时排除自己)，null 显示全部
+     */
+    public List<DeptRespNodeVO> toTree(String excludeId) {
+        return getChildren(ROOT_ID, excludeId);
+    }
+
+    private List<DeptRespNodeVO> getChildren(String pid, String excludeId) {
+        List<SysDept> list = children.get(pid);
+        if (list == null) {
+            return new ArrayList<>();
+        }
+        List<DeptRespNodeVO> result = new ArrayList<>(list.size());
+        for (SysDept sysDept : list) {
+            if (sysDept.getId().equals(excludeId)) {
+                continue;
+            }
+            DeptRespNodeVO respNodeVO = new DeptRespNodeVO();
+            respNodeVO.setId(sysDept.getId());
+            respNodeVO.setTitle(sysDept.getName());
+            respNodeVO.setChildren(getChildren(sysDept.getId(), excludeId));
+            result.add(respNodeVO);
+        }
+        return result;
+    }
+}
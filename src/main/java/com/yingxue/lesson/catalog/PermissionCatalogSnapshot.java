@@ -0,0 +1,49 @@
+package com.yingxue.lesson.catalog;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 权限目录的一个版本
+ * 所有权限标识(perms)去重排序后按下标编号，token 里只需要带版本号和下标的位图
+ * 版本号由内容计算得出，各节点、重启前后同样的权限数据得到的版本号和编号完全一致
+ */
+public final class PermissionCatalogSnapshot {
+    private final String version;
+    private final List<String> perms;
+    private final Map<String, Integer> indexes;
+
+    public PermissionCatalogSnapshot(String version, List<String> perms) {
+        this.version = version;
+        this.perms = Collections.unmodifiableList(perms);
+        Map<String, Integer> map = new HashMap<>(perms.size() * 2);
+        for (int i = 0; i < perms.size(); i++) {
+            map.put(perms.get(i), i);
+        }
+        this.indexes = map;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public List<String> getPerms() {
+        return perms;
+    }
+
+    /**
+     * 权限标识的下标，不在目录里返回 null
+     */
+    public Integer indexOf(String perm) {
+        return indexes.get(perm);
+    }
+
+    /**
+     * 下标对应的权限标识，越界返回 null
+     */
+    public String permAt(int index) {
+        return index < perms.size() ? perms.get(index) : null;
+    }
+}
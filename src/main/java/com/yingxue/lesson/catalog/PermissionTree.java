@@ -0,0 +1,124 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
+
+import java.util.*;
+
+/**
+ * 菜单权限树的一个版本
+ * 一次查出全部菜单权限(按 order_num 倒序)，建好 id 索引和父级 -> 子集的邻接表，组装树时每个节点只访问一次
+ * 以前组装树要为每个节点扫描一遍全部数据找子集(O(n²))，还要反射拷贝属性，列表还要逐条查父级名称
+ * 创建后不可变，返回的实体是共用的不能修改；组装出来的树每次都是新的，调用方可以修改(比如设置选中)
+ */
+public final class PermissionTree implements CatalogSnapshot<PermissionTree> {
+    /**
+     * 顶级菜单的父级id
+     */
+    public static final String ROOT_ID = "0";
+    /**
+     * 按钮类型
+     */
+    private static final int BUTTON = 3;
+
+    private final long version;
+    private final long loadedAt;
+    private final List<SysPermission> all;
+    private final Map<String, SysPermission> index;
+    private final Map<String, List<SysPermission>> children;
+
+    public PermissionTree(long version, List<SysPermission> list) {
+        this.version = version;
+        this.loadedAt = System.currentTimeMillis();
+        Map<String, SysPermission> index = new HashMap<>(list.size() * 2);
+        Map<String, List<SysPermission>> children = new HashMap<>();
+        for (SysPermission sysPermission : list) {
+            index.put(sysPermission.getId(), sysPermission);
+            children.computeIfAbsent(sysPermission.getPid(), k -> new ArrayList<>()).add(sysPermission);
+        }
+        for (SysPermission sysPermission : list) {
+            SysPermission parent = index.get(sysPermission.getPid());
+            if (parent != null) {
+                sysPermission.setPidName(parent.getName());
+            }
+        }
+        this.all = Collections.unmodifiableList(new ArrayList<>(list));
+        this.index = index;
+        this.children = children;
+    }
+
+    private PermissionTree(long version, PermissionTree content) {
+        this.version = version;
+        this.loadedAt = content.loadedAt;
+        this.all = content.all;
+        this.index = content.index;
+        this.children = content.children;
+    }
+
+    @Override
+    public PermissionTree withVersion(long version) {
+        return new PermissionTree(version, this);
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * 全部菜单权限(已经带上父级名称)
+     */
+    @Override
+    public List<SysPermission> getAll() {
+        return all;
+    }
+
+    public SysPermission get(String id) {
+        return index.get(id);
+    }
+
+    /**
+     * 组装整棵树
+     * @param withButton true 包含按钮 false 只到菜单
+     */
+    public List<PermissionRespNodeVO> toTree(boolean withButton) {
+        return toTree(null, withButton);
+    }
+
+    /**
+     * 只用给定的菜单权限组装树，父级不在其中的节点连同子集都不显示
+     * @param ids 为 null 时使用全部
+     * @param withButton true 包含按钮 false 只到菜单
+     */
+    public List<PermissionRespNodeVO> toTree(Set<String> ids, boolean withButton) {
+        return getChildren(ROOT_ID, ids, withButton);
+    }
+
+    private List<PermissionRespNodeVO> getChildren(String pid, Set<String> ids, boolean withButton) {
+        List<SysPermission> list = children.get(pid);
+        if (list == null) {
+            return new ArrayList<>();
+        }
+        List<PermissionRespNodeVO> result = new ArrayList<>(list.size());
+        for (SysPermission sysPermission : list) {
+            if (ids != null && !ids.contains(sysPermission.getId())) {
+                continue;
+            }
+            if (!withButton && sysPermission.getType() != null && sysPermission.getType() == BUTTON) {
+                continue;
+            }
+            PermissionRespNodeVO respNodeVO = new PermissionRespNodeVO();
+            respNodeVO.setId(sysPermission.getId());
+            respNodeVO.setUrl(sysPermission.getUrl());
+            respNodeVO.setTitle(sysPermission.getName());
+            respNodeVO.setChildren(getChildren(sysPermission.getId(), ids, withButton));
+            result.add(respNodeVO);
+        }
+        return result;
+    }
+}
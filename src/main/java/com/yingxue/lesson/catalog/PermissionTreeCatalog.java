@@ -0,0 +1,41 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.mapper.SysPermissionMapper;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 菜单权限树目录
+ * 树接口(/permission/tree、/permission/tree/all、/home)都从内存组装，不查数据库
+ * 广播丢了靠 auth-cache.permission-tree-reload-interval 兜底；内容没变版本号不变，按版本号缓存的导航菜单(RoleSetSnapshot)不用重新生成
+ */
+@Component
+public class PermissionTreeCatalog extends BroadcastCatalog<PermissionTree> {
+    @Autowired
+    private SysPermissionMapper sysPermissionMapper;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+
+    @Override
+    protected String channel() {
+        return Constant.PERMISSION_TREE_INVALIDATION_CHANNEL;
+    }
+
+    @Override
+    protected Duration reloadInterval() {
+        return authCacheSettings.getPermissionTreeReloadInterval();
+    }
+
+    @Override
+    protected PermissionTree load(long version) {
+        List<SysPermission> list = sysPermissionMapper.selectAll();
+        return new PermissionTree(version, list == null ? new ArrayList<>() : list);
+    }
+}
@@ -16,7 +16,6 @@ public class Constant {
      */
     public static final String JWT_PERMISSIONS_KEY="jwt-permissions-key_";
 
-
     /**
      * 角色key
      */
@@ -32,6 +31,34 @@ public class Constant {
      */
     public static final String JWT_ACCESS_TOKEN_BLACKLIST="jwt-access-token-blacklist_";
 
+    /**
+     * token 家族id key
+     * 一次登录签发的 access_token、refresh_token 以及后续刷新出来的 access_token 都属于同一个家族
+     */
+    public static final String JWT_TOKEN_FAMILY_KEY="fid";
+    /**
+     * token 签发时用户的授权版本号 key
+     */
+    public static final String JWT_AUTHZ_EPOCH_KEY="ae";
+    /**
+     * token 签发时用户的角色集合指纹 key
+     */
+    public static final String JWT_ROLE_SET_KEY="rs";
+    /**
+     * token 签发时间(毫秒) key，标准的 iat 只精确到秒，吊销所有会话时用它和吊销时间比较
+     */
+    public static final String JWT_ISSUED_AT_MILLIS_KEY="iam";
+
+    /**
+     * token 家族主动退出后加入黑名单 key，一个 key 同时吊销这次登录的 access_token 和 refresh_token
+     */
+    public static final String JWT_TOKEN_FAMILY_BLACKLIST="jwt-family-blacklist_";
+
+    /**
+     * 用户所有会话吊销时间 key，在这个时间之前签发的 token 全部失效(比如修改了密码)
+     */
+    public static final String JWT_REVOKE_BEFORE_KEY="jwt-revoke-before_";
+
     /**
      * 正常token
      */
@@ -52,9 +79,15 @@ public class Constant {
     public static final String DELETED_USER_KEY="deleted-user-key_";
 
     /**
-     * 主动去刷新 token key(适用场景 比如修改了用户的角色/权限去刷新token)
+     * 用户授权版本号 hash，一个用户一个字段，修改了用户的角色/权限就把版本号加一
+     * 签发 token 时把当时的版本号写进 token，token 里的版本号比这里的小就说明需要刷新 token
      */
-    public static final String JWT_REFRESH_KEY="jwt-refresh-key_";
+    public static final String AUTHZ_EPOCH_KEY="authz-epoch";
+    /**
+     * 刷新 token 去重 key，同一个 refresh_token 短时间内重复刷新返回同一个 access_token
+     * key 后面是 refresh_token 标识和授权版本号的摘要，value 是 jti:签发时间(毫秒)，不存 token 本身
+     */
+    public static final String JWT_REFRESH_DEDUP_KEY="jwt-refresh-dedup_";
     /**
      * 标记新的access_token
      */
@@ -70,4 +103,79 @@ public class Constant {
      */
     public static final String IDENTIFY_CACHE_KEY="shiro-cache:com.xh.lesson.shiro.CustomRealm.authorizationCache:";
 
+    /**
+     * 批量会话失效任务进度 key
+     */
+    public static final String SESSION_INVALIDATION_TASK_KEY="session-invalidation-task_";
+
+    /**
+     * 角色集合授权快照 key
+     */
+    public static final String ROLE_SET_SNAPSHOT_KEY="role-set-snapshot_";
+
+    /**
+     * 角色包含在哪些角色集合里 key(set，存角色集合指纹)
+     */
+    public static final String ROLE_SET_INDEX_KEY="role-set-index_";
+
+    /**
+     * 角色的代数 key(hash，field 角色id value 代数)，角色每失效一次加一，快照只有在加载期间代数没变时才能写入
+     */
+    public static final String ROLE_SET_GENERATION_KEY="role-set-generation";
+
+    /**
+     * 授权索引：角色下的用户 key(set，存用户id)
+     */
+    public static final String AUTHZ_INDEX_ROLE_USERS_KEY="authz-index-role-users_";
+
+    /**
+     * 授权索引：拥有菜单权限的角色 key(set，存角色id)
+     */
+    public static final String AUTHZ_INDEX_PERMISSION_ROLES_KEY="authz-index-permission-roles_";
+
+    /**
+     * 授权索引可用标记 key，不存在时从数据库查询并等待重建
+     */
+    public static final String AUTHZ_INDEX_READY_KEY="authz-index-ready";
+
+    /**
+     * 授权索引版本号 key，每次增量更新加一，重建期间有增量更新就不标记可用
+     */
+    public static final String AUTHZ_INDEX_VERSION_KEY="authz-index-version";
+
+    /**
+     * 授权索引重建锁 key，集群里同时只有一个节点重建
+     */
+    public static final String AUTHZ_INDEX_REBUILD_LOCK_KEY="authz-index-rebuild-lock";
+
+    /**
+     * 部门闭包表重建锁 key，集群里同时只有一个节点重建
+     */
+    public static final String DEPT_CLOSURE_REBUILD_LOCK_KEY="dept-closure-rebuild-lock";
+
+    /**
+     * 用户认证/授权本地缓存失效广播频道
+     */
+    public static final String AUTH_INVALIDATION_CHANNEL="auth-invalidation-channel";
+
+    /**
+     * 角色集合授权快照失效广播频道
+     */
+    public static final String ROLE_SET_INVALIDATION_CHANNEL="role-set-invalidation-channel";
+
+    /**
+     * 菜单权限树失效广播频道
+     */
+    public static final String PERMISSION_TREE_INVALIDATION_CHANNEL="permission-tree-invalidation-channel";
+
+    /**
+     * 部门字典失效广播频道
+     */
+    public static final String DEPT_DICTIONARY_INVALIDATION_CHANNEL="dept-dictionary-invalidation-channel";
+
+    /**
+     * token 黑名单布隆过滤器同步频道
+     */
+    public static final String TOKEN_BLACKLIST_CHANNEL="token-blacklist-channel";
+
 }
@@ -1,19 +1,23 @@
 package com.yingxue.lesson.controller;
 
+import com.yingxue.lesson.aop.annotation.CurrentUserId;
 import com.yingxue.lesson.aop.annotation.MyLog;
-import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.service.HomeService;
-import com.yingxue.lesson.utils.DataResult;
-import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.CachedJsonBody;
+import com.yingxue.lesson.utils.HttpContextUtils;
 import com.yingxue.lesson.vo.resp.HomeRespVO;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
-
-import javax.servlet.http.HttpServletRequest;
+import springfox.documentation.annotations.ApiIgnore;
 
 /**
  * @ClassName: HomeController
@@ -24,14 +28,18 @@ import javax.servlet.http.HttpServletRequest;
 public class HomeController {
     @Autowired
     private HomeService homeService;
+    /**
+     * 直接输出序列化好的响应体，内容没变(If-None-Match 和 ETag 一致)返回 304
+     */
     @GetMapping("/home")
-    @ApiOperation(value = "获取首页数据接口")
+    @ApiOperation(value = "获取首页数据接口",response = HomeRespVO.class)
     @MyLog(title = "首页模块",action = "获取首页数据接口")
-    public DataResult<HomeRespVO> getHome(HttpServletRequest request){
-        String accessToken=request.getHeader(Constant.ACCESS_TOKEN);
-        String userId= JwtTokenUtil.getUserId(accessToken);
-        DataResult result =DataResult.success();
-        result.setData(homeService.getHome(userId));
-        return result;
+    public ResponseEntity<byte[]> getHome(@ApiIgnore @CurrentUserId String userId){
+        CachedJsonBody body=homeService.getHomeBody(userId);
+        CacheControl cacheControl=CacheControl.noCache().cachePrivate();
+        if(new ServletWebRequest(HttpContextUtils.getHttpServletRequest()).checkNotModified(body.getEtag())){
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(body.getEtag()).cacheControl(cacheControl).varyBy("authorization").build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).eTag(body.getEtag()).cacheControl(cacheControl).varyBy("authorization").body(body.getBody());
     }
 }
@@ -73,8 +73,8 @@ public class PermissionController {
     @MyLog(title = "组织管理-菜单权限管理",action = "编辑菜单权限接口")
     @RequiresPermissions("sys:permission:update")
     public DataResult updatePermission(@RequestBody @Valid PermissionUpdateReqVO vo){
-        permissionService.updatePermission(vo);
         DataResult result=DataResult.success();
+        result.setData(permissionService.updatePermission(vo));
         return result;
     }
 
@@ -84,7 +84,7 @@ public class PermissionController {
     @RequiresPermissions("sys:permission:delete")
     public DataResult deletedPermission(@PathVariable("permissionId") String permissionId){
         DataResult result=DataResult.success();
-        permissionService.deletedPermission(permissionId);
+        result.setData(permissionService.deletedPermission(permissionId));
         return result;
     }
 }
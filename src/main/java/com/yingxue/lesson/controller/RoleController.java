@@ -62,7 +62,7 @@ public class RoleController {
     @RequiresPermissions("sys:role:update")
     public DataResult updateRole(@RequestBody @Valid RoleUpdateReqVO vo){
         DataResult result=DataResult.success();
-        roleService.updateRole(vo);
+        result.setData(roleService.updateRole(vo));
         return result;
     }
 
@@ -71,8 +71,8 @@ public class RoleController {
     @MyLog(title = "组织管理-角色管理",action = "删除角色接口")
     @RequiresPermissions("sys:role:delete")
     public DataResult deletedRole(@PathVariable("id") String id){
-        roleService.deletedRole(id);
         DataResult result=DataResult.success();
+        result.setData(roleService.deletedRole(id));
         return result;
     }
 }
@@ -0,0 +1,38 @@
+package com.yingxue.lesson.controller;
+
+import com.yingxue.lesson.exception.BusinessException;
+import com.yingxue.lesson.exception.code.BaseResponseCode;
+import com.yingxue.lesson.service.SessionInvalidationService;
+import com.yingxue.lesson.utils.DataResult;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.apache.shiro.authz.annotation.Logical;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * @ClassName: SessionInvalidationController
+ * 修改/删除角色、菜单权限，删除用户时返回的会话失效任务，影响的用户多时在后台执行，通过这里查询进度
+ */
+@RestController
+@RequestMapping("/api")
+@Api(tags = "组织管理-会话失效任务",description = "会话失效任务相关接口")
+public class SessionInvalidationController {
+    @Autowired
+    private SessionInvalidationService sessionInvalidationService;
+
+    @GetMapping("/session-invalidation/{taskId}")
+    @ApiOperation(value = "查询会话失效任务进度接口")
+    @RequiresPermissions(value = {"sys:role:update","sys:role:delete","sys:permission:update","sys:permission:delete","sys:user:delete"},logical = Logical.OR)
+    public DataResult<InvalidationTaskRespVO> getTask(@PathVariable("taskId") String taskId){
+        InvalidationTaskRespVO task=sessionInvalidationService.getTask(taskId);
+        if(task==null){
+            throw new BusinessException(BaseResponseCode.INVALIDATION_TASK_NOT_EXIST);
+        }
+        DataResult result=DataResult.success();
+        result.setData(task);
+        return result;
+    }
+}
@@ -1,12 +1,12 @@
 package com.yingxue.lesson.controller;
 
+import com.yingxue.lesson.aop.annotation.CurrentUserId;
 import com.yingxue.lesson.aop.annotation.MyLog;
 import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.entity.SysUser;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.service.UserService;
 import com.yingxue.lesson.utils.DataResult;
-import com.yingxue.lesson.utils.JwtTokenUtil;
 import com.yingxue.lesson.vo.req.*;
 import com.yingxue.lesson.vo.resp.LoginRespVO;
 import com.yingxue.lesson.vo.resp.PageVO;
@@ -19,6 +19,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.shiro.authz.annotation.RequiresPermissions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
@@ -120,9 +121,7 @@ public class UserController {
     @ApiOperation(value ="列表修改用户信息接口")
     @MyLog(title = "组织管理-用户管理",action = "列表修改用户信息接口")
     @RequiresPermissions("sys:user:update")
-    public DataResult updateUserInfo(@RequestBody @Valid UserUpdateReqVO vo,HttpServletRequest request){
-        String accessToken=request.getHeader(Constant.ACCESS_TOKEN);
-        String userId= JwtTokenUtil.getUserId(accessToken);
+    public DataResult updateUserInfo(@RequestBody @Valid UserUpdateReqVO vo,@ApiIgnore @CurrentUserId String userId){
         DataResult result=DataResult.success();
         userService.updateUserInfo(vo,userId);
         return result;
@@ -132,20 +131,16 @@ public class UserController {
     @ApiOperation(value = "批量/删除用户接口")
     @MyLog(title = "组织管理-用户管理",action = "批量/删除用户接口")
     @RequiresPermissions("sys:user:delete")
-    public DataResult deletedUsers(@RequestBody @ApiParam(value = "用户id集合") List<String> list, HttpServletRequest request){
-        String accessToken=request.getHeader(Constant.ACCESS_TOKEN);
-        String operationId=JwtTokenUtil.getUserId(accessToken);
-        userService.deletedUsers(list,operationId);
+    public DataResult deletedUsers(@RequestBody @ApiParam(value = "用户id集合") List<String> list, @ApiIgnore @CurrentUserId String operationId){
         DataResult result=DataResult.success();
+        result.setData(userService.deletedUsers(list,operationId));
         return result;
     }
 
     @GetMapping("/user/info")
     @ApiOperation(value = "用户信息详情接口")
     @MyLog(title = "组织管理-用户管理",action = "用户信息详情接口")
-    public DataResult<SysUser> detailInfo(HttpServletRequest request){
-        String accessToken=request.getHeader(Constant.ACCESS_TOKEN);
-        String id=JwtTokenUtil.getUserId(accessToken);
+    public DataResult<SysUser> detailInfo(@ApiIgnore @CurrentUserId String id){
         DataResult result=DataResult.success();
         result.setData(userService.detailInfo(id));
         return result;
@@ -154,9 +149,7 @@ public class UserController {
     @PutMapping("/user/info")
     @ApiOperation(value = "保存个人信息接口")
     @MyLog(title = "组织管理-用户管理",action = "保存个人信息接口")
-    public DataResult saveUserInfo(@RequestBody UserUpdateDetailInfoReqVO vo,HttpServletRequest request){
-        String accessToken=request.getHeader(Constant.ACCESS_TOKEN);
-        String id=JwtTokenUtil.getUserId(accessToken);
+    public DataResult saveUserInfo(@RequestBody UserUpdateDetailInfoReqVO vo,@ApiIgnore @CurrentUserId String id){
         userService.userUpdateDetailInfo(vo,id);
         DataResult result=DataResult.success();
         return result;
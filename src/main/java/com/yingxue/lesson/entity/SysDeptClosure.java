@@ -0,0 +1,14 @@
+package com.yingxue.lesson.entity;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+@Data
+public class SysDeptClosure implements Serializable {
+    private String ancestor;
+
+    private String descendant;
+
+    private Integer depth;
+}
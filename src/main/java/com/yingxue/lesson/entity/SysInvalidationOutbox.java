@@ -0,0 +1,22 @@
+package com.yingxue.lesson.entity;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+@Data
+public class SysInvalidationOutbox implements Serializable {
+    private Long id;
+
+    private String type;
+
+    private String taskId;
+
+    private String ids;
+
+    private Integer attempts;
+
+    private Date nextAttemptTime;
+
+    private Date createTime;
+}
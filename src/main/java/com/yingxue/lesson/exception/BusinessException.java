@@ -16,15 +16,28 @@ public class BusinessException extends RuntimeException{
      */
     public final String defaultMessage;
 
+    /**
+     *  响应给客户端的附加数据(比如刷新 token 的延迟时间)，一般为 null
+     */
+    private final Object data;
+
     public BusinessException(int code, String defaultMessage) {
         super(defaultMessage);
         this.code = code;
         this.defaultMessage = defaultMessage;
+        this.data = null;
     }
 
     public BusinessException(BaseResponseCode baseResponseCode){
         this(baseResponseCode.getCode(), baseResponseCode.getMsg());
     }
+
+    public BusinessException(BaseResponseCode baseResponseCode, Object data){
+        super(baseResponseCode.getMsg());
+        this.code = baseResponseCode.getCode();
+        this.defaultMessage = baseResponseCode.getMsg();
+        this.data = data;
+    }
     public int getCode() {
         return code;
     }
@@ -32,4 +45,8 @@ public class BusinessException extends RuntimeException{
     public String getDefaultMessage() {
         return defaultMessage;
     }
+
+    public Object getData() {
+        return data;
+    }
 }
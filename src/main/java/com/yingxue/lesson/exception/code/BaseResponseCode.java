@@ -40,6 +40,7 @@ public enum BaseResponseCode implements ResponseCodeInterface{
     NOT_PERMISSION_DELETED_DEPT(4010015,"该组织机构下还关联着用户，不允许删除"),
     OLD_PASSWORD_ERROR(4010016,"旧密码不匹配"),
     OPERATION_MENU_PERMISSION_URL_CODE_NULL(4000011,"菜单权限的按钮标识不能为空"),
+    INVALIDATION_TASK_NOT_EXIST(4000012,"会话失效任务不存在或已过期"),
     ;
 
     /**
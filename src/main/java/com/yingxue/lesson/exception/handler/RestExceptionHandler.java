@@ -28,7 +28,7 @@ public class RestExceptionHandler {
     @ExceptionHandler(value = BusinessException.class)
     public DataResult businessException(BusinessException e){
         log.error("businessException,{},{}",e.getLocalizedMessage(),e);
-        return DataResult.getResult(e.getCode(),e.getDefaultMessage());
+        return DataResult.getResult(e.getCode(),e.getDefaultMessage(),e.getData());
     }
     /**
      * 处理validation 框架异常
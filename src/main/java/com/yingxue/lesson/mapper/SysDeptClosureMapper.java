@@ -0,0 +1,37 @@
+package com.yingxue.lesson.mapper;
+
+import com.yingxue.lesson.entity.SysDeptClosure;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+public interface SysDeptClosureMapper {
+
+    //新增部门：自身一行 + 父级的每个祖先各一行
+    int insertNode(@Param("deptId") String deptId, @Param("pid") String pid);
+
+    //移动部门第一步：删除子树和子树外祖先的关联
+    int deleteSubtreeLinks(String deptId);
+
+    //移动部门第二步：把子树挂到新父级的每个祖先下
+    int insertSubtreeLinks(@Param("deptId") String deptId, @Param("pid") String pid);
+
+    //子孙部门id(包括自己)，maxDepth 为 null 时不限层数
+    List<String> selectDescendantIds(@Param("deptId") String deptId, @Param("maxDepth") Integer maxDepth);
+
+    //祖先部门id(不包括自己)，由近到远
+    List<String> selectAncestorIds(String deptId);
+
+    int countLink(@Param("ancestor") String ancestor, @Param("descendant") String descendant);
+
+    //缺少自身那一行的部门数，大于 0 说明闭包表还没迁移或者不完整
+    int countMissingSelf();
+
+    //父级关联(depth=1)和 sys_dept.pid 对不上的部门数，大于 0 说明有部门没有经过闭包表就移动了
+    //只统计 relation_code 和父级一致的部门，按 relation_code 重建也修不好的脏数据不算，避免反复重建
+    int countMismatchedParent();
+
+    int deleteAll();
+
+    int batchInsert(List<SysDeptClosure> list);
+}
@@ -21,10 +21,11 @@ public interface SysDeptMapper {
 
     List<SysDept> selectAll();
 
-    //维护新的层级关系
-    int updateRelationCode(@Param("oldStr") String oldStr, @Param("newStr") String newStr, @Param("relationCode") String relationCode);
+    //维护新的层级关系：按闭包表只改被移动的子树，把 relation_code 的前缀换掉
+    int updateSubtreeRelationCode(@Param("deptId") String deptId, @Param("oldPrefix") String oldPrefix, @Param("newPrefix") String newPrefix);
 
-    List<String> selectChildIds(String relationCode);
+    //全部部门(包括已删除的)的 id、pid、relation_code，加锁读取，重建闭包表时在同一个事务里使用
+    List<SysDept> selectAllRelationCodes();
 
     int deletedDepts(@Param("updateTime") Date updateTime, @Param("list") List<String> list);
 
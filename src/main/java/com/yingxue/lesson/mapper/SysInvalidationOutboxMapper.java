@@ -0,0 +1,19 @@
+package com.yingxue.lesson.mapper;
+
+import com.yingxue.lesson.entity.SysInvalidationOutbox;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+public interface SysInvalidationOutboxMapper {
+
+    int insert(SysInvalidationOutbox record);
+
+    //到了发布时间、还没超过最大尝试次数的事件，按写入顺序
+    List<SysInvalidationOutbox> selectDue(@Param("maxAttempts") int maxAttempts, @Param("limit") int limit);
+
+    //认领事件：尝试次数加一并推迟下次发布时间，尝试次数和查出来时不一样(被别的节点认领了)返回 0
+    int claim(@Param("id") Long id, @Param("attempts") int attempts, @Param("delaySeconds") long delaySeconds);
+
+    int deleteByIds(List<Long> ids);
+}
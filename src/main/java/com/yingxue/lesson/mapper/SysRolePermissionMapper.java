@@ -1,6 +1,7 @@
 package com.yingxue.lesson.mapper;
 
 import com.yingxue.lesson.entity.SysRolePermission;
+import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
 
@@ -33,4 +34,10 @@ public interface SysRolePermissionMapper {
     //根绝角色id删除角色和菜单权限关联表相关数据
     int removeByRoleId(String roleId);
 
+    //删除角色和指定菜单权限的关联数据
+    int removeByRoleIdAndPermissionIds(@Param("roleId") String roleId, @Param("permissionIds") List<String> permissionIds);
+
+    //查询全部角色菜单权限关联数据，重建授权索引用
+    List<SysRolePermission> selectAllRelations();
+
 }
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.yingxue.lesson.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+public interface SysSequenceMapper {
+
+    //序列不存在就新建一行，存在什么都不做
+    int insertIfAbsent(String name);
+
+    //加行锁读取，和 updateNextValue 在同一个事务里使用，领号段时 redis 和数据库两条路都要先拿这把锁
+    Long selectNextValueForUpdate(String name);
+
+    int updateNextValue(@Param("name") String name, @Param("nextValue") long nextValue);
+}
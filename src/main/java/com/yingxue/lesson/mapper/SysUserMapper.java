@@ -27,4 +27,7 @@ public interface SysUserMapper {
 
     //根据部门id集合查找用户
     List<SysUser> selectUserInfoByDeptIds (List<String> deptIds);
+
+    //查找部门及其子孙部门下的用户(走部门闭包表)
+    List<SysUser> selectUserInfoByAncestorDeptId(String deptId);
 }
\ No newline at end of file
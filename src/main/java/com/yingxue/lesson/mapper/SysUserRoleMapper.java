@@ -1,6 +1,8 @@
 package com.yingxue.lesson.mapper;
 
+import com.yingxue.lesson.catalog.AuthzSnapshotRow;
 import com.yingxue.lesson.entity.SysUserRole;
+import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
 
@@ -30,5 +32,13 @@ public interface SysUserRoleMapper {
 
     int removeUserRoleId(String roleId);
 
+    List<AuthzSnapshotRow> selectAuthzSnapshot(String userId);
+
+    //删除用户和指定角色的关联数据
+    int removeByUserIdAndRoleIds(@Param("userId") String userId, @Param("roleIds") List<String> roleIds);
+
+    //查询全部用户角色关联数据，重建授权索引用
+    List<SysUserRole> selectAllRelations();
+
 
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.yingxue.lesson.resolver;
+
+import com.yingxue.lesson.aop.annotation.CurrentUserId;
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.utils.TokenContextHolder;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * 解析 @CurrentUserId 参数
+ * 优先从请求上下文里拿过滤器已经校验过的 token，拿不到(比如放行的接口)才解析 header 里的 token
+ */
+public class CurrentUserIdArgumentResolver implements HandlerMethodArgumentResolver {
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUserId.class)
+                && String.class.equals(parameter.getParameterType());
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        String userId = TokenContextHolder.getUserId();
+        if (userId != null) {
+            return userId;
+        }
+        return TokenContextHolder.getUserId(webRequest.getHeader(Constant.ACCESS_TOKEN));
+    }
+}
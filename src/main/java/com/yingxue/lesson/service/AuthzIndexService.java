@@ -0,0 +1,50 @@
+package com.yingxue.lesson.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * @ClassName: AuthzIndexService
+ * 授权索引
+ * 修改角色/菜单权限时要找出受影响的用户，以前是 sys_role_permission、sys_user_role 上不限长度的 in 查询
+ * 现在 redis 里维护 角色 -> 用户、菜单权限 -> 角色 两个集合，一次 SMEMBERS/SUNION 就能查出来
+ * 关联数据变更后在事务提交之后增量更新；索引不可用(还没建好、增量更新失败)时查询返回 null，调用方回退到查数据库，后台定时从数据库重建
+ */
+public interface AuthzIndexService {
+
+    /**
+     * 角色下的用户id，索引不可用返回 null
+     */
+    Set<String> getUserIdsByRoleIds(Collection<String> roleIds);
+
+    /**
+     * 拥有该菜单权限的角色id，索引不可用返回 null
+     */
+    Set<String> getRoleIdsByPermissionId(String permissionId);
+
+    /**
+     * 用户的角色变了，事务提交后更新索引
+     */
+    void updateUserRoles(String userId, Collection<String> removedRoleIds, Collection<String> addedRoleIds);
+
+    /**
+     * 角色的菜单权限变了，事务提交后更新索引
+     */
+    void updateRolePermissions(String roleId, Collection<String> removedPermissionIds, Collection<String> addedPermissionIds);
+
+    /**
+     * 角色和所有用户解除关联，事务提交后更新索引
+     */
+    void removeRoleUsers(String roleId);
+
+    /**
+     * 菜单权限和所有角色解除关联，事务提交后更新索引
+     */
+    void removePermissionRoles(String permissionId);
+
+    /**
+     * 从数据库重建索引
+     * 别的节点正在重建或者重建期间有增量更新返回 false，下次定时检查时再重建
+     */
+    boolean rebuild();
+}
@@ -0,0 +1,44 @@
+package com.yingxue.lesson.service;
+
+import java.util.List;
+
+/**
+ * @ClassName: DeptHierarchyService
+ * 部门层级(闭包表 sys_dept_closure)
+ * 以前查子孙部门、移动部门都靠 relation_code LIKE 前缀匹配和 REPLACE，移动一次要扫描并锁住大半张部门表
+ * 现在子孙、祖先都走索引，移动部门只改动被移动子树的行，需要和部门数据在同一个事务里调用
+ */
+public interface DeptHierarchyService {
+
+    /**
+     * 新增部门，pid 为 0 表示顶级部门
+     */
+    void addDept(String deptId, String pid);
+
+    /**
+     * 把部门连同子孙移动到新的父级下，新的父级不能是它自己或者它的子孙
+     */
+    void moveDept(String deptId, String newPid);
+
+    /**
+     * 子孙部门id(包括自己，不包括已删除的)，由近到远
+     * @param maxDepth 最多往下查几层，null 不限
+     */
+    List<String> getDescendantIds(String deptId, Integer maxDepth);
+
+    /**
+     * 祖先部门id(不包括自己)，由近到远
+     */
+    List<String> getAncestorIds(String deptId);
+
+    /**
+     * descendantId 是否是 ancestorId 自己或者它的子孙
+     */
+    boolean isDescendant(String ancestorId, String descendantId);
+
+    /**
+     * 按部门的 relation_code 重建整张闭包表
+     * 别的节点正在重建返回 false
+     */
+    boolean rebuild();
+}
@@ -1,5 +1,6 @@
 package com.yingxue.lesson.service;
 
+import com.yingxue.lesson.utils.CachedJsonBody;
 import com.yingxue.lesson.vo.resp.HomeRespVO;
 
 /**
@@ -7,4 +8,8 @@ import com.yingxue.lesson.vo.resp.HomeRespVO;
  */
 public interface HomeService {
     HomeRespVO getHome(String userId);
+    /**
+     * 首页数据序列化好的响应体(和 DataResult<HomeRespVO> 的 JSON 一致)及 ETag，菜单和用户信息都从内存获取
+     */
+    CachedJsonBody getHomeBody(String userId);
 }
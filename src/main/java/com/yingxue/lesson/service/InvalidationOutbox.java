@@ -0,0 +1,39 @@
+package com.yingxue.lesson.service;
+
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+
+import java.util.Collection;
+
+/**
+ * @ClassName: InvalidationOutbox
+ * 缓存失效/会话标记发件箱
+ * 以前删除角色、删除菜单权限在 @Transactional 方法里直接写 redis，数据库事务和行锁要一直等 redis 的网络往返，事务提交失败的话缓存却已经改了
+ * 现在业务代码只在事务里把失效事件写进发件箱表(sys_invalidation_outbox)，事务提交之后后台发布线程攒一批合并执行，发布成功才删除；
+ * 事务回滚事件跟着回滚，节点宕机没发布的事件由其它节点定时扫描接着发布，发布失败的退避重试
+ * 涉及用户的事件记录时就生成任务id，通过会话失效任务进度接口查询(发布之前查不到)
+ */
+public interface InvalidationOutbox {
+
+    /**
+     * 用户的角色变了：授权版本号加一(token 需要刷新)并清除用户对应的角色集合
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO authorizationChanged(Collection<String> userIds);
+
+    /**
+     * 用户的角色没变、角色的权限变了：只把授权版本号加一
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO tokensChanged(Collection<String> userIds);
+
+    /**
+     * 用户被删除：打上删除标记并清除用户对应的角色集合
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO usersDeleted(Collection<String> userIds);
+
+    /**
+     * 角色的名称/菜单权限变了：包含这些角色的角色集合授权快照失效
+     */
+    void rolesChanged(Collection<String> roleIds);
+}
@@ -1,8 +1,10 @@
 package com.yingxue.lesson.service;
 
 import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.shiro.RoleSetMenu;
 import com.yingxue.lesson.vo.req.PermissionAddReqVO;
 import com.yingxue.lesson.vo.req.PermissionUpdateReqVO;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
 
 import java.util.List;
@@ -16,9 +18,18 @@ public interface PermissionService {
     List<PermissionRespNodeVO> selectAllMenuByTree();
     SysPermission addPermission(PermissionAddReqVO vo);
     List<PermissionRespNodeVO> permissionTreeList(String userId);
+    /**
+     * 用户的导航菜单(对象和序列化好的 JSON)，角色集合相同的用户共用一份
+     */
+    RoleSetMenu permissionMenu(String userId);
     List<PermissionRespNodeVO> selectAllTree();
-    void updatePermission(PermissionUpdateReqVO vo);
-    void deletedPermission(String permissionId);
+    InvalidationTaskRespVO updatePermission(PermissionUpdateReqVO vo);
+    InvalidationTaskRespVO deletedPermission(String permissionId);
     Set<String> getPermissionsByUserId(String userId);
+    Set<String> getPermissionsByRoleIds(List<String> roleIds);
     List<SysPermission> getPermission(String userId);
+    /**
+     * 这些菜单权限里是否有带授权标识的，都是不带授权标识的目录/菜单的话用户的权限不会变
+     */
+    boolean hasPerms(List<String> permissionIds);
 }
@@ -2,11 +2,19 @@ package com.yingxue.lesson.service;
 
 import com.yingxue.lesson.exception.BusinessException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * @ClassName: RedisService
@@ -56,14 +64,71 @@ public class RedisService {
     }
 
     /**
+     * 用 SCAN 游标分批遍历匹配的 key，不会像 KEYS 那样阻塞 redis
+     * 不提供 KEYS 命令的封装，需要按模式查找 key 一律用 scan
+     * count 只是每批数量的建议值，遍历期间新增/删除的 key 可能遍历到也可能遍历不到
      */
-    public Set<String> keys(String pattern) {
-        if (null==pattern){
+    public void scan(String pattern, int count, Consumer<String> consumer) {
+        if (null==pattern||null==consumer){
+            return;
+        }
+        ScanOptions options=ScanOptions.scanOptions().match(pattern).count(count).build();
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    consumer.accept(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new BusinessException(4001004,"关闭 scan 游标失败");
+            }
             return null;
+        });
+    }
+
+    /**
+     * 用 SCAN 游标遍历匹配的 key，每攒够 batchSize 个交给 consumer 处理一次(比如批量 UNLINK/MGET)
+     * 内存里最多只保留一批 key
+     */
+    public void scanInBatches(String pattern, int batchSize, Consumer<List<String>> consumer) {
+        if (null==pattern||null==consumer||batchSize<=0){
+            return;
+        }
+        List<String> batch=new ArrayList<>(batchSize);
+        scan(pattern, batchSize, key -> {
+            batch.add(key);
+            if (batch.size() >= batchSize) {
+                consumer.accept(new ArrayList<>(batch));
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
         }
-        return redisTemplate.keys(pattern);
     }
 
+    /**
+     * 用管道批量执行命令，action 里发出的命令一次性发送、一次性读取结果，只有一次网络往返
+     * action 里直接使用底层连接的字节命令，命令的返回值在管道里都是 null
+     */
+    public void executePipelined(Consumer<RedisConnection> action) {
+        if (null==action){
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            action.accept(connection);
+            return null;
+        });
+    }
+
+    /**
+     * 批量非阻塞删除key，内存在 redis 后台线程回收
+     */
+    public Long unlink(Collection<String> keys) {
+        if (null==keys||keys.isEmpty()){
+            return 0L;
+        }
+        return redisTemplate.unlink(keys);
+    }
 
     /**
      */
@@ -84,6 +149,27 @@ public class RedisService {
         return redisTemplate.getExpire(key, unit);
     }
 
+    /**
+     * 执行 lua 脚本
+     * 脚本在 redis 服务端原子执行，多个命令只需要一次网络往返
+     */
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        if (null==script){
+            throw new BusinessException(4001004,"script 不能为空");
+        }
+        return redisTemplate.execute(script, keys, args);
+    }
+
+    /**
+     * 向频道发布消息
+     */
+    public void convertAndSend(String channel, Object message) {
+        if (null==channel||null==message){
+            return;
+        }
+        redisTemplate.convertAndSend(channel, message);
+    }
+
     //*************String相关数据类型***************************
     /**
      * 设置指定 key 的值
@@ -270,6 +356,7 @@ public class RedisService {
         return redisTemplate.opsForHash().increment(key,field,increment);
 
     }
+
     //***************List数据类型***************
     /**
      * 向列表左边添加元素。如果该Key不存在，该命令将在插入之前创建一个与该Key关联的空链表，之后再将数据从链表的头部插入。
@@ -476,6 +563,18 @@ public class RedisService {
         }
         return redisTemplate.opsForSet().union(key, otherKeys);
     }
+
+    /**
+     * 获取多个集合的并集
+     */
+    public Set<Object> sUnion(Collection<String> keys) {
+        if (null==keys||keys.isEmpty()){
+            return Collections.emptySet();
+        }
+        List<String> otherKeys=new ArrayList<>(keys);
+        String key=otherKeys.remove(0);
+        return redisTemplate.opsForSet().union(key, otherKeys);
+    }
     //**********Sorted Set 数据类型********************
     /**
      *添加参数中指定的所有成员及其分数到指定key的Sorted Set中，在该命令中我们可以指定多组score/member作为参数。
@@ -9,7 +9,10 @@ import java.util.List;
  * @ClassName: RolePermissionService
  */
 public interface RolePermissionService {
-    void addRolePermission(RolePermissionOperationReqVO vo);
+    /**
+     * 保存角色的菜单权限，只写变化的部分，返回新增和去掉的菜单权限id，没有变化返回空集合
+     */
+    List<String> addRolePermission(RolePermissionOperationReqVO vo);
     List<String> getRoleIdsByPermissionId(String permissionId);
     int removeRoleByPermissionId(String permissionId);
     List<String> getPermissionIdsByRoleId(String roleId);
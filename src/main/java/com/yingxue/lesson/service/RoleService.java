@@ -4,6 +4,7 @@ import com.yingxue.lesson.entity.SysRole;
 import com.yingxue.lesson.vo.req.AddRoleReqVO;
 import com.yingxue.lesson.vo.req.RolePageReqVO;
 import com.yingxue.lesson.vo.req.RoleUpdateReqVO;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.PageVO;
 
 import java.util.List;
@@ -16,8 +17,9 @@ public interface RoleService {
     SysRole addRole(AddRoleReqVO vo);
     List<SysRole> selectAll();
     SysRole detailInfo(String id);
-    void updateRole(RoleUpdateReqVO vo);
-    void deletedRole(String roleId);
+    InvalidationTaskRespVO updateRole(RoleUpdateReqVO vo);
+    InvalidationTaskRespVO deletedRole(String roleId);
     List<String> getRoleNames(String userId);
+    List<String> getRoleNamesByRoleIds(List<String> roleIds);
     List<SysRole> getRoleInfoByUserId(String userId);
 }
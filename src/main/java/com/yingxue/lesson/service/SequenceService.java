@@ -0,0 +1,16 @@
+package com.yingxue.lesson.service;
+
+/**
+ * @ClassName: SequenceService
+ * 号段序列，给部门编码(YXD)、菜单权限编码(YXP)这类给人看的编码发号
+ * 每次从 redis 领一段号(sequence.block-size 个)，本节点在内存里用原子计数器发完再领下一段；redis 不可用时从数据库领
+ * 只保证唯一、单个节点内递增，集群里多个节点同时发号时整体不是严格递增的
+ */
+public interface SequenceService {
+
+    /**
+     * 下一个号
+     * @param name 序列名称，同时是 redis 里的 key
+     */
+    long next(String name);
+}
@@ -0,0 +1,40 @@
+package com.yingxue.lesson.service;
+
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+
+import java.util.Collection;
+
+/**
+ * @ClassName: SessionInvalidationService
+ * 批量会话失效
+ * 修改/删除角色、菜单权限，删除用户时，影响到的用户按批用管道写 redis，每批只有一次网络往返
+ * 业务代码不直接调用，通过 InvalidationOutbox 在事务提交后由发布线程调用；任务id由发件箱记录事件时生成
+ * 在调用线程上执行完才返回，任何一批失败都抛出异常，发件箱据此决定事件能不能删除
+ * 影响的用户数超过 auth-cache.invalidation-async-threshold 的每写完一批记录一次进度，通过任务id查询
+ */
+public interface SessionInvalidationService {
+
+    /**
+     * 用户的角色/权限发生了变化：授权版本号加一(token 需要刷新)并清除授权缓存
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO invalidateAuthorization(String taskId, Collection<String> userIds);
+
+    /**
+     * 用户的角色没变、角色的权限变了：只把授权版本号加一(token 需要刷新)
+     * 用户对应的角色集合还是对的不用清，授权快照由 RoleSetSnapshotStore 按角色失效
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO invalidateTokens(String taskId, Collection<String> userIds);
+
+    /**
+     * 用户被删除：打上删除标记(在 refresh_token 最长存活时间内有效)并清除授权缓存
+     * 没有影响到任何用户返回 null
+     */
+    InvalidationTaskRespVO invalidateDeletedUsers(String taskId, Collection<String> userIds);
+
+    /**
+     * 查询任务进度，任务不存在或者已过期返回 null
+     */
+    InvalidationTaskRespVO getTask(String taskId);
+}
@@ -0,0 +1,37 @@
+package com.yingxue.lesson.service;
+
+import com.yingxue.lesson.shiro.RevocationDecision;
+import com.yingxue.lesson.utils.VerifiedToken;
+
+/**
+ * @ClassName: TokenRevocationService
+ * token 吊销检查
+ */
+public interface TokenRevocationService {
+
+    /**
+     * 检查 token 及其所属用户的吊销状态
+     */
+    RevocationDecision check(VerifiedToken verifiedToken);
+
+    /**
+     * refresh_token 是否已经吊销(主动退出或者所有会话被吊销)
+     */
+    boolean isRefreshTokenRevoked(VerifiedToken refreshToken);
+
+    /**
+     * 吊销一次登录的会话(主动退出)
+     * refreshToken 解析失败可以传 null
+     */
+    void revokeSession(VerifiedToken accessToken, VerifiedToken refreshToken);
+
+    /**
+     * 吊销用户所有的会话，只写一个 key
+     */
+    void revokeAllSessions(String userId);
+
+    /**
+     * 用户当前的授权版本号，签发 token 时写进 token
+     */
+    long getAuthzEpoch(String userId);
+}
@@ -10,7 +10,10 @@ import java.util.List;
 public interface UserRoleService {
 
     List<String> getRoleIdsByUserId(String userId);
-    void addUserRoleInfo(UserOwnRoleReqVO vo);
+    /**
+     * 保存用户的角色，只写变化的部分，返回用户的角色是否发生了变化
+     */
+    boolean addUserRoleInfo(UserOwnRoleReqVO vo);
     List<String> getUserIdsByRoleIds(List<String> roleIds);
     List<String> getUserIdsBtRoleId(String roleId);
     int removeUserRoleId(String roleId);
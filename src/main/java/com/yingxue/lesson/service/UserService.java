@@ -2,6 +2,7 @@ package com.yingxue.lesson.service;
 
 import com.yingxue.lesson.entity.SysUser;
 import com.yingxue.lesson.vo.req.*;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.LoginRespVO;
 import com.yingxue.lesson.vo.resp.PageVO;
 import com.yingxue.lesson.vo.resp.UserOwnRoleRespVO;
@@ -32,10 +33,15 @@ public interface UserService {
 
     void updateUserInfo(UserUpdateReqVO vo,String operationId);
 
-    void deletedUsers(List<String> list, String operationId);
+    InvalidationTaskRespVO deletedUsers(List<String> list, String operationId);
 
     List<SysUser> selectUserInfoByDeptIds(List<String> deptIds);
 
+    /**
+     * 部门及其子孙部门下的用户
+     */
+    List<SysUser> selectUserInfoByDeptTree(String deptId);
+
     SysUser detailInfo(String userId);
 
     //个人用户编辑信息接口
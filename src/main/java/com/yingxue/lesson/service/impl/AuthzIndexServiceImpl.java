@@ -0,0 +1,265 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysRolePermission;
+import com.yingxue.lesson.entity.SysUserRole;
+import com.yingxue.lesson.mapper.SysRolePermissionMapper;
+import com.yingxue.lesson.mapper.SysUserRoleMapper;
+import com.yingxue.lesson.service.AuthzIndexService;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * @ClassName: AuthzIndexServiceImpl
+ * 增量更新在同一个管道里把版本号加一；重建前后版本号不一样说明重建期间有增量更新，可能被覆盖，不标记可用，下次再重建
+ */
+@Slf4j
+@Service
+public class AuthzIndexServiceImpl implements AuthzIndexService {
+    /**
+     * 重建时每个管道写多少个集合
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 重建锁的过期时间(分钟)，节点重建到一半挂了也能释放
+     */
+    private static final long REBUILD_LOCK_MINUTES = 10;
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private SysUserRoleMapper sysUserRoleMapper;
+    @Autowired
+    private SysRolePermissionMapper sysRolePermissionMapper;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+
+    private ScheduledExecutorService rebuildExecutor;
+
+    @PostConstruct
+    public void init() {
+        rebuildExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "authz-index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = authCacheSettings.getAuthzIndexCheckInterval().toMillis();
+        rebuildExecutor.scheduleWithFixedDelay(this::checkReady, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    @Override
+    public Set<String> getUserIdsByRoleIds(Collection<String> roleIds) {
+        if (roleIds == null || roleIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<String> keys = new ArrayList<>();
+        for (String roleId : roleIds) {
+            keys.add(Constant.AUTHZ_INDEX_ROLE_USERS_KEY + roleId);
+        }
+        try {
+            if (!isReady()) {
+                return null;
+            }
+            return toStrings(redisService.sUnion(keys));
+        } catch (Exception e) {
+            log.error("read authz index error", e);
+            return null;
+        }
+    }
+
+    @Override
+    public Set<String> getRoleIdsByPermissionId(String permissionId) {
+        try {
+            if (!isReady()) {
+                return null;
+            }
+            return toStrings(redisService.smembers(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY + permissionId));
+        } catch (Exception e) {
+            log.error("read authz index error", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void updateUserRoles(String userId, Collection<String> removedRoleIds, Collection<String> addedRoleIds) {
+        if (isEmpty(removedRoleIds) && isEmpty(addedRoleIds)) {
+            return;
+        }
+        afterCommit(connection -> {
+            byte[] member = raw(userId);
+            for (String roleId : nullToEmpty(removedRoleIds)) {
+                connection.sRem(raw(Constant.AUTHZ_INDEX_ROLE_USERS_KEY + roleId), member);
+            }
+            for (String roleId : nullToEmpty(addedRoleIds)) {
+                connection.sAdd(raw(Constant.AUTHZ_INDEX_ROLE_USERS_KEY + roleId), member);
+            }
+        });
+    }
+
+    @Override
+    public void updateRolePermissions(String roleId, Collection<String> removedPermissionIds, Collection<String> addedPermissionIds) {
+        if (isEmpty(removedPermissionIds) && isEmpty(addedPermissionIds)) {
+            return;
+        }
+        afterCommit(connection -> {
+            byte[] member = raw(roleId);
+            for (String permissionId : nullToEmpty(removedPermissionIds)) {
+                connection.sRem(raw(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY + permissionId), member);
+            }
+            for (String permissionId : nullToEmpty(addedPermissionIds)) {
+                connection.sAdd(raw(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY + permissionId), member);
+            }
+        });
+    }
+
+    @Override
+    public void removeRoleUsers(String roleId) {
+        afterCommit(connection -> connection.unlink(raw(Constant.AUTHZ_INDEX_ROLE_USERS_KEY + roleId)));
+    }
+
+    @Override
+    public void removePermissionRoles(String permissionId) {
+        afterCommit(connection -> connection.unlink(raw(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY + permissionId)));
+    }
+
+    @Override
+    public boolean rebuild() {
+        Boolean locked = redisService.setifAbsen(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY, "1", REBUILD_LOCK_MINUTES, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(locked)) {
+            return false;
+        }
+        try {
+            Object before = redisService.get(Constant.AUTHZ_INDEX_VERSION_KEY);
+            redisService.delete(Constant.AUTHZ_INDEX_READY_KEY);
+            Map<String, List<String>> roleUsers = new HashMap<>();
+            for (SysUserRole sysUserRole : sysUserRoleMapper.selectAllRelations()) {
+                roleUsers.computeIfAbsent(sysUserRole.getRoleId(), k -> new ArrayList<>()).add(sysUserRole.getUserId());
+            }
+            Map<String, List<String>> permissionRoles = new HashMap<>();
+            for (SysRolePermission sysRolePermission : sysRolePermissionMapper.selectAllRelations()) {
+                permissionRoles.computeIfAbsent(sysRolePermission.getPermissionId(), k -> new ArrayList<>()).add(sysRolePermission.getRoleId());
+            }
+            //先清掉旧的索引再整体写入
+            redisService.scanInBatches(Constant.AUTHZ_INDEX_ROLE_USERS_KEY + "*", BATCH_SIZE, redisService::unlink);
+            redisService.scanInBatches(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY + "*", BATCH_SIZE, redisService::unlink);
+            write(Constant.AUTHZ_INDEX_ROLE_USERS_KEY, roleUsers);
+            write(Constant.AUTHZ_INDEX_PERMISSION_ROLES_KEY, permissionRoles);
+            Object after = redisService.get(Constant.AUTHZ_INDEX_VERSION_KEY);
+            if (!Objects.equals(before, after)) {
+                log.warn("authz index changed during rebuild, retry later");
+                return false;
+            }
+            redisService.set(Constant.AUTHZ_INDEX_READY_KEY, "1");
+            log.info("authz index rebuilt, roles={} permissions={}", roleUsers.size(), permissionRoles.size());
+            return true;
+        } finally {
+            redisService.delete(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY);
+        }
+    }
+
+    /**
+     * 定时检查，索引不可用就重建
+     */
+    private void checkReady() {
+        try {
+            if (!isReady()) {
+                rebuild();
+            }
+        } catch (Exception e) {
+            log.error("rebuild authz index error", e);
+        }
+    }
+
+    private boolean isReady() {
+        return Boolean.TRUE.equals(redisService.hasKey(Constant.AUTHZ_INDEX_READY_KEY));
+    }
+
+    private void write(String prefix, Map<String, List<String>> index) {
+        List<Map.Entry<String, List<String>>> entries = new ArrayList<>(index.entrySet());
+        for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+            List<Map.Entry<String, List<String>>> batch = entries.subList(from, Math.min(from + BATCH_SIZE, entries.size()));
+            redisService.executePipelined(connection -> {
+                for (Map.Entry<String, List<String>> entry : batch) {
+                    byte[][] members = new byte[entry.getValue().size()][];
+                    for (int i = 0; i < members.length; i++) {
+                        members[i] = raw(entry.getValue().get(i));
+                    }
+                    connection.sAdd(raw(prefix + entry.getKey()), members);
+                }
+            });
+        }
+    }
+
+    /**
+     * 有事务的话等事务提交之后再写 redis，回滚了就不写；增量更新失败把索引标记为不可用，查询回退到数据库，等待重建
+     */
+    private void afterCommit(Consumer<RedisConnection> update) {
+        Runnable apply = () -> {
+            try {
+                redisService.executePipelined(connection -> {
+                    update.accept(connection);
+                    connection.incr(raw(Constant.AUTHZ_INDEX_VERSION_KEY));
+                });
+            } catch (Exception e) {
+                log.error("update authz index error", e);
+                try {
+                    redisService.delete(Constant.AUTHZ_INDEX_READY_KEY);
+                } catch (Exception ex) {
+                    log.error("mark authz index stale error", ex);
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private static Set<String> toStrings(Set<Object> members) {
+        Set<String> result = new LinkedHashSet<>();
+        if (members != null) {
+            for (Object member : members) {
+                result.add(member.toString());
+            }
+        }
+        return result;
+    }
+
+    private static boolean isEmpty(Collection<String> collection) {
+        return collection == null || collection.isEmpty();
+    }
+
+    private static Collection<String> nullToEmpty(Collection<String> collection) {
+        return collection == null ? Collections.<String>emptyList() : collection;
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
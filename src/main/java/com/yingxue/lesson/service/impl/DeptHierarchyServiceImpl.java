@@ -0,0 +1,192 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysDept;
+import com.yingxue.lesson.entity.SysDeptClosure;
+import com.yingxue.lesson.exception.BusinessException;
+import com.yingxue.lesson.exception.code.BaseResponseCode;
+import com.yingxue.lesson.mapper.SysDeptClosureMapper;
+import com.yingxue.lesson.mapper.SysDeptMapper;
+import com.yingxue.lesson.service.DeptHierarchyService;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.DeptHierarchySettings;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: DeptHierarchyServiceImpl
+ * 启动时和之后定时检查闭包表，有部门缺少自身那一行(第一次上线、滚动发布时老节点新增的部门)
+ * 或者父级关联和 pid 对不上(老节点移动的部门)，就按 relation_code 整体重建一次
+ * relation_code 是各级部门编码(YXD + 数字)拼起来的，每个以 YXD 开头的前缀对应一个祖先部门
+ */
+@Slf4j
+@Service
+public class DeptHierarchyServiceImpl implements DeptHierarchyService {
+    /**
+     * 部门编码前缀，relation_code 按它切分出各级祖先
+     */
+    private static final String DEPT_CODE_PREFIX = "YXD";
+    /**
+     * 重建时每条 insert 写多少行
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 重建锁的过期时间(分钟)，节点重建到一半挂了也能释放
+     */
+    private static final long REBUILD_LOCK_MINUTES = 10;
+
+    @Autowired
+    private SysDeptClosureMapper sysDeptClosureMapper;
+    @Autowired
+    private SysDeptMapper sysDeptMapper;
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private DeptHierarchySettings deptHierarchySettings;
+
+    private ScheduledExecutorService checkExecutor;
+
+    @PostConstruct
+    public void init() {
+        checkExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dept-closure-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = deptHierarchySettings.getCheckInterval().toMillis();
+        checkExecutor.scheduleWithFixedDelay(this::check, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        checkExecutor.shutdownNow();
+    }
+
+    /**
+     * 闭包表和部门数据对不上就重建
+     */
+    private void check() {
+        try {
+            int missing = sysDeptClosureMapper.countMissingSelf();
+            int mismatched = missing > 0 ? 0 : sysDeptClosureMapper.countMismatchedParent();
+            if (missing == 0 && mismatched == 0) {
+                return;
+            }
+            log.info("sys_dept_closure out of date (missing={}, mismatched={}), rebuild from relation_code", missing, mismatched);
+            if (!rebuild()) {
+                log.warn("sys_dept_closure is being rebuilt by another node");
+            }
+        } catch (Exception e) {
+            log.error("check sys_dept_closure error", e);
+        }
+    }
+
+    @Override
+    public void addDept(String deptId, String pid) {
+        sysDeptClosureMapper.insertNode(deptId, pid);
+    }
+
+    @Override
+    public void moveDept(String deptId, String newPid) {
+        if (!"0".equals(newPid) && isDescendant(deptId, newPid)) {
+            log.info("部门{}不能移动到自己或者子孙部门{}下", deptId, newPid);
+            throw new BusinessException(BaseResponseCode.DATA_ERROR);
+        }
+        sysDeptClosureMapper.deleteSubtreeLinks(deptId);
+        if (!"0".equals(newPid)) {
+            sysDeptClosureMapper.insertSubtreeLinks(deptId, newPid);
+        }
+    }
+
+    @Override
+    public List<String> getDescendantIds(String deptId, Integer maxDepth) {
+        return sysDeptClosureMapper.selectDescendantIds(deptId, maxDepth);
+    }
+
+    @Override
+    public List<String> getAncestorIds(String deptId) {
+        return sysDeptClosureMapper.selectAncestorIds(deptId);
+    }
+
+    @Override
+    public boolean isDescendant(String ancestorId, String descendantId) {
+        return sysDeptClosureMapper.countLink(ancestorId, descendantId) > 0;
+    }
+
+    @Override
+    public boolean rebuild() {
+        Boolean locked = redisService.setifAbsen(Constant.DEPT_CLOSURE_REBUILD_LOCK_KEY, "1", REBUILD_LOCK_MINUTES, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(locked)) {
+            return false;
+        }
+        try {
+            //读取部门、清空和写入在一个事务里，部门加锁读取，重建期间新增/移动部门要等重建完；查询看到的还是旧数据
+            Integer size = transactionTemplate.execute(status -> {
+                List<SysDeptClosure> links = buildLinks(sysDeptMapper.selectAllRelationCodes());
+                sysDeptClosureMapper.deleteAll();
+                for (int from = 0; from < links.size(); from += BATCH_SIZE) {
+                    sysDeptClosureMapper.batchInsert(links.subList(from, Math.min(from + BATCH_SIZE, links.size())));
+                }
+                return links.size();
+            });
+            log.info("sys_dept_closure rebuilt, links={}", size);
+            return true;
+        } finally {
+            redisService.delete(Constant.DEPT_CLOSURE_REBUILD_LOCK_KEY);
+        }
+    }
+
+    /**
+     * 每个部门：自身一行，relation_code 里每个更短的前缀对应的部门一行
+     * 找不到前缀对应的部门(数据不一致)就跳过那一级
+     */
+    private List<SysDeptClosure> buildLinks(List<SysDept> depts) {
+        Map<String, String> idsByRelationCode = new HashMap<>(depts.size() * 2);
+        for (SysDept sysDept : depts) {
+            if (!StringUtils.isEmpty(sysDept.getRelationCode())) {
+                idsByRelationCode.put(sysDept.getRelationCode(), sysDept.getId());
+            }
+        }
+        List<SysDeptClosure> links = new ArrayList<>();
+        for (SysDept sysDept : depts) {
+            links.add(link(sysDept.getId(), sysDept.getId(), 0));
+            String relationCode = sysDept.getRelationCode();
+            if (StringUtils.isEmpty(relationCode)) {
+                continue;
+            }
+            List<Integer> boundaries = new ArrayList<>();
+            for (int i = relationCode.indexOf(DEPT_CODE_PREFIX, 1); i > 0; i = relationCode.indexOf(DEPT_CODE_PREFIX, i + 1)) {
+                boundaries.add(i);
+            }
+            int depth = boundaries.size();
+            for (int end : boundaries) {
+                String ancestorId = idsByRelationCode.get(relationCode.substring(0, end));
+                if (ancestorId != null && !ancestorId.equals(sysDept.getId())) {
+                    links.add(link(ancestorId, sysDept.getId(), depth));
+                }
+                depth--;
+            }
+        }
+        return links;
+    }
+
+    private static SysDeptClosure link(String ancestor, String descendant, int depth) {
+        SysDeptClosure sysDeptClosure = new SysDeptClosure();
+        sysDeptClosure.setAncestor(ancestor);
+        sysDeptClosure.setDescendant(descendant);
+        sysDeptClosure.setDepth(depth);
+        return sysDeptClosure;
+    }
+}
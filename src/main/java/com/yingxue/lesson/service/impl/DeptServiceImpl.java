@@ -1,13 +1,16 @@
 package com.yingxue.lesson.service.impl;
 
+import com.yingxue.lesson.catalog.DeptDictionary;
+import com.yingxue.lesson.catalog.DeptTree;
 import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.entity.SysDept;
 import com.yingxue.lesson.entity.SysUser;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysDeptMapper;
+import com.yingxue.lesson.service.DeptHierarchyService;
 import com.yingxue.lesson.service.DeptService;
-import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.service.SequenceService;
 import com.yingxue.lesson.service.UserService;
 import com.yingxue.lesson.utils.CodeUtil;
 import com.yingxue.lesson.vo.req.DeptAddReqVO;
@@ -36,81 +39,41 @@ public class DeptServiceImpl implements DeptService {
     private SysDeptMapper sysDeptMapper;
 
     @Autowired
-    private RedisService redisService;
+    private SequenceService sequenceService;
 
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private DeptHierarchyService deptHierarchyService;
+
+    @Autowired
+    private DeptDictionary deptDictionary;
+
     @Override
     public List<SysDept> selectAll() {
-        List<SysDept> list=sysDeptMapper.selectAll();
-        for (SysDept s:
-             list) {
-            SysDept parent = sysDeptMapper.selectByPrimaryKey(s.getPid());
-            if(parent!=null){
-                s.setPidName(parent.getName());
-            }
-        }
-        return list;
+        //父级名称在加载部门字典时已经填好了，不用再逐条查询
+        return deptDictionary.current().getAll();
     }
 
     @Override
     public List<DeptRespNodeVO> deptTreeList(String deptId) {
-        List<SysDept> list=sysDeptMapper.selectAll();
-        //我要想去掉这个部门的叶子节点，直接在数据源移除这个部门就可以了
-        if(!StringUtils.isEmpty(deptId)&&!list.isEmpty()){
-            for (SysDept s:
-                 list) {
-                if(s.getId().equals(deptId)){
-                    list.remove(s);
-                    break;
-                }
-            }
-        }
         DeptRespNodeVO respNodeVO=new DeptRespNodeVO();
-        respNodeVO.setId("0");
+        respNodeVO.setId(DeptTree.ROOT_ID);
         respNodeVO.setTitle("默认顶级部门");
-        respNodeVO.setChildren(getTree(list));
+        //我要想去掉这个部门的叶子节点，组装时跳过这个部门就可以了
+        respNodeVO.setChildren(deptDictionary.current().toTree(StringUtils.isEmpty(deptId)?null:deptId));
         List<DeptRespNodeVO> result=new ArrayList<>();
         result.add(respNodeVO);
         return result;
     }
 
-    private List<DeptRespNodeVO> getTree(List<SysDept> all){
-        List<DeptRespNodeVO> list=new ArrayList<>();
-        for (SysDept s:
-             all) {
-            if(s.getPid().equals("0")){
-                DeptRespNodeVO respNodeVO=new DeptRespNodeVO();
-                respNodeVO.setId(s.getId());
-                respNodeVO.setTitle(s.getName());
-                respNodeVO.setChildren(getChild(s.getId(),all));
-                list.add(respNodeVO);
-            }
-        }
-        return list;
-    }
-
-    private List<DeptRespNodeVO> getChild(String id,List<SysDept> all){
-        List<DeptRespNodeVO> list=new ArrayList<>();
-        for (SysDept s :
-                all) {
-            if(s.getPid().equals(id)){
-                DeptRespNodeVO deptRespNodeVO=new DeptRespNodeVO();
-                deptRespNodeVO.setId(s.getId());
-                deptRespNodeVO.setTitle(s.getName());
-                deptRespNodeVO.setChildren(getChild(s.getId(),all));
-                list.add(deptRespNodeVO);
-
-            }
-        }
-        return list;
-    }
-
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public SysDept addDept(DeptAddReqVO vo) {
         String relationCode;
-        long deptCount=redisService.incrby(Constant.DEPT_CODE_KEY,1);
+        //号段在本地发，不用每个部门都访问一次 redis
+        long deptCount=sequenceService.next(Constant.DEPT_CODE_KEY);
         String deptCode= CodeUtil.deptCode(String.valueOf(deptCount),7,"0");
         SysDept parent=sysDeptMapper.selectByPrimaryKey(vo.getPid());
         if(vo.getPid().equals("0")){
@@ -131,6 +94,8 @@ public class DeptServiceImpl implements DeptService {
         if(i!=1){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
+        deptHierarchyService.addDept(sysDept.getId(),vo.getPid());
+        deptDictionary.changed();
         return sysDept;
     }
 
@@ -143,6 +108,15 @@ public class DeptServiceImpl implements DeptService {
             log.error("传入 的 id:{}不合法",vo.getId());
             throw new BusinessException(BaseResponseCode.DATA_ERROR);
         }
+        boolean moved=!vo.getPid().equals(sysDept.getPid());
+        SysDept newParent=null;
+        if(moved){
+            newParent=sysDeptMapper.selectByPrimaryKey(vo.getPid());
+            if(!vo.getPid().equals("0")&&null==newParent){
+                log.info("修改后的部门在数据库查找不到{}",vo.getPid());
+                throw new BusinessException(BaseResponseCode.DATA_ERROR);
+            }
+        }
         SysDept update=new SysDept();
         BeanUtils.copyProperties(vo,update);
         update.setUpdateTime(new Date());
@@ -150,36 +124,20 @@ public class DeptServiceImpl implements DeptService {
         if(count!=1){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
+        deptDictionary.changed();
 
         //就是维护层级关系
-        if(!vo.getPid().equals(sysDept.getPid())){
-            //子集的部门层级关系编码=父级部门层级关系编码+它本身部门编码
-            SysDept newParent=sysDeptMapper.selectByPrimaryKey(vo.getPid());
-                if(!vo.getPid().equals("0")&&null==newParent){
-                    log.info("修改后的部门在数据库查找不到{}",vo.getPid());
-                    throw new BusinessException(BaseResponseCode.DATA_ERROR);
-                }
-                SysDept oldParent=sysDeptMapper.selectByPrimaryKey(sysDept.getPid());
-                String oleRelation;
-                String newRelation;
-            /**
-             * 根目录挂靠到其它目录
-             */
-            if(sysDept.getPid().equals("0")){
-                oleRelation=sysDept.getRelationCode();
-                newRelation=newParent.getRelationCode()+sysDept.getDeptNo();
-            }else if(vo.getPid().equals("0")){
-                oleRelation=sysDept.getRelationCode();
-                newRelation=sysDept.getDeptNo();
-            }else {
-                oleRelation=oldParent.getRelationCode();
-                newRelation=newParent.getRelationCode();
-            }
-            sysDeptMapper.updateRelationCode(oleRelation,newRelation,sysDept.getRelationCode());
-        }
+        if(moved){
+            //闭包表里把子树挂到新的父级下(不能挂到自己的子孙下)，只改动子树的行
+            deptHierarchyService.moveDept(vo.getId(),vo.getPid());
+            //子集的部门层级关系编码=父级部门层级关系编码+它本身部门编码，子树里的编码把前缀换掉
+            String newRelation=vo.getPid().equals("0")?sysDept.getDeptNo():newParent.getRelationCode()+sysDept.getDeptNo();
+            sysDeptMapper.updateSubtreeRelationCode(vo.getId(),sysDept.getRelationCode(),newRelation);
         }
+    }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public void deletedDept(String id) {
         //查找它和它的叶子节点
         SysDept sysDept=sysDeptMapper.selectByPrimaryKey(id);
@@ -187,9 +145,9 @@ public class DeptServiceImpl implements DeptService {
             log.info("传入的部门id在数据库不存在{}",id);
             throw new BusinessException(BaseResponseCode.DATA_ERROR);
         }
-        List<String> list = sysDeptMapper.selectChildIds(sysDept.getRelationCode());
+        List<String> list = deptHierarchyService.getDescendantIds(id,null);
         //判断它和它子集的叶子节点是否关联有用户
-        List<SysUser> sysUsers = userService.selectUserInfoByDeptIds(list);
+        List<SysUser> sysUsers = userService.selectUserInfoByDeptTree(id);
         if(!sysUsers.isEmpty()){
             throw new BusinessException(BaseResponseCode.NOT_PERMISSION_DELETED_DEPT);
         }
@@ -199,5 +157,6 @@ public class DeptServiceImpl implements DeptService {
         if(count==0){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
+        deptDictionary.changed();
     }
 }
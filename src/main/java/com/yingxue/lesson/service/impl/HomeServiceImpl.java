@@ -1,28 +1,64 @@
 package com.yingxue.lesson.service.impl;
 
-import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yingxue.lesson.entity.SysUser;
+import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysUserMapper;
 import com.yingxue.lesson.service.HomeService;
 import com.yingxue.lesson.service.PermissionService;
+import com.yingxue.lesson.shiro.AuthInvalidationBus;
+import com.yingxue.lesson.shiro.AuthInvalidationListener;
+import com.yingxue.lesson.shiro.RoleSetMenu;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.CachedJsonBody;
+import com.yingxue.lesson.utils.NearCache;
 import com.yingxue.lesson.vo.resp.HomeRespVO;
-import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
 import com.yingxue.lesson.vo.resp.UserInfoRespVO;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
-import java.util.List;
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
 /**
  * @ClassName: HomeServiceImpl
+ * 首页每次打开页面都会请求，菜单按角色集合共用一份序列化好的 JSON，用户信息在本地缓存，响应体直接拼出来不用再序列化
+ * 用户信息修改、删除时通过 AuthInvalidationBus 清除本地缓存，兜底过期时间和用户认证状态一致
  */
 @Service
-public class HomeServiceImpl implements HomeService {
+public class HomeServiceImpl implements HomeService, AuthInvalidationListener {
     @Autowired
     private SysUserMapper sysUserMapper;
     @Autowired
     private PermissionService permissionService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+
+    private NearCache<String, UserInfoEntry> userInfos;
+    /**
+     * 响应体固定的部分：{"code":0,"msg":"操作成功","data":{"userInfoVO": 用户信息 ,"menus": 菜单 }}
+     */
+    private byte[] prefix;
+    private static final byte[] MENUS = ",\"menus\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}}".getBytes(StandardCharsets.UTF_8);
+
+    @PostConstruct
+    public void init() throws JsonProcessingException {
+        userInfos = new NearCache<>(authCacheSettings.getUserStateMaxSize(), authCacheSettings.getUserStateTtl());
+        prefix = ("{\"code\":" + BaseResponseCode.SUCCESS.getCode()
+                + ",\"msg\":" + objectMapper.writeValueAsString(BaseResponseCode.SUCCESS.getMsg())
+                + ",\"data\":{\"userInfoVO\":").getBytes(StandardCharsets.UTF_8);
+        authInvalidationBus.addListener(this);
+    }
+
     @Override
     public HomeRespVO getHome(String userId) {
         HomeRespVO homeRespVO=new HomeRespVO();
@@ -51,15 +87,63 @@ public class HomeServiceImpl implements HomeService {
 //                "        \"url\": \"string\"\n" +
 //                "    }\n" +
 //                "]";
-        List<PermissionRespNodeVO> list=permissionService.permissionTreeList(userId);
-        homeRespVO.setMenus(list);
+        homeRespVO.setMenus(permissionService.permissionTreeList(userId));
+        homeRespVO.setUserInfoVO(getUserInfo(userId).vo);
+        return homeRespVO;
+    }
+
+    @Override
+    public CachedJsonBody getHomeBody(String userId) {
+        RoleSetMenu menu=permissionService.permissionMenu(userId);
+        UserInfoEntry userInfo=getUserInfo(userId);
+        ByteArrayOutputStream out=new ByteArrayOutputStream(prefix.length+userInfo.json.length+MENUS.length+menu.getJson().length+SUFFIX.length);
+        out.write(prefix,0,prefix.length);
+        out.write(userInfo.json,0,userInfo.json.length);
+        out.write(MENUS,0,MENUS.length);
+        out.write(menu.getJson(),0,menu.getJson().length);
+        out.write(SUFFIX,0,SUFFIX.length);
+        return new CachedJsonBody(out.toByteArray(),menu.getEtag()+"-"+userInfo.etag);
+    }
+
+    @Override
+    public void onInvalidate(Collection<String> userIds) {
+        userInfos.invalidate(userIds);
+    }
+
+    private UserInfoEntry getUserInfo(String userId) {
+        UserInfoEntry entry = userInfos.get(userId);
+        if (entry != null) {
+            return entry;
+        }
+        long sequence = userInfos.currentSequence();
         SysUser sysUser = sysUserMapper.selectByPrimaryKey(userId);
         UserInfoRespVO vo=new UserInfoRespVO();
         if(sysUser!=null){
-            BeanUtils.copyProperties(sysUser,vo);
+            vo.setId(sysUser.getId());
+            vo.setUsername(sysUser.getUsername());
+            vo.setDeptId(sysUser.getDeptId());
             vo.setDeptName("迎学教育总公司");
         }
-        homeRespVO.setUserInfoVO(vo);
-        return homeRespVO;
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(vo);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        entry = new UserInfoEntry(vo, json, DigestUtils.md5DigestAsHex(json));
+        userInfos.put(userId, entry, sequence);
+        return entry;
+    }
+
+    private static class UserInfoEntry {
+        private final UserInfoRespVO vo;
+        private final byte[] json;
+        private final String etag;
+
+        private UserInfoEntry(UserInfoRespVO vo, byte[] json, String etag) {
+            this.vo = vo;
+            this.json = json;
+            this.etag = etag;
+        }
     }
 }
@@ -0,0 +1,251 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.entity.SysInvalidationOutbox;
+import com.yingxue.lesson.mapper.SysInvalidationOutboxMapper;
+import com.yingxue.lesson.service.InvalidationOutbox;
+import com.yingxue.lesson.service.SessionInvalidationService;
+import com.yingxue.lesson.shiro.RoleSetSnapshotStore;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: InvalidationOutboxImpl
+ * 事件在业务事务里写进 sys_invalidation_outbox 表，和业务数据一起提交或回滚；提交之后唤醒后台发布线程
+ * 发布线程每次从表里认领一批到期的事件，先把所有角色快照失效合并成一次，再逐个执行涉及用户的事件，发布成功的删除
+ * 先失效快照再让 token 过期，客户端刷新 token 之后拿到的一定是新的快照；快照失效失败时这一批都不发布，等待重试
+ * 会话失效在发布线程上同步执行，执行完才算发布成功；失败(包括大任务中途失败)的事件留在表里，到时间后整个重做，重做已经生效的批次是无害的
+ * 节点在提交之后、发布之前宕机，事件留在表里，其它节点定时扫描时会接着发布
+ */
+@Slf4j
+@Service
+public class InvalidationOutboxImpl implements InvalidationOutbox {
+
+    @Autowired
+    private SysInvalidationOutboxMapper sysInvalidationOutboxMapper;
+    @Autowired
+    private SessionInvalidationService sessionInvalidationService;
+    @Autowired
+    private RoleSetSnapshotStore roleSetSnapshotStore;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+
+    /**
+     * 事务提交后唤醒发布线程，不用等到下次定时扫描
+     */
+    private final Semaphore wakeup = new Semaphore(0);
+    private Thread publisher;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        publisher = new Thread(this::publishLoop, "invalidation-outbox");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        publisher.interrupt();
+        //没发布完的事件还在表里，其它节点或者重启之后接着发布
+        publisher.join(5000);
+    }
+
+    @Override
+    public InvalidationTaskRespVO authorizationChanged(Collection<String> userIds) {
+        return recordUsers(EventType.AUTHORIZATION, InvalidationTaskRespVO.TYPE_AUTHORIZATION, userIds);
+    }
+
+    @Override
+    public InvalidationTaskRespVO tokensChanged(Collection<String> userIds) {
+        return recordUsers(EventType.TOKENS, InvalidationTaskRespVO.TYPE_AUTHORIZATION, userIds);
+    }
+
+    @Override
+    public InvalidationTaskRespVO usersDeleted(Collection<String> userIds) {
+        return recordUsers(EventType.DELETED, InvalidationTaskRespVO.TYPE_DELETED, userIds);
+    }
+
+    @Override
+    public void rolesChanged(Collection<String> roleIds) {
+        if (roleIds == null || roleIds.isEmpty()) {
+            return;
+        }
+        record(EventType.ROLES, new ArrayList<>(new LinkedHashSet<>(roleIds)), null);
+    }
+
+    private InvalidationTaskRespVO recordUsers(EventType type, String taskType, Collection<String> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return null;
+        }
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        String taskId = UUID.randomUUID().toString();
+        record(type, ids, taskId);
+        InvalidationTaskRespVO task = new InvalidationTaskRespVO();
+        task.setTaskId(taskId);
+        task.setType(taskType);
+        task.setStatus(InvalidationTaskRespVO.RUNNING);
+        task.setTotal(ids.size());
+        task.setAsync(true);
+        task.setStartTime(new Date());
+        return task;
+    }
+
+    /**
+     * 写入发件箱表，有事务的跟着事务提交/回滚，提交之后唤醒发布线程
+     */
+    private void record(EventType type, List<String> ids, String taskId) {
+        SysInvalidationOutbox outbox = new SysInvalidationOutbox();
+        outbox.setType(type.name());
+        outbox.setTaskId(taskId);
+        outbox.setIds(StringUtils.collectionToCommaDelimitedString(ids));
+        sysInvalidationOutboxMapper.insert(outbox);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    wakeup.release();
+                }
+            });
+        } else {
+            wakeup.release();
+        }
+    }
+
+    private void publishLoop() {
+        while (running) {
+            try {
+                wakeup.tryAcquire(authCacheSettings.getOutboxPollInterval().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            wakeup.drainPermits();
+            try {
+                drain();
+            } catch (Exception e) {
+                //数据库不可用，下次扫描再试
+                log.error("drain invalidation outbox error", e);
+            }
+        }
+    }
+
+    /**
+     * 一批一批认领到期的事件发布，直到没有到期的事件
+     */
+    private void drain() {
+        int batchSize = Math.max(1, authCacheSettings.getOutboxBatchSize());
+        int maxAttempts = Math.max(1, authCacheSettings.getOutboxMaxAttempts());
+        long retrySeconds = Math.max(1, authCacheSettings.getOutboxRetryInterval().getSeconds());
+        while (running) {
+            List<SysInvalidationOutbox> due = sysInvalidationOutboxMapper.selectDue(maxAttempts, batchSize);
+            if (due == null || due.isEmpty()) {
+                return;
+            }
+            List<Event> batch = new ArrayList<>(due.size());
+            for (SysInvalidationOutbox outbox : due) {
+                int attempts = outbox.getAttempts() == null ? 0 : outbox.getAttempts();
+                //认领的同时把下次发布时间推后，发布失败或者本节点宕机，到时间后再被认领重试
+                if (sysInvalidationOutboxMapper.claim(outbox.getId(), attempts, retrySeconds * (attempts + 1)) == 1) {
+                    batch.add(new Event(outbox, attempts + 1));
+                }
+            }
+            List<Long> published = publish(batch);
+            if (!published.isEmpty()) {
+                sysInvalidationOutboxMapper.deleteByIds(published);
+            }
+            if (due.size() < batchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发布一批事件，返回发布成功的事件id
+     */
+    private List<Long> publish(List<Event> batch) {
+        List<Long> published = new ArrayList<>(batch.size());
+        Set<String> roleIds = new LinkedHashSet<>();
+        List<Event> roleEvents = new ArrayList<>();
+        for (Event event : batch) {
+            if (event.type == EventType.ROLES) {
+                roleIds.addAll(event.ids);
+                roleEvents.add(event);
+            }
+        }
+        if (!roleIds.isEmpty()) {
+            try {
+                roleSetSnapshotStore.invalidateRoles(roleIds);
+            } catch (Exception e) {
+                log.error("publish role set invalidation error, attempts {}", roleEvents.get(0).attempts, e);
+                logGivingUp(batch);
+                return published;
+            }
+            for (Event event : roleEvents) {
+                published.add(event.id);
+            }
+        }
+        for (Event event : batch) {
+            try {
+                //同步执行，返回了就是全部写进 redis 了
+                switch (event.type) {
+                    case AUTHORIZATION:
+                        sessionInvalidationService.invalidateAuthorization(event.taskId, event.ids);
+                        break;
+                    case TOKENS:
+                        sessionInvalidationService.invalidateTokens(event.taskId, event.ids);
+                        break;
+                    case DELETED:
+                        sessionInvalidationService.invalidateDeletedUsers(event.taskId, event.ids);
+                        break;
+                    default:
+                        continue;
+                }
+                published.add(event.id);
+            } catch (Exception e) {
+                log.error("publish session invalidation {} error, attempts {}", event.taskId, event.attempts, e);
+                logGivingUp(Collections.singletonList(event));
+            }
+        }
+        return published;
+    }
+
+    private void logGivingUp(List<Event> events) {
+        for (Event event : events) {
+            if (event.attempts >= authCacheSettings.getOutboxMaxAttempts()) {
+                log.error("invalidation outbox event {} {} failed {} times, giving up", event.id, event.type, event.attempts);
+            }
+        }
+    }
+
+    private enum EventType {
+        AUTHORIZATION, TOKENS, DELETED, ROLES
+    }
+
+    private static class Event {
+        private final Long id;
+        private final EventType type;
+        private final List<String> ids;
+        private final String taskId;
+        private final int attempts;
+
+        private Event(SysInvalidationOutbox outbox, int attempts) {
+            this.id = outbox.getId();
+            this.type = EventType.valueOf(outbox.getType());
+            this.ids = Arrays.asList(StringUtils.commaDelimitedListToStringArray(outbox.getIds()));
+            this.taskId = outbox.getTaskId();
+            this.attempts = attempts;
+        }
+    }
+}
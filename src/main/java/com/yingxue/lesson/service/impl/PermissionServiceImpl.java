@@ -1,20 +1,26 @@
 package com.yingxue.lesson.service.impl;
 
 
-import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.catalog.PermissionTree;
+import com.yingxue.lesson.catalog.PermissionTreeCatalog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yingxue.lesson.entity.SysPermission;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysPermissionMapper;
 import com.yingxue.lesson.service.PermissionService;
 
-import com.yingxue.lesson.service.RedisService;
 import com.yingxue.lesson.service.RolePermissionService;
+import com.yingxue.lesson.service.InvalidationOutbox;
 import com.yingxue.lesson.service.UserRoleService;
-import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.shiro.RoleSetMenu;
+import com.yingxue.lesson.shiro.RoleSetSnapshot;
+import com.yingxue.lesson.shiro.RoleSetSnapshotStore;
 import com.yingxue.lesson.vo.req.PermissionAddReqVO;
 
 import com.yingxue.lesson.vo.req.PermissionUpdateReqVO;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
@@ -24,7 +30,6 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @ClassName: PermissionServiceImpl
@@ -39,117 +44,29 @@ public class PermissionServiceImpl implements PermissionService {
     @Autowired
     private UserRoleService userRoleService;
     @Autowired
-    private RedisService redisService;
+    private InvalidationOutbox invalidationOutbox;
     @Autowired
-    private TokenSettings tokenSettings;
+    private RoleSetSnapshotStore roleSetSnapshotStore;
+    @Autowired
+    private PermissionTreeCatalog permissionTreeCatalog;
+    @Autowired
+    private ObjectMapper objectMapper;
     @Override
     public List<SysPermission> selectAll() {
-        List<SysPermission> sysPermissions = sysPermissionMapper.selectAll();
-        if(!sysPermissions.isEmpty()){
-            for (SysPermission sysPermission :
-                    sysPermissions) {
-                SysPermission parent = sysPermissionMapper.selectByPrimaryKey(sysPermission.getPid());
-                if(parent!=null){
-                    sysPermission.setPidName(parent.getName());
-                }
-            }
-        }
-        return sysPermissions;
+        //父级名称在加载菜单权限树时已经填好了，不用再逐条查询
+        return permissionTreeCatalog.current().getAll();
     }
 
     @Override
     public List<PermissionRespNodeVO> selectAllMenuByTree() {
-        List<SysPermission> list=sysPermissionMapper.selectAll();
         List<PermissionRespNodeVO> result=new ArrayList<>();
         PermissionRespNodeVO respNodeVO=new PermissionRespNodeVO();
-        respNodeVO.setId("0");
+        respNodeVO.setId(PermissionTree.ROOT_ID);
         respNodeVO.setTitle("默认顶级菜单");
-        respNodeVO.setChildren(getTree(list,true));
+        respNodeVO.setChildren(permissionTreeCatalog.current().toTree(false));
         result.add(respNodeVO);
         return result;
     }
-    /**
-     * type=true 递归遍历到菜单
-     * type=false 递归遍历到按钮
-     * @Author:      小霍
-     * @UpdateUser:
-     * @Version:     0.0.1
-     * @param all
-     * @param type
-     * @return       java.util.List<com.yingxue.lesson.vo.resp.PermissionRespNodeVO>
-     * @throws
-     */
-    private List<PermissionRespNodeVO> getTree(List<SysPermission> all,boolean type){
-
-        List<PermissionRespNodeVO> list=new ArrayList<>();
-        if(all==null||all.isEmpty()){
-            return list;
-        }
-        for(SysPermission sysPermission:all){
-            if(sysPermission.getPid().equals("0")){
-                PermissionRespNodeVO respNodeVO=new PermissionRespNodeVO();
-                BeanUtils.copyProperties(sysPermission,respNodeVO);
-                respNodeVO.setTitle(sysPermission.getName());
-                if(type){
-                    respNodeVO.setChildren(getChildExBtn(sysPermission.getId(),all));
-                }else {
-                    respNodeVO.setChildren(getChild(sysPermission.getId(),all));
-                }
-
-                list.add(respNodeVO);
-            }
-        }
-        return list;
-    }
-    /**
-     * 递归遍历所有数据
-     * @Author:      小霍
-     * @UpdateUser:
-     * @Version:     0.0.1
-     * @param id
-     * @param all
-     * @return       java.util.List<com.yingxue.lesson.vo.resp.PermissionRespNodeVO>
-     * @throws
-     */
-    private List<PermissionRespNodeVO> getChild(String id,List<SysPermission> all){
-
-        List<PermissionRespNodeVO> list=new ArrayList<>();
-        for (SysPermission s:
-                all) {
-            if(s.getPid().equals(id)){
-                PermissionRespNodeVO respNodeVO=new PermissionRespNodeVO();
-                BeanUtils.copyProperties(s,respNodeVO);
-                respNodeVO.setTitle(s.getName());
-                respNodeVO.setChildren(getChild(s.getId(),all));
-                list.add(respNodeVO);
-            }
-        }
-        return list;
-    }
-    /**
-     * 只递归到菜单
-     * @Author:      小霍
-     * @UpdateUser:
-     * @Version:     0.0.1
-     * @param id
-     * @param all
-     * @return       java.util.List<com.yingxue.lesson.vo.resp.PermissionRespNodeVO>
-     * @throws
-     */
-    private List<PermissionRespNodeVO> getChildExBtn(String id,List<SysPermission> all){
-        List<PermissionRespNodeVO> list=new ArrayList<>();
-        for (SysPermission s:
-             all) {
-            if(s.getPid().equals(id)&&s.getType()!=3){
-                PermissionRespNodeVO respNodeVO=new PermissionRespNodeVO();
-                BeanUtils.copyProperties(s,respNodeVO);
-                respNodeVO.setTitle(s.getName());
-                respNodeVO.setChildren(getChildExBtn(s.getId(),all));
-                list.add(respNodeVO);
-            }
-        }
-        return list;
-    }
 
     @Override
     public SysPermission addPermission(PermissionAddReqVO vo) {
@@ -162,6 +79,7 @@ public class PermissionServiceImpl implements PermissionService {
         if(insert!=1){
             throw new BusinessException(BaseResponseCode.DATA_ERROR);
         }
+        permissionTreeCatalog.changed();
         return sysPermission;
     }
     /**
@@ -218,17 +136,30 @@ public class PermissionServiceImpl implements PermissionService {
 
     @Override
     public List<PermissionRespNodeVO> permissionTreeList(String userId) {
-        List<SysPermission> list=getPermission(userId);
-        return getTree(list,true);
+        return permissionMenu(userId).getMenus();
+    }
+
+    @Override
+    public RoleSetMenu permissionMenu(String userId) {
+        //角色集合相同的用户共用一份编译好的菜单
+        RoleSetSnapshot snapshot=roleSetSnapshotStore.loadByUserId(userId);
+        return snapshot.getMenu(permissionTreeCatalog.current(),menus -> {
+            try {
+                return objectMapper.writeValueAsBytes(menus);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
     }
 
     @Override
     public List<PermissionRespNodeVO> selectAllTree() {
-        return getTree(selectAll(),false);
+        return permissionTreeCatalog.current().toTree(true);
     }
 
     @Override
-    public void updatePermission(PermissionUpdateReqVO vo) {
+    @Transactional(rollbackFor = Exception.class)
+    public InvalidationTaskRespVO updatePermission(PermissionUpdateReqVO vo) {
         //校验数据
         SysPermission update=new SysPermission();
         BeanUtils.copyProperties(vo,update);
@@ -251,35 +182,31 @@ public class PermissionServiceImpl implements PermissionService {
         if(i!=1){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
+        permissionTreeCatalog.changed();
 
+        List<String> roleIdsByPermissionId = rolePermissionService.getRoleIdsByPermissionId(vo.getId());
+        //名称、地址、排序变了菜单也要重新编译，关联角色的角色集合授权快照都失效(事务提交后执行)
+        invalidationOutbox.rolesChanged(roleIdsByPermissionId);
         //判断授权标识符是否发生了变化
-        if(!sysPermission.getPerms().equals(vo.getPerms())){
-            List<String> roleIdsByPermissionId = rolePermissionService.getRoleIdsByPermissionId(vo.getId());
-            if(!roleIdsByPermissionId.isEmpty()){
-                List<String> userIdsByRoleIds = userRoleService.getUserIdsByRoleIds(roleIdsByPermissionId);
-                if(!userIdsByRoleIds.isEmpty()){
-                    for (String userId:
-                         userIdsByRoleIds) {
-                        redisService.set(Constant.JWT_REFRESH_KEY+userId,userId,tokenSettings.getAccessTokenExpireTime().toMillis(), TimeUnit.MILLISECONDS);
-                        /**
-                         * 清楚用户授权数据缓存
-                         */
-                        redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
-                    }
-                }
-            }
-
+        if(!sysPermission.getPerms().equals(vo.getPerms())&&!roleIdsByPermissionId.isEmpty()){
+            List<String> userIdsByRoleIds = userRoleService.getUserIdsByRoleIds(roleIdsByPermissionId);
+            //用户的角色没变，只把授权版本号加一(token 需要刷新)，事务提交后按批用管道写 redis
+            return invalidationOutbox.tokensChanged(userIdsByRoleIds);
         }
+        return null;
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
-    public void deletedPermission(String permissionId) {
+    public InvalidationTaskRespVO deletedPermission(String permissionId) {
         //判断是否有子集关联
         List<SysPermission> sysPermissions = sysPermissionMapper.selectChild(permissionId);
         if(!sysPermissions.isEmpty()){
             throw new BusinessException(BaseResponseCode.ROLE_PERMISSION_RELATION);
         }
+        //改数据之前先查出关联的角色和用户，解除之后就查不到了
+        List<String> roleIdsByPermissionId = rolePermissionService.getRoleIdsByPermissionId(permissionId);
+        List<String> userIdsByRoleIds = roleIdsByPermissionId.isEmpty()?Collections.<String>emptyList():userRoleService.getUserIdsByRoleIds(roleIdsByPermissionId);
         //解除相关角色和该菜单权限的关联
         rolePermissionService.removeRoleByPermissionId(permissionId);
         //更新权限数据
@@ -291,27 +218,21 @@ public class PermissionServiceImpl implements PermissionService {
         if(i!=1){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
-        //判断授权标识符是否发生了变化
-        List<String> roleIdsByPermissionId = rolePermissionService.getRoleIdsByPermissionId(permissionId);
-        if(!roleIdsByPermissionId.isEmpty()){
-            List<String> userIdsByRoleIds = userRoleService.getUserIdsByRoleIds(roleIdsByPermissionId);
-            if(!userIdsByRoleIds.isEmpty()){
-                for (String userId:
-                        userIdsByRoleIds) {
-                    redisService.set(Constant.JWT_REFRESH_KEY+userId,userId,tokenSettings.getAccessTokenExpireTime().toMillis(), TimeUnit.MILLISECONDS);
-                    /**
-                     * 清楚用户授权数据缓存
-                     */
-                    redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
-                }
-            }
-        }
+        permissionTreeCatalog.changed();
+        //关联的角色下的用户都需要刷新，事务提交后执行
+        invalidationOutbox.rolesChanged(roleIdsByPermissionId);
+        //用户的角色没变，只把授权版本号加一(token 需要刷新)，事务提交后按批用管道写 redis
+        return invalidationOutbox.tokensChanged(userIdsByRoleIds);
     }
 
     @Override
     public Set<String> getPermissionsByUserId(String userId) {
+        return getPermissionsByRoleIds(userRoleService.getRoleIdsByUserId(userId));
+    }
 
-        List<SysPermission> list=getPermission(userId);
+    @Override
+    public Set<String> getPermissionsByRoleIds(List<String> roleIds) {
+        List<SysPermission> list=getPermissionByRoleIds(roleIds);
         Set<String> permissions=new HashSet<>();
         if (null==list||list.isEmpty()){
             return null;
@@ -325,10 +246,30 @@ public class PermissionServiceImpl implements PermissionService {
         return permissions;
     }
 
+    @Override
+    public boolean hasPerms(List<String> permissionIds) {
+        if(null==permissionIds||permissionIds.isEmpty()){
+            return false;
+        }
+        List<SysPermission> list=sysPermissionMapper.selectInfoByIds(permissionIds);
+        if(null==list){
+            return false;
+        }
+        for (SysPermission sysPermission:list){
+            if(!StringUtils.isEmpty(sysPermission.getPerms())){
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public List<SysPermission> getPermission(String userId) {
-        List<String> roleIds = userRoleService.getRoleIdsByUserId(userId);
-        if(roleIds.isEmpty()){
+        return getPermissionByRoleIds(userRoleService.getRoleIdsByUserId(userId));
+    }
+
+    private List<SysPermission> getPermissionByRoleIds(List<String> roleIds) {
+        if(null==roleIds||roleIds.isEmpty()){
             return null;
         }
         List<String> permissionIds= rolePermissionService.getPermissionIdsByRoles(roleIds);
@@ -4,33 +4,53 @@ import com.yingxue.lesson.entity.SysRolePermission;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysRolePermissionMapper;
+import com.yingxue.lesson.service.AuthzIndexService;
 import com.yingxue.lesson.service.RolePermissionService;
 import com.yingxue.lesson.vo.req.RolePermissionOperationReqVO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * @ClassName: RolePermissionServiceImpl
  */
 @Service
 public class RolePermissionServiceImpl implements RolePermissionService {
+    /**
+     * 批量插入/删除每批的条数
+     */
+    private static final int BATCH_SIZE = 500;
     @Autowired
     private SysRolePermissionMapper sysRolePermissionMapper;
+    @Autowired
+    private AuthzIndexService authzIndexService;
     @Override
-    public void addRolePermission(RolePermissionOperationReqVO vo) {
-        sysRolePermissionMapper.removeByRoleId(vo.getRoleId());
-        if(vo.getPermissionIds()==null||vo.getPermissionIds().isEmpty()){
-            return;
+    @Transactional(rollbackFor = Exception.class)
+    public List<String> addRolePermission(RolePermissionOperationReqVO vo) {
+        /**
+         * 以前是删除全部关联数据再全部重新插入，一个六百个菜单权限的角色勾选一个也要重写六百行
+         * 现在和现有的关联数据比较，只删除去掉的、插入新加的
+         */
+        Set<String> removed=new LinkedHashSet<>(sysRolePermissionMapper.getPermissionIdsByRoleId(vo.getRoleId()));
+        Set<String> added=vo.getPermissionIds()==null?new LinkedHashSet<>():new LinkedHashSet<>(vo.getPermissionIds());
+        Set<String> unchanged=new HashSet<>(removed);
+        unchanged.retainAll(added);
+        removed.removeAll(unchanged);
+        added.removeAll(unchanged);
+        List<String> changed=new ArrayList<>(removed);
+        changed.addAll(added);
+        if(changed.isEmpty()){
+            return changed;
+        }
+        List<String> removedList=new ArrayList<>(removed);
+        for (int from=0;from<removedList.size();from+=BATCH_SIZE){
+            sysRolePermissionMapper.removeByRoleIdAndPermissionIds(vo.getRoleId(),removedList.subList(from,Math.min(from+BATCH_SIZE,removedList.size())));
         }
         List<SysRolePermission> list=new ArrayList<>();
         for (String permissionId:
-             vo.getPermissionIds()) {
+             added) {
             SysRolePermission sysRolePermission=new SysRolePermission();
             sysRolePermission.setId(UUID.randomUUID().toString());
             sysRolePermission.setCreateTime(new Date());
@@ -38,19 +58,30 @@ public class RolePermissionServiceImpl implements RolePermissionService {
             sysRolePermission.setPermissionId(permissionId);
             list.add(sysRolePermission);
         }
-        int i = sysRolePermissionMapper.batchInsertRolePermission(list);
-        if(i==0){
-            throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
+        for (int from=0;from<list.size();from+=BATCH_SIZE){
+            int i = sysRolePermissionMapper.batchInsertRolePermission(list.subList(from,Math.min(from+BATCH_SIZE,list.size())));
+            if(i==0){
+                throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
+            }
         }
+        //授权索引只更新变化的部分
+        authzIndexService.updateRolePermissions(vo.getRoleId(),removed,added);
+        return changed;
     }
 
     @Override
     public List<String> getRoleIdsByPermissionId(String permissionId) {
+        //先查授权索引，索引不可用再查数据库
+        Set<String> roleIds=authzIndexService.getRoleIdsByPermissionId(permissionId);
+        if(roleIds!=null){
+            return new ArrayList<>(roleIds);
+        }
         return sysRolePermissionMapper.getRoleIdsByPermissionId(permissionId);
     }
 
     @Override
     public int removeRoleByPermissionId(String permissionId) {
+        authzIndexService.removePermissionRoles(permissionId);
         return sysRolePermissionMapper.removeByPermissionId(permissionId);
     }
 
@@ -61,6 +92,7 @@ public class RolePermissionServiceImpl implements RolePermissionService {
 
     @Override
     public int removeByRoleId(String roleId) {
+        authzIndexService.updateRolePermissions(roleId,sysRolePermissionMapper.getPermissionIdsByRoleId(roleId),null);
         return sysRolePermissionMapper.removeByRoleId(roleId);
     }
     @Override
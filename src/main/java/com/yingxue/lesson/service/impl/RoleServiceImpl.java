@@ -1,18 +1,17 @@
 package com.yingxue.lesson.service.impl;
 
 import com.github.pagehelper.PageHelper;
-import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.entity.SysRole;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysRoleMapper;
 import com.yingxue.lesson.service.*;
 import com.yingxue.lesson.utils.PageUtil;
-import com.yingxue.lesson.utils.TokenSettings;
 import com.yingxue.lesson.vo.req.AddRoleReqVO;
 import com.yingxue.lesson.vo.req.RolePageReqVO;
 import com.yingxue.lesson.vo.req.RolePermissionOperationReqVO;
 import com.yingxue.lesson.vo.req.RoleUpdateReqVO;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.PageVO;
 import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
 import lombok.extern.slf4j.Slf4j;
@@ -22,7 +21,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @ClassName: RoleServiceImpl
@@ -40,9 +38,7 @@ public class RoleServiceImpl implements RoleService {
     @Autowired
     private UserRoleService userRoleService;
     @Autowired
-    private RedisService redisService;
-    @Autowired
-    private TokenSettings tokenSettings;
+    private InvalidationOutbox invalidationOutbox;
 
 
     @Override
@@ -112,45 +108,47 @@ public class RoleServiceImpl implements RoleService {
 
     @SuppressWarnings("all")
     @Override
-    public void updateRole(RoleUpdateReqVO vo) {
+    @Transactional(rollbackFor = Exception.class)
+    public InvalidationTaskRespVO updateRole(RoleUpdateReqVO vo) {
         //保存角色基本信息
         SysRole sysRole=sysRoleMapper.selectByPrimaryKey(vo.getId());
         if (null==sysRole){
             log.error("传入 的 id:{}不合法",vo.getId());
             throw new BusinessException(BaseResponseCode.DATA_ERROR);
         }
+        boolean nameChanged=vo.getName()!=null&&!vo.getName().equals(sysRole.getName());
         BeanUtils.copyProperties(vo,sysRole);
         sysRole.setUpdateTime(new Date());
         int count=sysRoleMapper.updateByPrimaryKeySelective(sysRole);
         if(count!=1){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
-        //修改该角色和菜单权限关联数据
+        //修改该角色和菜单权限关联数据，只写变化的部分
         RolePermissionOperationReqVO reqVO=new RolePermissionOperationReqVO();
         reqVO.setRoleId(vo.getId());
         reqVO.setPermissionIds(vo.getPermissions());
-        rolePermissionService.addRolePermission(reqVO);
+        List<String> changedPermissionIds=rolePermissionService.addRolePermission(reqVO);
+        if(!nameChanged&&changedPermissionIds.isEmpty()){
+            //角色名称和菜单权限都没变，不用失效
+            return null;
+        }
+        //包含该角色的角色集合授权快照失效，只有几个，不用逐个清除用户的缓存(事务提交后执行)
+        invalidationOutbox.rolesChanged(Collections.singletonList(vo.getId()));
+        if(!permissionService.hasPerms(changedPermissionIds)){
+            //只是增减了不带授权标识的目录/菜单或者改了名称，用户的权限没变，token 不用刷新
+            return null;
+        }
         //标记关联用户
         List<String> userIdsBtRoleId = userRoleService.getUserIdsBtRoleId(vo.getId());
-        if(!userIdsBtRoleId.isEmpty()){
-            for (String userId:
-                 userIdsBtRoleId) {
-                /**
-                 * 标记用户 在用户认证的时候判断这个是否主动刷过
-                 */
-                redisService.set(Constant.JWT_REFRESH_KEY+userId,userId,tokenSettings.getAccessTokenExpireTime().toMillis(), TimeUnit.MILLISECONDS);
-
-                /**
-                 * 清楚用户授权数据缓存
-                 */
-                redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
-            }
-        }
+        //用户的角色没变，只把授权版本号加一(token 需要刷新)，事务提交后按批用管道写 redis
+        return invalidationOutbox.tokensChanged(userIdsBtRoleId);
     }
 
     @Override
     @Transactional(rollbackFor = Exception.class)
-    public void deletedRole(String roleId) {
+    public InvalidationTaskRespVO deletedRole(String roleId) {
+        //先查出关联的用户再改数据，解除关联之后就查不到了
+        List<String> userIdsBtRoleId = userRoleService.getUserIdsBtRoleId(roleId);
         //就更新删除的角色数据
         SysRole sysRole=new SysRole();
         sysRole.setId(roleId);
@@ -162,29 +160,26 @@ public class RoleServiceImpl implements RoleService {
         }
         //角色菜单权限关联数据删除
         rolePermissionService.removeByRoleId(roleId);
-        List<String> userIdsBtRoleId = userRoleService.getUserIdsBtRoleId(roleId);
         //角色用户关联数据删除
         userRoleService.removeUserRoleId(roleId);
+        //包含该角色的角色集合授权快照不会再用到了
+        invalidationOutbox.rolesChanged(Collections.singletonList(roleId));
         //把跟该角色关联的用户标记起来，需要刷新token
-        if(!userIdsBtRoleId.isEmpty()){
-            for (String userId:
-                 userIdsBtRoleId) {
-                /**
-                 * 标记用户 在用户认证的时候判断这个是否主动刷过
-                 */
-                redisService.set(Constant.JWT_REFRESH_KEY+userId,userId,tokenSettings.getAccessTokenExpireTime().toMillis(), TimeUnit.MILLISECONDS);
-                /**
-                 * 清楚用户授权数据缓存
-                 */
-                redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
-            }
-        }
+        //授权版本号加一(token 需要刷新)并清除授权缓存，事务提交后按批用管道写 redis
+        return invalidationOutbox.authorizationChanged(userIdsBtRoleId);
     }
 
     @Override
     public List<String> getRoleNames(String userId) {
+        return getRoleNamesByRoleIds(userRoleService.getRoleIdsByUserId(userId));
+    }
 
-        List<SysRole> sysRoles=getRoleInfoByUserId(userId);
+    @Override
+    public List<String> getRoleNamesByRoleIds(List<String> roleIds) {
+        if (null==roleIds||roleIds.isEmpty()){
+            return null;
+        }
+        List<SysRole> sysRoles=sysRoleMapper.getRoleInfoByIds(roleIds);
         if (null==sysRoles||sysRoles.isEmpty()){
             return null;
         }
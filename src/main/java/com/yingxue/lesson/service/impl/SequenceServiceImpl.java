@@ -0,0 +1,121 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.mapper.SysSequenceMapper;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.service.SequenceService;
+import com.yingxue.lesson.utils.SequenceSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @ClassName: SequenceServiceImpl
+ * 以前每个部门编码都要 INCRBY 一次 redis，批量导入时一条一次网络往返；redis 被清空后计数从 0 开始，编码就重复了
+ * 现在 redis 和数据库都记录已经发出去的最大值：从 redis 领号段时把数据库里的值作为下限，领到后再把上限写回数据库，
+ * redis 被清空或者之前从数据库领过号段都不会发重复的号
+ * 领号段总是在独立的新事务里(REQUIRES_NEW)加行锁完成：调用方(比如新增部门)的事务回滚不会把数据库里的上限一起回滚，
+ * 也不会和别的节点从数据库领号段交叉
+ */
+@Slf4j
+@Service
+public class SequenceServiceImpl implements SequenceService {
+    /**
+     * 领号段：当前值小于下限(数据库里的值)时从下限开始，加上号段大小后返回新的上限
+     * KEYS[1] 序列 key ARGV[1] 号段大小 ARGV[2] 下限
+     */
+    private static final RedisScript<Long> LEASE_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+                    "local floor = tonumber(ARGV[2]) " +
+                    "if current < floor then current = floor end " +
+                    "current = current + tonumber(ARGV[1]) " +
+                    "redis.call('SET', KEYS[1], current) " +
+                    "return current", Long.class);
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private SysSequenceMapper sysSequenceMapper;
+    @Autowired
+    private SequenceSettings sequenceSettings;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate leaseTransaction;
+
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+    /**
+     * 每个序列一把锁，一个序列领号段(要走数据库和 redis)时不影响别的序列发号
+     */
+    private final Map<String, Object> leaseLocks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        leaseTransaction = new TransactionTemplate(transactionManager);
+        leaseTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public long next(String name) {
+        while (true) {
+            Segment segment = segments.get(name);
+            if (segment != null) {
+                long value = segment.cursor.getAndIncrement();
+                if (value <= segment.max) {
+                    return value;
+                }
+            }
+            //号段用完了，同一个序列只让一个线程去领，其它线程等它领完直接用新的号段
+            synchronized (leaseLocks.computeIfAbsent(name, k -> new Object())) {
+                if (segments.get(name) == segment) {
+                    segments.put(name, lease(name));
+                }
+            }
+        }
+    }
+
+    /**
+     * 领一个号段
+     * 先锁住数据库里的这一行，以它为下限从 redis 领号，领到后把上限写回数据库再提交；redis 不可用时直接从下限往后领
+     * 两条路都在同一把行锁下，数据库里的值只会变大
+     */
+    private Segment lease(String name) {
+        int blockSize = Math.max(1, sequenceSettings.getBlockSize());
+        return leaseTransaction.execute(status -> {
+            sysSequenceMapper.insertIfAbsent(name);
+            Long current = sysSequenceMapper.selectNextValueForUpdate(name);
+            long floor = current == null ? 0 : current;
+            long max;
+            try {
+                Long leased = redisService.execute(LEASE_SCRIPT, Collections.singletonList(name),
+                        String.valueOf(blockSize), String.valueOf(floor));
+                max = leased == null ? floor + blockSize : leased;
+            } catch (Exception e) {
+                log.error("lease sequence {} from redis error, fallback to database", name, e);
+                max = floor + blockSize;
+            }
+            sysSequenceMapper.updateNextValue(name, max);
+            return new Segment(max - blockSize + 1, max);
+        });
+    }
+
+    private static class Segment {
+        private final AtomicLong cursor;
+        private final long max;
+
+        private Segment(long from, long max) {
+            this.cursor = new AtomicLong(from);
+            this.max = max;
+        }
+    }
+}
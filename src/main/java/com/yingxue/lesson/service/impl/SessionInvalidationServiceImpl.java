@@ -0,0 +1,132 @@
+package com.yingxue.lesson.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.service.SessionInvalidationService;
+import com.yingxue.lesson.shiro.AuthInvalidationBus;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * @ClassName: SessionInvalidationServiceImpl
+ * 以前每个用户依次 set 刷新标记、delete 授权缓存，一个两万人的角色修改一下就是四万次串行往返，请求一直等着
+ * 现在按 auth-cache.invalidation-batch-size 分批，每批的命令用一次管道发出去；每写完一批就广播这一批用户的本地缓存失效并记录进度
+ * 进度存在 redis 里，集群里任何节点都能查询
+ * 只由发件箱发布线程在事务提交之后调用，本身就在后台，所以这里同步执行，失败抛给发件箱重试；不能放到别的线程里再返回，否则发件箱会把没执行成功的事件删掉
+ */
+@Slf4j
+@Service
+public class SessionInvalidationServiceImpl implements SessionInvalidationService {
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private TokenSettings tokenSettings;
+
+    @Override
+    public InvalidationTaskRespVO invalidateAuthorization(String taskId, Collection<String> userIds) {
+        byte[] epochKey = raw(Constant.AUTHZ_EPOCH_KEY);
+        return submit(InvalidationTaskRespVO.TYPE_AUTHORIZATION, taskId, userIds, (connection, userId) -> {
+            connection.hIncrBy(epochKey, raw(userId), 1);
+            connection.unlink(raw(Constant.IDENTIFY_CACHE_KEY + userId));
+        });
+    }
+
+    @Override
+    public InvalidationTaskRespVO invalidateTokens(String taskId, Collection<String> userIds) {
+        byte[] epochKey = raw(Constant.AUTHZ_EPOCH_KEY);
+        return submit(InvalidationTaskRespVO.TYPE_AUTHORIZATION, taskId, userIds, (connection, userId) -> connection.hIncrBy(epochKey, raw(userId), 1));
+    }
+
+    @Override
+    public InvalidationTaskRespVO invalidateDeletedUsers(String taskId, Collection<String> userIds) {
+        long ttl = tokenSettings.getRefreshTokenExpireAppTime().toMillis();
+        return submit(InvalidationTaskRespVO.TYPE_DELETED, taskId, userIds, (connection, userId) -> {
+            connection.pSetEx(raw(Constant.DELETED_USER_KEY + userId), ttl, raw(userId));
+            connection.unlink(raw(Constant.IDENTIFY_CACHE_KEY + userId));
+        });
+    }
+
+    @Override
+    public InvalidationTaskRespVO getTask(String taskId) {
+        Object json = redisService.get(Constant.SESSION_INVALIDATION_TASK_KEY + taskId);
+        return json == null ? null : JSON.parseObject(json.toString(), InvalidationTaskRespVO.class);
+    }
+
+    private InvalidationTaskRespVO submit(String type, String taskId, Collection<String> userIds,
+                                          BiConsumer<RedisConnection, String> command) {
+        if (userIds == null || userIds.isEmpty()) {
+            return null;
+        }
+        List<String> list = new ArrayList<>(new LinkedHashSet<>(userIds));
+        InvalidationTaskRespVO task = new InvalidationTaskRespVO();
+        task.setTaskId(taskId != null ? taskId : UUID.randomUUID().toString());
+        task.setType(type);
+        task.setStatus(InvalidationTaskRespVO.RUNNING);
+        task.setTotal(list.size());
+        task.setStartTime(new Date());
+        task.setAsync(list.size() > authCacheSettings.getInvalidationAsyncThreshold());
+        if (task.isAsync()) {
+            save(task);
+        }
+        run(task, list, command);
+        return task;
+    }
+
+    private void run(InvalidationTaskRespVO task, List<String> userIds,
+                     BiConsumer<RedisConnection, String> command) {
+        int batchSize = Math.max(1, authCacheSettings.getInvalidationBatchSize());
+        try {
+            for (int from = 0; from < userIds.size(); from += batchSize) {
+                List<String> batch = userIds.subList(from, Math.min(from + batchSize, userIds.size()));
+                redisService.executePipelined(connection -> {
+                    for (String userId : batch) {
+                        command.accept(connection, userId);
+                    }
+                });
+                authInvalidationBus.publish(batch);
+                task.setProcessed(from + batch.size());
+                if (task.isAsync()) {
+                    save(task);
+                }
+            }
+            task.setStatus(InvalidationTaskRespVO.DONE);
+        } catch (RuntimeException e) {
+            log.error("session invalidation task {} error", task.getTaskId(), e);
+            task.setStatus(InvalidationTaskRespVO.FAILED);
+            task.setErrorMsg(e.getMessage());
+            throw e;
+        } finally {
+            task.setFinishTime(new Date());
+            save(task);
+        }
+    }
+
+    private void save(InvalidationTaskRespVO task) {
+        try {
+            redisService.set(Constant.SESSION_INVALIDATION_TASK_KEY + task.getTaskId(), JSON.toJSONString(task),
+                    authCacheSettings.getInvalidationTaskTtl().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            //进度只是给人看的，写失败不影响失效本身
+            log.error("save session invalidation task {} error", task.getTaskId(), e);
+        }
+    }
+
+    private static byte[] raw(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
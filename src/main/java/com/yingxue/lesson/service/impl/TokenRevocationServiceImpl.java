@@ -0,0 +1,224 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.service.TokenRevocationService;
+import com.yingxue.lesson.shiro.AuthInvalidationBus;
+import com.yingxue.lesson.shiro.RevocationDecision;
+import com.yingxue.lesson.shiro.TokenBlacklistFilter;
+import com.yingxue.lesson.shiro.UserAuthState;
+import com.yingxue.lesson.shiro.UserAuthStateCache;
+import com.yingxue.lesson.utils.TokenContextHolder;
+import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.utils.VerifiedToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName: TokenRevocationServiceImpl
+ * 以前每个请求要依次 hasKey 锁定、删除、黑名单、刷新标记，再 getExpire 刷新标记，一共 5 次往返，域里面还要再查两次
+ * 现在用一段 lua 脚本在 redis 服务端一次查完，只要一次网络往返
+ * 用户状态(锁定/删除/授权版本号/所有会话吊销时间)还会缓存在本地，命中时只需要查一次 token 黑名单
+ * token 黑名单先问本地布隆过滤器，过滤器说"可能在"才去 redis 确认，绝大多数请求完全不用访问 redis
+ * 过滤器靠吊销时的广播和定时全量同步更新，广播丢了的话其它节点的过滤器会漏掉这个 token：
+ * 用户状态本地命中时没有别的办法发现，用户状态过期(auth-cache.user-state-ttl)重新查 redis 时黑名单是同一次往返查回来的，以 redis 为准并补进过滤器，
+ * 所以广播丢失时被吊销的 token 最多还能用 user-state-ttl 和 blacklist-resync-interval 中较短的那个时间
+ * 黑名单的 key 用 token 家族id，不再拼接整个 token，老版本没有家族id 的 token 仍按整个 token 拉黑
+ * 是否需要刷新 token 用授权版本号判断：所有用户的版本号放在一个 hash 里，token 里的版本号比 hash 里的小就要刷新，
+ * 不用再比较刷新标记和 token 的剩余过期时间；角色/权限修改影响到的用户由 SessionInvalidationService 用管道批量 HINCRBY
+ */
+@Service
+public class TokenRevocationServiceImpl implements TokenRevocationService {
+    /**
+     * KEYS[1] 锁定标记 KEYS[2] 删除标记 KEYS[3] token 黑名单 KEYS[4] 授权版本号 hash KEYS[5] 所有会话吊销时间
+     * ARGV[1] 用户id
+     * 返回 {锁定, 删除, 黑名单, 授权版本号(0 表示没有), 所有会话吊销时间(0 表示没有)}
+     */
+    private static final RedisScript<List> REVOCATION_SCRIPT = new DefaultRedisScript<>(
+            "return {redis.call('EXISTS', KEYS[1]), redis.call('EXISTS', KEYS[2]), " +
+                    "redis.call('EXISTS', KEYS[3]), tonumber(redis.call('HGET', KEYS[4], ARGV[1]) or '0'), " +
+                    "tonumber(redis.call('GET', KEYS[5]) or '0')}", List.class);
+
+    /**
+     * 同一个请求里认证器和域都要用到检查结果，放到 request 里避免重复查询
+     */
+    private static final String DECISION_ATTRIBUTE = TokenRevocationServiceImpl.class.getName() + ".DECISION";
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private UserAuthStateCache userAuthStateCache;
+    @Autowired
+    private TokenBlacklistFilter tokenBlacklistFilter;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+    @Autowired
+    private TokenSettings tokenSettings;
+
+    @Override
+    public RevocationDecision check(VerifiedToken verifiedToken) {
+        //只有当前请求过滤器校验过的 token 才缓存结果
+        RequestAttributes attributes = verifiedToken == TokenContextHolder.current() ? RequestContextHolder.getRequestAttributes() : null;
+        if (attributes != null) {
+            Object cached = attributes.getAttribute(DECISION_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+            if (cached != null) {
+                return (RevocationDecision) cached;
+            }
+        }
+        String userId = verifiedToken.getUserId();
+        boolean legacy = verifiedToken.getFamilyId() == null;
+        String blacklistKey = legacy ? Constant.JWT_ACCESS_TOKEN_BLACKLIST + verifiedToken.getToken()
+                : Constant.JWT_TOKEN_FAMILY_BLACKLIST + verifiedToken.getFamilyId();
+        boolean mightBeBlacklisted = legacy ? tokenBlacklistFilter.mightContainAccessToken(verifiedToken.getToken())
+                : tokenBlacklistFilter.mightContainSession(verifiedToken.getFamilyId());
+        RevocationDecision decision;
+        UserAuthState state = userAuthStateCache.get(userId);
+        if (state != null) {
+            //用户状态本地命中，只有布隆过滤器说可能在黑名单里才去 redis 确认
+            //过滤器漏掉的(广播丢了)这里发现不了，要等用户状态过期走下面的分支，见类注释
+            boolean blacklisted = false;
+            if (mightBeBlacklisted) {
+                blacklisted = redisService.hasKey(blacklistKey);
+                recordLookup(legacy, blacklisted);
+            }
+            decision = new RevocationDecision(state.isLocked(), state.isDeleted(),
+                    blacklisted || state.isRevoked(verifiedToken.getIssuedAt()),
+                    state.isRefreshRequired(verifiedToken.getAuthzEpoch()));
+        } else {
+            long sequence = userAuthStateCache.currentSequence();
+            List<String> keys = Arrays.asList(
+                    Constant.ACCOUNT_LOCK_KEY + userId,
+                    Constant.DELETED_USER_KEY + userId,
+                    blacklistKey,
+                    Constant.AUTHZ_EPOCH_KEY,
+                    Constant.JWT_REVOKE_BEFORE_KEY + userId);
+            long now = System.currentTimeMillis();
+            List<?> result = redisService.execute(REVOCATION_SCRIPT, keys, userId);
+            state = new UserAuthState(toLong(result.get(0)) > 0, toLong(result.get(1)) > 0, toLong(result.get(3)),
+                    toLong(result.get(4)), now);
+            userAuthStateCache.put(userId, state, sequence);
+            //黑名单在同一次往返里已经查了，不管过滤器怎么说都以 redis 为准
+            boolean blacklisted = toLong(result.get(2)) > 0;
+            if (mightBeBlacklisted) {
+                recordLookup(legacy, blacklisted);
+            } else if (blacklisted) {
+                //过滤器漏掉了(广播丢了)，补进本地过滤器，用户状态命中的请求也能拦住
+                remember(legacy, verifiedToken);
+            }
+            decision = new RevocationDecision(state.isLocked(), state.isDeleted(),
+                    blacklisted || state.isRevoked(verifiedToken.getIssuedAt()),
+                    state.isRefreshRequired(verifiedToken.getAuthzEpoch()));
+        }
+        if (attributes != null) {
+            attributes.setAttribute(DECISION_ATTRIBUTE, decision, RequestAttributes.SCOPE_REQUEST);
+        }
+        return decision;
+    }
+
+    @Override
+    public boolean isRefreshTokenRevoked(VerifiedToken refreshToken) {
+        String id = refreshToken.getFamilyId() == null ? refreshToken.getToken() : refreshToken.getFamilyId();
+        if (tokenBlacklistFilter.mightContainSession(id)) {
+            String blacklistKey = refreshToken.getFamilyId() == null ? Constant.JWT_REFRESH_TOKEN_BLACKLIST + id
+                    : Constant.JWT_TOKEN_FAMILY_BLACKLIST + id;
+            boolean blacklisted = redisService.hasKey(blacklistKey);
+            tokenBlacklistFilter.recordSessionLookup(blacklisted);
+            if (blacklisted) {
+                return true;
+            }
+        }
+        Object revokedBefore = redisService.get(Constant.JWT_REVOKE_BEFORE_KEY + refreshToken.getUserId());
+        return revokedBefore != null && refreshToken.getIssuedAt() < toLong(revokedBefore);
+    }
+
+    @Override
+    public void revokeSession(VerifiedToken accessToken, VerifiedToken refreshToken) {
+        String userId = accessToken.getUserId();
+        revoke(userId, accessToken, Constant.JWT_ACCESS_TOKEN_BLACKLIST, refreshToken);
+        if (refreshToken != null && !sameFamily(accessToken, refreshToken)) {
+            revoke(userId, refreshToken, Constant.JWT_REFRESH_TOKEN_BLACKLIST, refreshToken);
+        }
+    }
+
+    @Override
+    public void revokeAllSessions(String userId) {
+        //token 里带有毫秒级的签发时间，吊销之后(哪怕同一秒内)重新登录签发的 token 不受影响
+        //老版本只有 iat(秒) 的 token 签发时间被截断到整秒，这一秒内签发的也会被吊销
+        long revokedBefore = System.currentTimeMillis();
+        redisService.set(Constant.JWT_REVOKE_BEFORE_KEY + userId, String.valueOf(revokedBefore),
+                maxSessionTime(), TimeUnit.MILLISECONDS);
+        authInvalidationBus.publish(userId);
+    }
+
+    @Override
+    public long getAuthzEpoch(String userId) {
+        UserAuthState state = userAuthStateCache.get(userId);
+        if (state != null) {
+            return state.getAuthzEpoch();
+        }
+        Object epoch = redisService.hget(Constant.AUTHZ_EPOCH_KEY, userId);
+        return epoch == null ? 0 : toLong(epoch);
+    }
+
+    /**
+     * 有家族id 按家族拉黑，存活时间和 refresh_token 一致；老版本 token 按整个 token 拉黑
+     */
+    private void revoke(String userId, VerifiedToken token, String legacyPrefix, VerifiedToken refreshToken) {
+        if (token.getFamilyId() != null) {
+            long ttl = refreshToken != null && sameFamily(token, refreshToken) ? refreshToken.getRemainingTime() : maxSessionTime();
+            ttl = Math.max(ttl, token.getRemainingTime());
+            redisService.set(Constant.JWT_TOKEN_FAMILY_BLACKLIST + token.getFamilyId(), userId, ttl, TimeUnit.MILLISECONDS);
+            tokenBlacklistFilter.addSession(token.getFamilyId());
+        } else {
+            redisService.set(legacyPrefix + token.getToken(), userId, token.getRemainingTime(), TimeUnit.MILLISECONDS);
+            if (Constant.JWT_ACCESS_TOKEN_BLACKLIST.equals(legacyPrefix)) {
+                tokenBlacklistFilter.addAccessToken(token.getToken());
+            } else {
+                tokenBlacklistFilter.addSession(token.getToken());
+            }
+        }
+    }
+
+    private boolean sameFamily(VerifiedToken token, VerifiedToken other) {
+        return token.getFamilyId() != null && token.getFamilyId().equals(other.getFamilyId());
+    }
+
+    /**
+     * 一次会话最长的存活时间
+     */
+    private long maxSessionTime() {
+        return Math.max(tokenSettings.getRefreshTokenExpireTime().toMillis(),
+                tokenSettings.getRefreshTokenExpireAppTime().toMillis());
+    }
+
+    private void recordLookup(boolean legacy, boolean blacklisted) {
+        if (legacy) {
+            tokenBlacklistFilter.recordAccessTokenLookup(blacklisted);
+        } else {
+            tokenBlacklistFilter.recordSessionLookup(blacklisted);
+        }
+    }
+
+    private void remember(boolean legacy, VerifiedToken verifiedToken) {
+        if (legacy) {
+            tokenBlacklistFilter.rememberAccessToken(verifiedToken.getToken());
+        } else {
+            tokenBlacklistFilter.rememberSession(verifiedToken.getFamilyId());
+        }
+    }
+
+    private long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+}
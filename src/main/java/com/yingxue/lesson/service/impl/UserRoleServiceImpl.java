@@ -4,24 +4,28 @@ import com.yingxue.lesson.entity.SysUserRole;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.mapper.SysUserRoleMapper;
+import com.yingxue.lesson.service.AuthzIndexService;
 import com.yingxue.lesson.service.UserRoleService;
 import com.yingxue.lesson.vo.req.UserOwnRoleReqVO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * @ClassName: UserRoleServiceImpl
  */
 @Service
 public class UserRoleServiceImpl implements UserRoleService {
+    /**
+     * 批量插入/删除每批的条数
+     */
+    private static final int BATCH_SIZE = 500;
     @Autowired
     private SysUserRoleMapper sysUserRoleMapper;
+    @Autowired
+    private AuthzIndexService authzIndexService;
     @Override
     public List<String> getRoleIdsByUserId(String userId) {
         return sysUserRoleMapper.getRoleIdsByUserId(userId);
@@ -29,15 +33,26 @@ public class UserRoleServiceImpl implements UserRoleService {
 
     @Override
     @Transactional(rollbackFor = Exception.class)
-    public void addUserRoleInfo(UserOwnRoleReqVO vo) {
-        //删除他们关联数据
-        sysUserRoleMapper.removeRoleByUserId(vo.getUserId());
-        if(vo.getRoleIds()==null||vo.getRoleIds().isEmpty()){
-            return;
+    public boolean addUserRoleInfo(UserOwnRoleReqVO vo) {
+        /**
+         * 以前是删除全部关联数据再全部重新插入，现在和现有的关联数据比较，只删除去掉的、插入新加的
+         */
+        Set<String> removed=new LinkedHashSet<>(sysUserRoleMapper.getRoleIdsByUserId(vo.getUserId()));
+        Set<String> added=vo.getRoleIds()==null?new LinkedHashSet<>():new LinkedHashSet<>(vo.getRoleIds());
+        Set<String> unchanged=new HashSet<>(removed);
+        unchanged.retainAll(added);
+        removed.removeAll(unchanged);
+        added.removeAll(unchanged);
+        if(removed.isEmpty()&&added.isEmpty()){
+            return false;
+        }
+        List<String> removedList=new ArrayList<>(removed);
+        for (int from=0;from<removedList.size();from+=BATCH_SIZE){
+            sysUserRoleMapper.removeByUserIdAndRoleIds(vo.getUserId(),removedList.subList(from,Math.min(from+BATCH_SIZE,removedList.size())));
         }
         List<SysUserRole> list=new ArrayList<>();
         for (String roleId:
-             vo.getRoleIds()) {
+             added) {
             SysUserRole sysUserRole=new SysUserRole();
             sysUserRole.setId(UUID.randomUUID().toString());
             sysUserRole.setCreateTime(new Date());
@@ -45,24 +60,39 @@ public class UserRoleServiceImpl implements UserRoleService {
             sysUserRole.setRoleId(roleId);
             list.add(sysUserRole);
         }
-        int i = sysUserRoleMapper.batchInsertUserRole(list);
-        if(i==0){
-            throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
+        for (int from=0;from<list.size();from+=BATCH_SIZE){
+            int i = sysUserRoleMapper.batchInsertUserRole(list.subList(from,Math.min(from+BATCH_SIZE,list.size())));
+            if(i==0){
+                throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
+            }
         }
+        //授权索引只更新变化的部分
+        authzIndexService.updateUserRoles(vo.getUserId(),removed,added);
+        return true;
     }
 
     @Override
     public List<String> getUserIdsByRoleIds(List<String> roleIds) {
+        //先查授权索引，索引不可用再查数据库
+        Set<String> userIds=authzIndexService.getUserIdsByRoleIds(roleIds);
+        if(userIds!=null){
+            return new ArrayList<>(userIds);
+        }
         return sysUserRoleMapper.getUserIdsByRoleIds(roleIds);
     }
 
     @Override
     public List<String> getUserIdsBtRoleId(String roleId) {
+        Set<String> userIds=authzIndexService.getUserIdsByRoleIds(Collections.singletonList(roleId));
+        if(userIds!=null){
+            return new ArrayList<>(userIds);
+        }
         return sysUserRoleMapper.getUserIdsByRoleId(roleId);
     }
 
     @Override
     public int removeUserRoleId(String roleId) {
+        authzIndexService.removeRoleUsers(roleId);
         return sysUserRoleMapper.removeUserRoleId(roleId);
     }
 }
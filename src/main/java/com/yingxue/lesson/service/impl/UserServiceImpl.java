@@ -1,19 +1,26 @@
 package com.yingxue.lesson.service.impl;
 
 import com.github.pagehelper.PageHelper;
+import com.yingxue.lesson.catalog.AuthzSnapshot;
+import com.yingxue.lesson.catalog.AuthzSnapshotLoader;
+import com.yingxue.lesson.catalog.DeptDictionary;
+import com.yingxue.lesson.catalog.DeptTree;
 import com.yingxue.lesson.constants.Constant;
-import com.yingxue.lesson.entity.SysDept;
 import com.yingxue.lesson.entity.SysUser;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
-import com.yingxue.lesson.mapper.SysDeptMapper;
 import com.yingxue.lesson.mapper.SysUserMapper;
 import com.yingxue.lesson.service.*;
+import com.yingxue.lesson.shiro.AuthInvalidationBus;
 import com.yingxue.lesson.utils.JwtTokenUtil;
 import com.yingxue.lesson.utils.PageUtil;
 import com.yingxue.lesson.utils.PasswordUtils;
+import com.yingxue.lesson.utils.SingleFlight;
+import com.yingxue.lesson.utils.TokenContextHolder;
 import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.utils.VerifiedToken;
 import com.yingxue.lesson.vo.req.*;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
 import com.yingxue.lesson.vo.resp.LoginRespVO;
 import com.yingxue.lesson.vo.resp.PageVO;
 import com.yingxue.lesson.vo.resp.UserOwnRoleRespVO;
@@ -23,8 +30,11 @@ import org.apache.shiro.subject.Subject;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -41,16 +51,31 @@ public class UserServiceImpl implements UserService {
     private RedisService redisService;
 
     @Autowired
-    private SysDeptMapper sysDeptMapper;
+    private DeptDictionary deptDictionary;
 
     @Autowired
     private UserRoleService userRoleService;
     @Autowired
     private RoleService roleService;
     @Autowired
-    private TokenSettings tokenSettings;
+    private AuthInvalidationBus authInvalidationBus;
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+    @Autowired
+    private AuthzSnapshotLoader authzSnapshotLoader;
+    @Autowired
+    private InvalidationOutbox invalidationOutbox;
     @Autowired
-    private PermissionService permissionService;
+    private TokenSettings tokenSettings;
+
+    /**
+     * 同一个 refresh_token 的并发刷新合并成一次
+     */
+    private final SingleFlight<String,String> refreshFlights=new SingleFlight<>();
+    /**
+     * 刷新去重记录里 jti 和签发时间的分隔符，jti 是 base64url 编码，不会出现冒号
+     */
+    private static final String ISSUANCE_SEPARATOR=":";
 
     @Override
     public LoginRespVO login(LoginReqVO vo) {
@@ -72,9 +97,16 @@ public class UserServiceImpl implements UserService {
         loginRespVO.setUsername(userInfoByName.getUsername());
         loginRespVO.setId(userInfoByName.getId());
         Map<String, Object> claims=new HashMap<>();
-        claims.put(Constant.JWT_ROLES_KEY,getRolesByUserId(userInfoByName.getId()));
-        claims.put(Constant.JWT_PERMISSIONS_KEY,getPermissionsByUserId(userInfoByName.getId()));
+        //先取授权版本号再查角色权限，查询期间角色权限被修改的话 token 里是旧版本号，下次请求会刷新
+        claims.put(Constant.JWT_AUTHZ_EPOCH_KEY,tokenRevocationService.getAuthzEpoch(userInfoByName.getId()));
+        //角色和权限一条联表查询查回来
+        AuthzSnapshot authzSnapshot=authzSnapshotLoader.load(userInfoByName.getId());
+        claims.put(Constant.JWT_ROLES_KEY,authzSnapshot.getRoleNames());
+        //角色集合指纹，域里按指纹取角色集合相同的用户共用的授权快照
+        claims.put(Constant.JWT_ROLE_SET_KEY,authzSnapshot.getRoleSetFingerprint());
         claims.put(Constant.JWT_USER_NAME,userInfoByName.getUsername());
+        //这次登录签发的 token 都属于同一个家族，主动退出时按家族吊销
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY,JwtTokenUtil.newTokenId());
         String accessToken=JwtTokenUtil.getAccessToken(userInfoByName.getId(),claims);
         String refreshToken;
         if(vo.getType().equals("1")){
@@ -86,36 +118,6 @@ public class UserServiceImpl implements UserService {
         loginRespVO.setRefreshToken(refreshToken);
         return loginRespVO;
     }
-    /**
-     * mock 数据
-     * 通过用户id获取该用户所拥有的角色
-     * 后期修改为通过操作DB获取
-     * @Author:      小霍
-     * @UpdateUser:
-     * @Version:     0.0.1
-     * @param userId
-     * @return       java.util.List<java.lang.String>
-     * @throws
-     */
-    private List<String> getRolesByUserId(String userId){
-
-        return  roleService.getRoleNames(userId);
-    }
-    /**
-     * mock 数据
-     * 通过用户id获取该用户所拥有的角色
-     * 后期通过操作数据获取
-     * @Author:      小霍
-     * @UpdateUser:
-     * @Version:     0.0.1
-     * @param userId
-     * @return       java.util.List<java.lang.String>
-     * @throws
-     */
-    private Set<String> getPermissionsByUserId(String userId){
-        return  permissionService.getPermissionsByUserId(userId);
-    }
-
     @Override
     public void logout(String accessToken, String refreshToken) {
         if(StringUtils.isEmpty(accessToken)||StringUtils.isEmpty(refreshToken)){
@@ -126,28 +128,24 @@ public class UserServiceImpl implements UserService {
         if (subject.isAuthenticated()) {
             subject.logout();
         }
-        String userId=JwtTokenUtil.getUserId(accessToken);
-        /**
-         * 把token 加入黑名单 禁止再访问我们的系统资源
-         */
-        redisService.set(Constant.JWT_ACCESS_TOKEN_BLACKLIST+accessToken,userId,JwtTokenUtil.getRemainingTime(accessToken), TimeUnit.MILLISECONDS);
+        VerifiedToken verifiedToken=TokenContextHolder.resolve(accessToken);
+        if(verifiedToken==null){
+            throw new BusinessException(BaseResponseCode.TOKEN_ERROR);
+        }
         /**
-         * 把 refreshToken 加入黑名单 禁止再拿来刷新token
+         * 把这次登录的 token 家族加入黑名单 access_token 禁止再访问我们的系统资源，refreshToken 禁止再拿来刷新token
          */
-        redisService.set(Constant.JWT_REFRESH_TOKEN_BLACKLIST+refreshToken,userId,JwtTokenUtil.getRemainingTime(refreshToken),TimeUnit.MILLISECONDS);
-
-
+        tokenRevocationService.revokeSession(verifiedToken,JwtTokenUtil.parseToken(refreshToken));
     }
 
     @Override
     public PageVO<SysUser> pageInfo(UserPageReqVO vo) {
         PageHelper.startPage(vo.getPageNum(),vo.getPageSize());
         List<SysUser> list=sysUserMapper.selectAll(vo);
+        //部门名称从部门字典取，一页只有分页的两次查询
+        DeptTree deptTree=deptDictionary.current();
         for (SysUser sysUser:list){
-            SysDept sysDept = sysDeptMapper.selectByPrimaryKey(sysUser.getDeptId());
-            if(sysDept!=null){
-                sysUser.setDeptName(sysDept.getName());
-            }
+            sysUser.setDeptName(deptTree.getName(sysUser.getDeptId()));
         }
         return PageUtil.getPageVO(list);
     }
@@ -177,39 +175,83 @@ public class UserServiceImpl implements UserService {
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public void setUserOwnRole(UserOwnRoleReqVO vo) {
-        userRoleService.addUserRoleInfo(vo);
+        if(!userRoleService.addUserRoleInfo(vo)){
+            //角色没有变化
+            return;
+        }
         /**
-         * 标记用户 要主动去刷新
+         * 事务提交后授权版本号加一(要主动去刷新)，清除用户授权数据缓存，通知各节点清除该用户的本地缓存
          */
-        redisService.set(Constant.JWT_REFRESH_KEY+vo.getUserId(),vo.getUserId(),tokenSettings.getAccessTokenExpireTime().toMillis(),TimeUnit.MILLISECONDS);
-        /**
-         * 清楚用户授权数据缓存
-         */
-        redisService.delete(Constant.IDENTIFY_CACHE_KEY+vo.getUserId());
+        invalidationOutbox.authorizationChanged(Collections.singletonList(vo.getUserId()));
     }
 
     @Override
     public String refreshToken(String refreshToken) {
         //它是否过期
         //它是否被加如了黑名
-        if(!JwtTokenUtil.validateToken(refreshToken)||redisService.hasKey(Constant.JWT_REFRESH_TOKEN_BLACKLIST+refreshToken)){
+        VerifiedToken verifiedRefreshToken=JwtTokenUtil.parseToken(refreshToken);
+        if(verifiedRefreshToken==null||tokenRevocationService.isRefreshTokenRevoked(verifiedRefreshToken)){
             throw new BusinessException(BaseResponseCode.TOKEN_ERROR);
         }
-        String userId=JwtTokenUtil.getUserId(refreshToken);
+        String userId=verifiedRefreshToken.getUserId();
         log.info("userId={}",userId);
+        long authzEpoch=tokenRevocationService.getAuthzEpoch(userId);
+        long window=tokenSettings.getRefreshDedupWindow().toMillis();
+        if(window<=0){
+            return issueRefreshedToken(refreshToken,verifiedRefreshToken,authzEpoch);
+        }
+        /**
+         * 角色修改后大量客户端同时来刷新，一个客户端还可能因为好几个请求失败同时刷新好几次
+         * 同一个 refresh_token(并且授权版本号没变)在去重窗口内只签发一次，重复的刷新返回同一个 access_token
+         * 本节点内的并发先合并，集群内用 setIfAbsent 决定谁的 jti 和签发时间生效
+         * redis 里不存 access_token，只存 jti 和签发时间，拿到的节点用同样的参数重新签一次，签出来的 token 完全一样；
+         * key 用 refresh_token 标识的摘要，redis 里看不到 refresh_token 的任何内容
+         */
+        String dedupKey=Constant.JWT_REFRESH_DEDUP_KEY+DigestUtils.md5DigestAsHex((dedupId(verifiedRefreshToken)+"_"+authzEpoch).getBytes(StandardCharsets.UTF_8));
+        return refreshFlights.execute(dedupKey, () -> {
+            String issuance=JwtTokenUtil.newTokenId()+ISSUANCE_SEPARATOR+System.currentTimeMillis();
+            if(!redisService.setifAbsen(dedupKey,issuance,window,TimeUnit.MILLISECONDS)){
+                //别的节点先签发了，用它的 jti 和签发时间
+                Object winner=redisService.get(dedupKey);
+                if(winner!=null){
+                    issuance=winner.toString();
+                }
+            }
+            int separator=issuance.lastIndexOf(ISSUANCE_SEPARATOR);
+            return issueRefreshedToken(refreshToken,verifiedRefreshToken,authzEpoch,
+                    issuance.substring(0,separator),Long.parseLong(issuance.substring(separator+1)));
+        });
+    }
+
+    private String issueRefreshedToken(String refreshToken,VerifiedToken verifiedRefreshToken,long authzEpoch){
+        return issueRefreshedToken(refreshToken,verifiedRefreshToken,authzEpoch,JwtTokenUtil.newTokenId(),System.currentTimeMillis());
+    }
+
+    private String issueRefreshedToken(String refreshToken,VerifiedToken verifiedRefreshToken,long authzEpoch,String tokenId,long issuedAt){
         Map<String,Object> claims=null;
-        if(redisService.hasKey(Constant.JWT_REFRESH_KEY+userId)){
+        if(authzEpoch>verifiedRefreshToken.getAuthzEpoch()){
+            //refresh_token 签发之后角色权限修改过，按当前的角色权限重新签发
+            String userId=verifiedRefreshToken.getUserId();
             claims=new HashMap<>();
-            claims.put(Constant.JWT_ROLES_KEY,getRolesByUserId(userId));
-            claims.put(Constant.JWT_PERMISSIONS_KEY,getPermissionsByUserId(userId));
+            claims.put(Constant.JWT_AUTHZ_EPOCH_KEY,authzEpoch);
+            AuthzSnapshot authzSnapshot=authzSnapshotLoader.load(userId);
+            claims.put(Constant.JWT_ROLES_KEY,authzSnapshot.getRoleNames());
+            claims.put(Constant.JWT_ROLE_SET_KEY,authzSnapshot.getRoleSetFingerprint());
+        }
+        return JwtTokenUtil.refreshToken(refreshToken,claims,tokenId,issuedAt);
+    }
+
+    /**
+     * refresh_token 的唯一标识，老版本没有 jti 的用签名段
+     */
+    private String dedupId(VerifiedToken verifiedRefreshToken){
+        if(verifiedRefreshToken.getTokenId()!=null){
+            return verifiedRefreshToken.getTokenId();
         }
-        String newAccessToken=JwtTokenUtil.refreshToken(refreshToken,claims);
-//        if(redisService.hasKey(Constant.JWT_REFRESH_KEY+userId)){
-//            redisService.set(Constant.JWT_REFRESH_IDENTIFICATION+newAccessToken,userId,
-//                   redisService.getExpire(Constant.JWT_REFRESH_KEY+userId,TimeUnit.MILLISECONDS),TimeUnit.MILLISECONDS);
-//        }
-        return newAccessToken;
+        String token=verifiedRefreshToken.getToken();
+        return token.substring(token.lastIndexOf('.')+1);
     }
 
     @Override
@@ -236,9 +278,11 @@ public class UserServiceImpl implements UserService {
         }else {
             redisService.delete(Constant.ACCOUNT_LOCK_KEY+vo.getId());
         }
+        authInvalidationBus.publish(vo.getId());
     }
     @Override
-    public void deletedUsers(List<String> list, String operationId) {
+    @Transactional(rollbackFor = Exception.class)
+    public InvalidationTaskRespVO deletedUsers(List<String> list, String operationId) {
         SysUser sysUser=new SysUser();
         sysUser.setUpdateId(operationId);
         sysUser.setUpdateTime(new Date());
@@ -246,14 +290,8 @@ public class UserServiceImpl implements UserService {
         if(i==0){
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
-        for (String userId:
-                list) {
-            redisService.set(Constant.DELETED_USER_KEY+userId,userId,tokenSettings.getRefreshTokenExpireAppTime().toMillis(),TimeUnit.MILLISECONDS);
-            /**
-             * 清楚用户授权数据缓存
-             */
-            redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
-        }
+        //事务提交后打上删除标记并清除授权缓存，按批用管道写 redis
+        return invalidationOutbox.usersDeleted(list);
     }
 
     @Override
@@ -261,6 +299,11 @@ public class UserServiceImpl implements UserService {
         return sysUserMapper.selectUserInfoByDeptIds(deptIds);
     }
 
+    @Override
+    public List<SysUser> selectUserInfoByDeptTree(String deptId) {
+        return sysUserMapper.selectUserInfoByAncestorDeptId(deptId);
+    }
+
     @Override
     public SysUser detailInfo(String userId) {
         return sysUserMapper.selectByPrimaryKey(userId);
@@ -281,7 +324,11 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public void userUpdatePwd(UserUpdatePwdReqVO vo, String accessToken, String refreshToken) {
-        String userId=JwtTokenUtil.getUserId(accessToken);
+        VerifiedToken verifiedToken=TokenContextHolder.resolve(accessToken);
+        if(verifiedToken==null){
+            throw new BusinessException(BaseResponseCode.TOKEN_ERROR);
+        }
+        String userId=verifiedToken.getUserId();
         //校验旧密码
         SysUser sysUser = sysUserMapper.selectByPrimaryKey(userId);
         if(sysUser==null){
@@ -299,18 +346,13 @@ public class UserServiceImpl implements UserService {
             throw new BusinessException(BaseResponseCode.OPERATION_ERROR);
         }
 
-        /**
-         * 把token 加入黑名单 禁止再访问我们的系统资源
-         */
-        redisService.set(Constant.JWT_ACCESS_TOKEN_BLACKLIST+accessToken,userId,JwtTokenUtil.getRemainingTime(accessToken), TimeUnit.MILLISECONDS);
-        /**
-         * 把 refreshToken 加入黑名单 禁止再拿来刷新token
-         */
-        redisService.set(Constant.JWT_REFRESH_TOKEN_BLACKLIST+refreshToken,userId,JwtTokenUtil.getRemainingTime(refreshToken),TimeUnit.MILLISECONDS);
-
         /**
          * 清楚用户授权数据缓存
          */
         redisService.delete(Constant.IDENTIFY_CACHE_KEY+userId);
+        /**
+         * 吊销用户所有的会话 所有终端都要重新登录(同时广播清除各节点的本地缓存)
+         */
+        tokenRevocationService.revokeAllSessions(userId);
     }
 }
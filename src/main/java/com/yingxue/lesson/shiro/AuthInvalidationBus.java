@@ -0,0 +1,95 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 用户认证/授权本地缓存失效总线
+ * 后台修改了用户的锁定状态、删除了用户、修改了用户的角色/权限，都通过这里广播
+ * 本节点立即清除本地缓存，然后通过 redis 发布订阅通知集群其它节点清除
+ */
+@Slf4j
+@Component
+public class AuthInvalidationBus implements MessageListener {
+    /**
+     * 消息里多个用户id用逗号分隔
+     */
+    private static final String SEPARATOR = ",";
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final List<AuthInvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(Constant.AUTH_INVALIDATION_CHANNEL));
+    }
+
+    /**
+     * 注册本地缓存监听
+     */
+    public void addListener(AuthInvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 广播用户失效消息
+     */
+    public void publish(String userId) {
+        publish(Collections.singletonList(userId));
+    }
+
+    /**
+     * 广播用户失效消息
+     */
+    public void publish(Collection<String> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return;
+        }
+        dispatch(userIds);
+        try {
+            redisService.convertAndSend(Constant.AUTH_INVALIDATION_CHANNEL, StringUtils.collectionToDelimitedString(userIds, SEPARATOR));
+        } catch (Exception e) {
+            //广播失败其它节点靠本地缓存的兜底过期时间失效
+            log.error("publish auth invalidation error", e);
+        }
+    }
+
+    /**
+     * 收到其它节点(包括自己)广播的失效消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (StringUtils.isEmpty(body)) {
+            return;
+        }
+        dispatch(Arrays.asList(StringUtils.tokenizeToStringArray(body, SEPARATOR)));
+    }
+
+    private void dispatch(Collection<String> userIds) {
+        for (AuthInvalidationListener listener : listeners) {
+            try {
+                listener.onInvalidate(userIds);
+            } catch (Exception e) {
+                log.error("auth invalidation listener error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.yingxue.lesson.shiro;
+
+import java.util.Collection;
+
+/**
+ * 用户认证/授权本地缓存失效监听
+ */
+public interface AuthInvalidationListener {
+
+    /**
+     * 这些用户的认证/授权数据发生了变化，需要清除本地缓存
+     */
+    void onInvalidate(Collection<String> userIds);
+}
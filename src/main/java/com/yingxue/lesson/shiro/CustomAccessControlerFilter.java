@@ -5,6 +5,9 @@ import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.exception.BusinessException;
 import com.yingxue.lesson.exception.code.BaseResponseCode;
 import com.yingxue.lesson.utils.DataResult;
+import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.TokenContextHolder;
+import com.yingxue.lesson.utils.VerifiedToken;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.web.filter.AccessControlFilter;
@@ -55,23 +58,28 @@ public class CustomAccessControlerFilter extends AccessControlFilter {
                 //如果没有携带accessToken，抛出异常，响应给客户端。但这里抛出的异常，在全局异常中监控不到，所以我们要自己try-catch处理
                 throw new BusinessException(BaseResponseCode.TOKEN_NOT_NULL);
             }
+            //整个请求只解析校验一次 token，后续的认证器、域、日志切面、controller 都从上下文里拿
+            VerifiedToken verifiedToken=JwtTokenUtil.parseToken(accessToken);
+            if(verifiedToken!=null){
+                TokenContextHolder.set(servletRequest,verifiedToken);
+            }
             // UsernamePasswordToken token = new UsernamePasswordToken(username, password)；现在改为token
             CustomUsernamePasswordToken customUsernamePasswordToken=new CustomUsernamePasswordToken(accessToken);
             // 调用login()后，委托给shiro的Realm安全管理器 进行登录验证处理。【我们继承了HashedCredentialsMatcher，重写了shiro原来自带的UsernamePasswordToken比对方法，改造为比对传入的jwt】
             this.getSubject(servletRequest,servletResponse).login(customUsernamePasswordToken);
         } catch (BusinessException e) {
             //捕获异常后的异常处理方式
-            customRsponse(e.getCode(),e.getDefaultMessage(),servletResponse);
+            customRsponse(e.getCode(),e.getDefaultMessage(),e.getData(),servletResponse);
             return false;
         } catch (AuthenticationException e) {
             // getCause()返回此异常的原因
             if(e.getCause() instanceof BusinessException){
                 //主动抛出的异常
                 BusinessException exception= (BusinessException) e.getCause();
-                customRsponse(exception.getCode(),exception.getDefaultMessage(),servletResponse);
+                customRsponse(exception.getCode(),exception.getDefaultMessage(),exception.getData(),servletResponse);
             }else {
                 //系统抛出的异常
-                customRsponse(BaseResponseCode.SHIRO_AUTHENTICATION_ERROR.getCode(),BaseResponseCode.SHIRO_AUTHENTICATION_ERROR.getMsg(),servletResponse);
+                customRsponse(BaseResponseCode.SHIRO_AUTHENTICATION_ERROR.getCode(),BaseResponseCode.SHIRO_AUTHENTICATION_ERROR.getMsg(),null,servletResponse);
             }
            return false;
         }
@@ -81,10 +89,10 @@ public class CustomAccessControlerFilter extends AccessControlFilter {
     /**
      * 自定义错误响应
      */
-    private void customRsponse(int code, String msg, ServletResponse response){
+    private void customRsponse(int code, String msg, Object data, ServletResponse response){
         //  用DataResult封装异常信息，然后直接写个流OutputStream，返回给客户端相应的JSON格式的信息
         try {
-            DataResult result=DataResult.getResult(code,msg);
+            DataResult result=DataResult.getResult(code,msg,data);
             response.setContentType("application/json; charset=utf-8");
             response.setCharacterEncoding("UTF-8");
             //将DataResult转为json
@@ -1,14 +1,12 @@
 package com.yingxue.lesson.shiro;
 
 import com.yingxue.lesson.constants.Constant;
-import com.yingxue.lesson.exception.BusinessException;
-import com.yingxue.lesson.exception.code.BaseResponseCode;
-import com.yingxue.lesson.service.PermissionService;
-import com.yingxue.lesson.service.RedisService;
-import com.yingxue.lesson.service.RoleService;
-import com.yingxue.lesson.service.UserService;
-import com.yingxue.lesson.utils.JwtTokenUtil;
-import io.jsonwebtoken.Claims;
+import com.yingxue.lesson.service.TokenRevocationService;
+import com.yingxue.lesson.utils.SingleFlight;
+import com.yingxue.lesson.utils.TokenContextHolder;
+import com.yingxue.lesson.utils.VerifiedToken;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
@@ -19,21 +17,35 @@ import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 
 /**
  * 自定义域
  */
 public class CustomRealm extends AuthorizingRealm {
     @Autowired
-    private RoleService roleService;
+    private TokenRevocationService tokenRevocationService;
     @Autowired
-    private PermissionService permissionService;
+    private RoleSetSnapshotStore roleSetSnapshotStore;
     @Autowired
-    private RedisService redisService;
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 授权信息缓存大面积失效后，同一个用户的并发加载合并成一次
+     */
+    private final SingleFlight<String, AuthorizationInfo> userLoads = new SingleFlight<>();
+
+    @PostConstruct
+    public void registerMetrics() {
+        registerLoadMetrics("user", userLoads);
+    }
+
+    private void registerLoadMetrics(String scope, SingleFlight<String, AuthorizationInfo> flight) {
+        FunctionCounter.builder("auth.authorization.loads", flight, SingleFlight::loadCount)
+                .tags("scope", scope, "result", "loaded").register(meterRegistry);
+        FunctionCounter.builder("auth.authorization.loads", flight, SingleFlight::coalescedCount)
+                .tags("scope", scope, "result", "coalesced").register(meterRegistry);
+    }
     /**
      * 重写supports 不然token不生效
      * 返回当前领域是否支持参数中的token。只有当前Realm支持这个类型的token时，Shiro才会使用这个类型的token调用 getAuthenticationInfo(AuthenticationToken token)方法进行身份认证。
@@ -57,34 +69,46 @@ public class CustomRealm extends AuthorizingRealm {
     protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principalCollection) {
         //拿到token
         String accessToken= (String) principalCollection.getPrimaryPrincipal();
-        SimpleAuthorizationInfo info=new SimpleAuthorizationInfo();
-        String userId=JwtTokenUtil.getUserId(accessToken);
+        VerifiedToken verifiedToken= TokenContextHolder.resolve(accessToken);
+        if(verifiedToken==null){
+            //token 校验不通过不给任何授权
+            return new SimpleAuthorizationInfo();
+        }
+        String userId=verifiedToken.getUserId();
         /**
-         * 通过剩余的过期时间比较如果token的剩余过期时间大与标记key的剩余过期时间
-         * 就说明这个tokne是在这个标记key之后生成的
+         * token 里的授权版本号不小于当前的版本号，说明这个token签发之后用户的角色没有变过，
+         * 直接按 token 里的角色集合指纹取共用的授权快照，角色集合相同的用户只有第一个需要查数据库
          */
-        if(redisService.hasKey(Constant.JWT_REFRESH_KEY+userId)&&redisService.getExpire(Constant.JWT_REFRESH_KEY+userId, TimeUnit.MILLISECONDS)>JwtTokenUtil.getRemainingTime(accessToken)){
-            List<String> roleNames = roleService.getRoleNames(userId);
-            if(roleNames!=null&&!roleNames.isEmpty()){
-                //将角色信息加入到SimpleAuthorizationInfo中，就不用再查数据库了
-                info.addRoles(roleNames);
-            }
-            Set<String> permissions=permissionService.getPermissionsByUserId(userId);
-            if(permissions!=null){
-                //将权限信息加入到SimpleAuthorizationInfo中，就不用再查数据库了
-                info.addStringPermissions(permissions);
+        if(!tokenRevocationService.check(verifiedToken).isRefreshRequired()){
+            Object fingerprint=verifiedToken.getClaims().get(Constant.JWT_ROLE_SET_KEY);
+            if(fingerprint!=null){
+                RoleSetSnapshot snapshot=roleSetSnapshotStore.get(fingerprint.toString());
+                if(snapshot!=null){
+                    return snapshot.getAuthorizationInfo();
+                }
             }
-        }else {
-            Claims claims= JwtTokenUtil.getClaimsFromToken(accessToken);
-            if(claims.get(Constant.JWT_ROLES_KEY)!=null){
-                info.addRoles((Collection<String>) claims.get(Constant.JWT_ROLES_KEY));
-            }
-            if(claims.get(Constant.JWT_PERMISSIONS_KEY)!=null){
-                info.addStringPermissions((Collection<String>) claims.get(Constant.JWT_PERMISSIONS_KEY));
+        }
+        //老 token 没有指纹、快照失效了或者 token 需要刷新，从数据库加载(一条联表查询)，同一个用户并发的加载合并成一次
+        return userLoads.execute(userId, () -> roleSetSnapshotStore.load(userId).getAuthorizationInfo());
+    }
+
+    /**
+     * 判断是否有某个权限
+     * 授权信息里有编译好的权限匹配器就直接用前缀树判断，不用每次把权限标识都构建成 WildcardPermission 逐个比较
+     * 权限标识是带逗号这类特殊写法，或者授权信息里带了对象权限的，走 shiro 原来的逻辑
+     */
+    @Override
+    public boolean isPermitted(PrincipalCollection principals, String permission) {
+        if (permission != null && PermissionMatcher.supports(permission)) {
+            AuthorizationInfo info = getAuthorizationInfo(principals);
+            if (info instanceof ImmutableAuthorizationInfo) {
+                ImmutableAuthorizationInfo immutableInfo = (ImmutableAuthorizationInfo) info;
+                if (immutableInfo.getObjectPermissions().isEmpty()) {
+                    return immutableInfo.permissionMatcher().isPermitted(permission);
+                }
             }
         }
-        //返回该用户的权限和角色信息给授权器
-        return info;
+        return super.isPermitted(principals, permission);
     }
 
     /**
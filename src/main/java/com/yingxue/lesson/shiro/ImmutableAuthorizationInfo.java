@@ -0,0 +1,80 @@
+package com.yingxue.lesson.shiro;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * 不可变的授权信息
+ * 放在本地缓存里给多个请求线程同时使用，创建时把角色和权限复制一份，之后不能再修改
+ * 创建时顺便把权限标识编译成 PermissionMatcher，之后的权限判断不用再一个个构建 WildcardPermission
+ * 按角色集合共用的授权信息带角色集合指纹，RedisCache 里每个用户只存指纹
+ */
+public final class ImmutableAuthorizationInfo implements AuthorizationInfo {
+    private final Collection<String> roles;
+    private final Collection<String> stringPermissions;
+    private final Collection<Permission> objectPermissions;
+    private final PermissionMatcher permissionMatcher;
+    private final String fingerprint;
+
+    public ImmutableAuthorizationInfo(AuthorizationInfo info) {
+        this(info, null);
+    }
+
+    public ImmutableAuthorizationInfo(AuthorizationInfo info, String fingerprint) {
+        this.fingerprint = fingerprint;
+        this.roles = copy(info.getRoles());
+        this.stringPermissions = copy(info.getStringPermissions());
+        this.objectPermissions = copy(info.getObjectPermissions());
+        this.permissionMatcher = PermissionMatcher.compile(stringPermissions);
+    }
+
+    /**
+     * 已经是不可变的直接返回，否则复制一份
+     */
+    public static ImmutableAuthorizationInfo of(AuthorizationInfo info) {
+        if (info instanceof ImmutableAuthorizationInfo) {
+            return (ImmutableAuthorizationInfo) info;
+        }
+        return new ImmutableAuthorizationInfo(info);
+    }
+
+    @Override
+    public Collection<String> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public Collection<String> getStringPermissions() {
+        return stringPermissions;
+    }
+
+    @Override
+    public Collection<Permission> getObjectPermissions() {
+        return objectPermissions;
+    }
+
+    /**
+     * 编译好的权限匹配器(不叫 getXxx，避免被序列化到 redis)
+     */
+    public PermissionMatcher permissionMatcher() {
+        return permissionMatcher;
+    }
+
+    /**
+     * 角色集合指纹，不是按角色集合共用的返回 null
+     */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    private static <T> Collection<T> copy(Collection<T> source) {
+        if (source == null || source.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(source));
+    }
+}
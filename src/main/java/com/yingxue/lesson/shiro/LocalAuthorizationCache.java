@@ -0,0 +1,75 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.NearCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+
+/**
+ * 授权信息一级缓存(堆内)，redis 是二级缓存
+ * 存的是用户对应的角色集合指纹，授权信息本身按角色集合共用，在 RoleSetSnapshotStore 里，一次请求里多次 @RequiresPermissions
+ * 或者页面上多个 shiro:hasPermission 标签不用每次都去 redis 取
+ * 失效：沿用原来删除 IDENTIFY_CACHE_KEY 的地方，删除后都会通过 AuthInvalidationBus 广播，各节点清除对应用户；兜底：超过 authorizationTtl 重新从 redis 加载
+ */
+@Component
+public class LocalAuthorizationCache implements AuthInvalidationListener {
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+
+    private NearCache<String, String> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new NearCache<>(authCacheSettings.getAuthorizationMaxSize(), authCacheSettings.getAuthorizationTtl());
+        authInvalidationBus.addListener(this);
+    }
+
+    /**
+     * 获取用户对应的角色集合指纹，不存在或者超过兜底过期时间返回 null
+     */
+    public String get(String userId) {
+        return cache.get(userId);
+    }
+
+    /**
+     * 加载前获取当前的失效序号
+     */
+    public long currentSequence() {
+        return cache.currentSequence();
+    }
+
+    /**
+     * 放入缓存，加载期间发生过失效则丢弃
+     */
+    public void put(String userId, String fingerprint, long sequence) {
+        cache.put(userId, fingerprint, sequence);
+    }
+
+    /**
+     * 清除本节点的某个用户
+     */
+    public void remove(String userId) {
+        cache.invalidate(userId);
+    }
+
+    /**
+     * 清除本节点所有用户
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void onInvalidate(Collection<String> userIds) {
+        cache.invalidate(userIds);
+    }
+}
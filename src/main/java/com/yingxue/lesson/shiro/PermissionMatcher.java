@@ -0,0 +1,220 @@
+package com.yingxue.lesson.shiro;
+
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译好的权限匹配器
+ * 把用户的权限标识(sys:user:list 这种冒号分隔的)按段建成一棵前缀树，判断是否有某个权限时沿着请求的权限标识逐段往下走，
+ * 耗时只和权限标识的段数有关，和用户有多少个权限无关，也不创建任何对象
+ * 匹配规则和 shiro 的 WildcardPermission(不区分大小写)一致：
+ * 1. * 匹配任意一段
+ * 2. 用户权限段数比请求的少，视为包含后面所有的段(sys:user 包含 sys:user:list)
+ * 3. 用户权限段数比请求的多，多出来的段必须都是 *
+ * 4. 逗号分隔的多个子段(sys:user:add,update)展开成多条路径
+ * 请求的权限标识带逗号、空段这些特殊写法时 supports 返回 false，由调用方走 shiro 原来的逻辑
+ * 用户的权限标识格式不对(只有分隔符之类的)时和 shiro 一样抛 IllegalArgumentException
+ */
+public final class PermissionMatcher {
+    private static final char PART_DIVIDER = ':';
+    private static final char SUBPART_DIVIDER = ',';
+    private static final String WILDCARD = "*";
+
+    private static final PermissionMatcher EMPTY = new PermissionMatcher(new Node());
+
+    private final Node root;
+
+    private PermissionMatcher(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * 编译用户的权限标识
+     * 空白的跳过(shiro 解析权限时也是跳过的)，格式不对的抛 IllegalArgumentException，和 shiro 一致
+     */
+    public static PermissionMatcher compile(Collection<String> permissions) {
+        if (permissions == null || permissions.isEmpty()) {
+            return EMPTY;
+        }
+        Builder root = new Builder();
+        for (String permission : permissions) {
+            if (permission == null) {
+                continue;
+            }
+            String trimmed = permission.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            //格式校验交给 shiro，哪些写法合法以它为准，编译出来的前缀树才能和它的判断完全一致
+            new WildcardPermission(trimmed);
+            String[] parts = trimmed.split(String.valueOf(PART_DIVIDER));
+            List<Builder> current = new ArrayList<>();
+            current.add(root);
+            for (String part : parts) {
+                List<Builder> next = new ArrayList<>();
+                String[] subparts = part.toLowerCase().split(String.valueOf(SUBPART_DIVIDER));
+                boolean wildcard = false;
+                for (String subpart : subparts) {
+                    if (WILDCARD.equals(subpart)) {
+                        wildcard = true;
+                    }
+                }
+                for (Builder builder : current) {
+                    if (wildcard) {
+                        next.add(builder.wildcardChild());
+                    } else {
+                        for (String subpart : subparts) {
+                            next.add(builder.child(subpart));
+                        }
+                    }
+                }
+                current = next;
+            }
+            for (Builder builder : current) {
+                builder.terminal = true;
+            }
+        }
+        return new PermissionMatcher(root.build());
+    }
+
+    /**
+     * 请求的权限标识是不是普通写法(非空、没有逗号、没有空段)，只有普通写法才能用编译好的前缀树判断
+     */
+    public static boolean supports(String permission) {
+        int length = permission.length();
+        if (length == 0 || permission.charAt(0) == PART_DIVIDER || permission.charAt(length - 1) == PART_DIVIDER) {
+            return false;
+        }
+        if (Character.isWhitespace(permission.charAt(0)) || Character.isWhitespace(permission.charAt(length - 1))) {
+            return false;
+        }
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = permission.charAt(i);
+            if (c == SUBPART_DIVIDER || (c == PART_DIVIDER && previous == PART_DIVIDER)) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    /**
+     * 是否有这个权限，调用前先用 supports 判断
+     */
+    public boolean isPermitted(String permission) {
+        return matches(root, permission, 0);
+    }
+
+    private static boolean matches(Node node, String permission, int start) {
+        if (node.terminal) {
+            //用户权限到这里就结束了，包含后面所有的段
+            return true;
+        }
+        if (start > permission.length()) {
+            //请求的权限已经走完，用户权限剩下的段必须都是 *
+            return node.wildcardTail;
+        }
+        int end = permission.indexOf(PART_DIVIDER, start);
+        if (end < 0) {
+            end = permission.length();
+        }
+        Node child = node.child(permission, start, end);
+        if (child != null && matches(child, permission, end + 1)) {
+            return true;
+        }
+        return node.wildcard != null && matches(node.wildcard, permission, end + 1);
+    }
+
+    /**
+     * 编译好的前缀树节点，子节点用开放寻址的哈希表存放，按请求字符串的区间直接比较，不截取子串
+     */
+    private static final class Node {
+        private String[] keys = new String[0];
+        private int[] hashes = new int[0];
+        private Node[] children = new Node[0];
+        private int mask = -1;
+        private Node wildcard;
+        private boolean terminal;
+        /**
+         * 从这里往下只有 * 组成的路径能到达某个用户权限的结尾
+         */
+        private boolean wildcardTail;
+
+        private Node child(String permission, int start, int end) {
+            if (mask < 0) {
+                return null;
+            }
+            int hash = hash(permission, start, end);
+            int length = end - start;
+            for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && keys[i].length() == length
+                        && keys[i].regionMatches(true, 0, permission, start, length)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, Builder> children = new LinkedHashMap<>();
+        private Builder wildcard;
+        private boolean terminal;
+
+        private Builder child(String key) {
+            return children.computeIfAbsent(key, k -> new Builder());
+        }
+
+        private Builder wildcardChild() {
+            if (wildcard == null) {
+                wildcard = new Builder();
+            }
+            return wildcard;
+        }
+
+        private Node build() {
+            Node node = new Node();
+            node.terminal = terminal;
+            if (wildcard != null) {
+                node.wildcard = wildcard.build();
+                node.wildcardTail = node.wildcard.terminal || node.wildcard.wildcardTail;
+            }
+            if (!children.isEmpty()) {
+                int capacity = Integer.highestOneBit(children.size() * 2 - 1) << 1;
+                node.keys = new String[capacity];
+                node.hashes = new int[capacity];
+                node.children = new Node[capacity];
+                node.mask = capacity - 1;
+                for (Map.Entry<String, Builder> entry : children.entrySet()) {
+                    String key = entry.getKey();
+                    int hash = hash(key, 0, key.length());
+                    int i = hash & node.mask;
+                    while (node.keys[i] != null) {
+                        i = (i + 1) & node.mask;
+                    }
+                    node.keys[i] = key;
+                    node.hashes[i] = hash;
+                    node.children[i] = entry.getValue().build();
+                }
+            }
+            return node;
+        }
+    }
+
+    /**
+     * 不区分大小写的区间哈希
+     */
+    private static int hash(String value, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
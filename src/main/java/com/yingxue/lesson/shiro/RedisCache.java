@@ -1,40 +1,51 @@
 package com.yingxue.lesson.shiro;
 
-import com.alibaba.fastjson.JSON;
 import com.yingxue.lesson.constants.Constant;
 import com.yingxue.lesson.service.RedisService;
-import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.TokenContextHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.shiro.authz.SimpleAuthorizationInfo;
 import org.apache.shiro.cache.Cache;
 import org.apache.shiro.cache.CacheException;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 每次认证/授权 都会去执行CustomRealm 里的doGetAuthorizationInfo和doGetAuthenticationInfo方法，执行解析token，各种验证。因为角色权限这些信息不经常更换，每次都反复验证，耗资源
  *RedisCache<K, V> 实现shiro Cache<K, V>缓存接口，并重写Cache<K, V> get、put、remove、clear、size、keys、values等方法，
  * 这些方法都是 shiro 在对缓存的一些操作，就是当 shiro 操作缓存的时候都会调用相应的方法，我们只需重写这些相应的方法就可以把 shiro 的缓存信息存入到 redis了。
  * 这就是一个优秀的开源框架所具备的扩展性，它提供了一个cacheManager 缓存管理器我们只需重新这个管理器即可。
+ * 前面还有一层本地一级缓存 LocalAuthorizationCache，命中时不用访问 redis 也不用 JSON 反序列化
+ * 每个用户只存角色集合指纹，授权信息按角色集合共用，存在 RoleSetSnapshotStore 里
  */
 @Slf4j
 public class RedisCache<K,V> implements Cache<K,V> {
     private String cacheKey;
-    //设置过期时间，这里设置一天，一天之后自动清除，如果用户再提交主体，就又再存到缓存里。不设置也可以，就是永久，用户退出清除它的缓存就可以了。
-    private long expire = 24;
+    /**
+     * SCAN 每批的 key 数量上限，也是每次 UNLINK/MGET 的 key 数量上限
+     */
+    private static final int BATCH_SIZE = 500;
     /**
      * 因为RedisCache没有交由spring容器管理，所以RedisService @Autowired注入不进来
      * 需要用第三方代理类初始化它才可以
      */
     private RedisService redisService;
-    public RedisCache(RedisService redisService){
+    /**
+     * 本地一级缓存
+     */
+    private LocalAuthorizationCache localAuthorizationCache;
+    /**
+     * 角色集合授权快照
+     */
+    private RoleSetSnapshotStore roleSetSnapshotStore;
+    public RedisCache(RedisService redisService, LocalAuthorizationCache localAuthorizationCache, RoleSetSnapshotStore roleSetSnapshotStore){
         //初始化key
         this.cacheKey= Constant.IDENTIFY_CACHE_KEY;
         //初始化RedisService
         this.redisService=redisService;
+        this.localAuthorizationCache=localAuthorizationCache;
+        this.roleSetSnapshotStore=roleSetSnapshotStore;
     }
     /**
      * 获取
@@ -47,13 +58,16 @@ public class RedisCache<K,V> implements Cache<K,V> {
             return null;
         }
         try {
-            String redisCacheKey = getRedisCacheKey(key);
-            Object rawValue = redisService.get(redisCacheKey);
-            if (rawValue == null) {
+            String userId = TokenContextHolder.getUserId(key.toString());
+            if (userId == null) {
+                return null;
+            }
+            //用户的指纹 -> 共用的快照，指纹或者快照没有了都返回 null，由域重新加载
+            RoleSetSnapshot snapshot = roleSetSnapshotStore.getByUserId(userId);
+            if (snapshot == null) {
                 return null;
             }
-            SimpleAuthorizationInfo simpleAuthenticationInfo= JSON.parseObject(rawValue.toString(),SimpleAuthorizationInfo.class);
-            V value = (V) simpleAuthenticationInfo;
+            V value = (V) snapshot.getAuthorizationInfo();
             return value;
         } catch (Exception e) {
             throw new CacheException(e);
@@ -75,8 +89,14 @@ public class RedisCache<K,V> implements Cache<K,V> {
              * token可以反复签发，一个用户可以签发多个token，所以token不能做唯一标识，唯一的只有用户ID
              * 所以我们自定义一个方法，解析用户ID，再和其它常量组合成唯一标识
              */
-            String redisCacheKey = getRedisCacheKey(key);
-            redisService.set(redisCacheKey, value != null ? value : null, expire, TimeUnit.HOURS);
+            String userId = TokenContextHolder.getUserId(key.toString());
+            if (userId == null) {
+                return value;
+            }
+            //只缓存按角色集合共用的授权信息，存用户的指纹；token 校验不通过给的空授权信息不缓存
+            if (value instanceof ImmutableAuthorizationInfo && ((ImmutableAuthorizationInfo) value).fingerprint() != null) {
+                roleSetSnapshotStore.bindUser(userId, ((ImmutableAuthorizationInfo) value).fingerprint());
+            }
             return value;
         } catch (Exception e) {
             throw new CacheException(e);
@@ -92,32 +112,29 @@ public class RedisCache<K,V> implements Cache<K,V> {
             return null;
         }
         try {
-            String redisCacheKey = getRedisCacheKey(key);
-            Object rawValue = redisService.get(redisCacheKey);
-            V previous = (V) rawValue;
-            redisService.delete(redisCacheKey);
-            return previous;
+            String userId = TokenContextHolder.getUserId(key.toString());
+            if (userId == null) {
+                return null;
+            }
+            RoleSetSnapshot previous = roleSetSnapshotStore.getByUserId(userId);
+            roleSetSnapshotStore.unbindUser(userId);
+            return previous == null ? null : (V) previous.getAuthorizationInfo();
         } catch (Exception e) {
             throw new CacheException(e);
         }
     }
     /**
      * 清除所有标记
+     * 用 SCAN 分批遍历，每批 UNLINK 一次，不会阻塞 redis
      */
     @Override
     public void clear() throws CacheException {
         log.debug("clear cache");
-        Set<String> keys = null;
+        localAuthorizationCache.clear();
         try {
-            keys = redisService.keys(this.cacheKey + "*");
+            redisService.scanInBatches(this.cacheKey + "*", BATCH_SIZE, redisService::unlink);
         } catch (Exception e) {
-            log.error("get keys error", e);
-        }
-        if (keys == null || keys.size() == 0) {
-            return;
-        }
-        for (String key: keys) {
-            redisService.delete(key);
+            log.error("clear cache error", e);
         }
     }
     /**
@@ -125,13 +142,13 @@ public class RedisCache<K,V> implements Cache<K,V> {
      */
     @Override
     public int size() {
-        int result = 0;
+        AtomicInteger result = new AtomicInteger();
         try {
-            result = redisService.keys(this.cacheKey + "*").size();
+            redisService.scan(this.cacheKey + "*", BATCH_SIZE, key -> result.incrementAndGet());
         } catch (Exception e) {
-            log.error("get keys error", e);
+            log.error("scan keys error", e);
         }
-        return result;
+        return result.get();
     }
     /**
      * 获取redis中键的集合
@@ -139,63 +156,47 @@ public class RedisCache<K,V> implements Cache<K,V> {
     @SuppressWarnings("unchecked")
     @Override
     public Set<K> keys() {
-        Set<String> keys = null;
+        Set<K> convertedKeys = new HashSet<>();
         try {
-            keys = redisService.keys(this.cacheKey + "*");
+            redisService.scan(this.cacheKey + "*", BATCH_SIZE, key -> convertedKeys.add((K) key));
         } catch (Exception e) {
-            log.error("get keys error", e);
+            log.error("scan keys error", e);
             return Collections.emptySet();
         }
-        if (CollectionUtils.isEmpty(keys)) {
-            return Collections.emptySet();
-        }
-        Set<K> convertedKeys = new HashSet<>();
-        for (String key:keys) {
-            try {
-                convertedKeys.add((K) key);
-            } catch (Exception e) {
-                log.error("deserialize keys error", e);
-            }
-        }
         return convertedKeys;
     }
     /**
      * 获取redis中值的集合
+     * 每批 key 用一次 MGET 取回用户的指纹，再按指纹取共用的快照
      */
+    @SuppressWarnings("unchecked")
     @Override
     public Collection<V> values() {
-        Set<String> keys = null;
+        List<V> values = new ArrayList<V>();
         try {
-            keys = redisService.keys(this.cacheKey + "*");
+            redisService.scanInBatches(this.cacheKey + "*", BATCH_SIZE, keys -> {
+                List<Object> rawValues = redisService.mget(keys);
+                if (rawValues == null) {
+                    return;
+                }
+                for (Object rawValue : rawValues) {
+                    if (rawValue == null) {
+                        continue;
+                    }
+                    try {
+                        RoleSetSnapshot snapshot = roleSetSnapshotStore.get(rawValue.toString());
+                        if (snapshot != null) {
+                            values.add((V) snapshot.getAuthorizationInfo());
+                        }
+                    } catch (Exception e) {
+                        log.error("deserialize values= error", e);
+                    }
+                }
+            });
         } catch (Exception e) {
-            log.error("get values error", e);
-            return Collections.emptySet();
-        }
-        if (CollectionUtils.isEmpty(keys)) {
+            log.error("scan values error", e);
             return Collections.emptySet();
         }
-        List<V> values = new ArrayList<V>(keys.size());
-        for (String key : keys) {
-            V value = null;
-            try {
-                value = (V) redisService.get(key);
-            } catch (Exception e) {
-                log.error("deserialize values= error", e);
-            }
-            if (value != null) {
-                values.add(value);
-            }
-        }
         return Collections.unmodifiableList(values);
     }
-    /**
-     * 生成redis的key
-     */
-    private String getRedisCacheKey(K key) {
-        if(null==key){
-            return null;
-        }else {
-            return this.cacheKey+ JwtTokenUtil.getUserId(key.toString());
-        }
-    }
 }
@@ -12,9 +12,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class RedisCacheManager implements CacheManager {
     @Autowired
     private RedisService redisService;
+    @Autowired
+    private LocalAuthorizationCache localAuthorizationCache;
+    @Autowired
+    private RoleSetSnapshotStore roleSetSnapshotStore;
     @Override
     public <K, V> Cache<K, V> getCache(String s) throws CacheException {
-        //初始化RedisCache中的相关属性
-        return new RedisCache<>(redisService);
+        //初始化RedisCache中的相关属性 本地一级缓存 + redis 二级缓存，授权信息按角色集合共用
+        return new RedisCache<>(redisService, localAuthorizationCache, roleSetSnapshotStore);
     }
 }
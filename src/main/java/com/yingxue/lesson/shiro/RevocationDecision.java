@@ -0,0 +1,47 @@
+package com.yingxue.lesson.shiro;
+
+/**
+ * 一次 token 吊销检查的结果
+ * 用户是否锁定、是否删除、token 是否被拉黑、是否需要主动刷新，一次查询全部带回来
+ */
+public class RevocationDecision {
+    /**
+     * 用户被锁定
+     */
+    private final boolean locked;
+    /**
+     * 用户被删除
+     */
+    private final boolean deleted;
+    /**
+     * token 已经主动退出加入黑名单
+     */
+    private final boolean blacklisted;
+    /**
+     * 后台修改了用户的角色/权限，token 需要刷新
+     */
+    private final boolean refreshRequired;
+
+    public RevocationDecision(boolean locked, boolean deleted, boolean blacklisted, boolean refreshRequired) {
+        this.locked = locked;
+        this.deleted = deleted;
+        this.blacklisted = blacklisted;
+        this.refreshRequired = refreshRequired;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public boolean isBlacklisted() {
+        return blacklisted;
+    }
+
+    public boolean isRefreshRequired() {
+        return refreshRequired;
+    }
+}
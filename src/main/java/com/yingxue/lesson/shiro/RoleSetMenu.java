@@ -0,0 +1,40 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
+
+import java.util.List;
+
+/**
+ * 角色集合的导航菜单
+ * 按某个版本的菜单权限树组装好的菜单，同时保存序列化好的 JSON 和它的摘要(用作 ETag)，首页直接输出，不用每次序列化
+ * 创建后不可变，菜单和 JSON 都是共用的不能修改
+ */
+public final class RoleSetMenu {
+    private final long treeVersion;
+    private final List<PermissionRespNodeVO> menus;
+    private final byte[] json;
+    private final String etag;
+
+    public RoleSetMenu(long treeVersion, List<PermissionRespNodeVO> menus, byte[] json, String etag) {
+        this.treeVersion = treeVersion;
+        this.menus = menus;
+        this.json = json;
+        this.etag = etag;
+    }
+
+    public long getTreeVersion() {
+        return treeVersion;
+    }
+
+    public List<PermissionRespNodeVO> getMenus() {
+        return menus;
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
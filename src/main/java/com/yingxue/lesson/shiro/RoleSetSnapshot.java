@@ -0,0 +1,100 @@
+package com.yingxue.lesson.shiro;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.yingxue.lesson.catalog.AuthzSnapshot;
+import com.yingxue.lesson.catalog.PermissionTree;
+import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
+import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.springframework.util.DigestUtils;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 角色集合授权快照
+ * 角色集合相同的用户角色、权限、菜单完全一样，按角色集合指纹共用一份：角色名称、权限标识(编译好的匹配器)、菜单权限id，
+ * 以及第一次用到时编译好的导航菜单(对象和序列化好的 JSON)
+ * 创建后不可变，菜单按菜单权限树的版本编译，树没变就不重新编译，返回的菜单是共用的不能修改
+ */
+public final class RoleSetSnapshot {
+    private final String fingerprint;
+    private final List<String> roleIds;
+    private final Set<String> menuIds;
+    private final ImmutableAuthorizationInfo authorizationInfo;
+    private volatile RoleSetMenu menu;
+
+    private RoleSetSnapshot(String fingerprint, Collection<String> roleIds, Collection<String> roleNames,
+                            Collection<String> perms, Collection<String> menuIds) {
+        this.fingerprint = fingerprint;
+        this.roleIds = Collections.unmodifiableList(new ArrayList<>(roleIds));
+        this.menuIds = Collections.unmodifiableSet(new LinkedHashSet<>(menuIds));
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+        info.addRoles(roleNames);
+        info.addStringPermissions(perms);
+        this.authorizationInfo = new ImmutableAuthorizationInfo(info, fingerprint);
+    }
+
+    public static RoleSetSnapshot of(AuthzSnapshot authzSnapshot) {
+        return new RoleSetSnapshot(authzSnapshot.getRoleSetFingerprint(), authzSnapshot.getRoleIds(),
+                authzSnapshot.getRoleNames(), authzSnapshot.getPerms(), authzSnapshot.getMenuIds());
+    }
+
+    /**
+     * 从 redis 里存的 JSON 还原
+     */
+    public static RoleSetSnapshot parse(String fingerprint, String json) {
+        JSONObject object = JSONObject.parseObject(json);
+        return new RoleSetSnapshot(fingerprint, list(object, "roleIds"), list(object, "roleNames"),
+                list(object, "perms"), list(object, "menuIds"));
+    }
+
+    /**
+     * 存到 redis 的 JSON，编译好的匹配器和菜单不存，各节点自己编译
+     */
+    public String toJson() {
+        JSONObject object = new JSONObject();
+        object.put("roleIds", roleIds);
+        object.put("roleNames", authorizationInfo.getRoles());
+        object.put("perms", authorizationInfo.getStringPermissions());
+        object.put("menuIds", menuIds);
+        return object.toJSONString();
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public List<String> getRoleIds() {
+        return roleIds;
+    }
+
+    public Set<String> getMenuIds() {
+        return menuIds;
+    }
+
+    public ImmutableAuthorizationInfo getAuthorizationInfo() {
+        return authorizationInfo;
+    }
+
+    /**
+     * 导航菜单，按菜单权限id从菜单权限树组装(只到菜单)并序列化，树的版本没变就共用上次的结果
+     * 角色的菜单权限变了整个快照会失效，菜单权限本身变了树的版本会变，两种情况都会重新组装
+     * @param serializer 把菜单序列化成 JSON，和接口输出的格式一致
+     */
+    public RoleSetMenu getMenu(PermissionTree tree, Function<List<PermissionRespNodeVO>, byte[]> serializer) {
+        RoleSetMenu result = menu;
+        if (result == null || result.getTreeVersion() != tree.getVersion()) {
+            List<PermissionRespNodeVO> menus = Collections.unmodifiableList(tree.toTree(menuIds, false));
+            byte[] json = serializer.apply(menus);
+            result = new RoleSetMenu(tree.getVersion(), menus, json, DigestUtils.md5DigestAsHex(json));
+            menu = result;
+        }
+        return result;
+    }
+
+    private static List<String> list(JSONObject object, String key) {
+        JSONArray array = object.getJSONArray(key);
+        return array == null ? Collections.<String>emptyList() : array.toJavaList(String.class);
+    }
+}
@@ -0,0 +1,270 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.catalog.AuthzSnapshot;
+import com.yingxue.lesson.catalog.AuthzSnapshotLoader;
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.NearCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 角色集合授权快照仓库
+ * 五万个用户大多只是十几种角色组合，以前每个用户在 redis 里存一份授权信息，每个节点再各自反序列化、编译一份
+ * 现在用户只记角色集合指纹(redis 里 IDENTIFY_CACHE_KEY + userId，本地 LocalAuthorizationCache)，
+ * 指纹对应的快照 redis 里存一份、每个节点堆内存一份，内存只跟角色组合的数量有关
+ * 另外每个角色记下包含它的指纹，修改角色/菜单权限时只需要失效这几个快照，不用逐个清除用户的缓存
+ * 每个角色在 redis 里有一个代数，失效时加一；加载前记下代数，写回 redis 时用脚本比较，代数变了说明加载期间别的节点失效过，
+ * 读到的可能是旧数据，不写入，避免把旧快照再存回去一直用到过期
+ */
+@Slf4j
+@Component
+public class RoleSetSnapshotStore implements MessageListener {
+    /**
+     * 消息里多个指纹用逗号分隔
+     */
+    private static final String SEPARATOR = ",";
+    /**
+     * 角色的代数都没变才写入快照和角色索引
+     * KEYS[1] 代数 hash KEYS[2] 快照 key KEYS[3..] 角色索引 key
+     * ARGV[1] 快照 ARGV[2] 过期时间(秒) ARGV[3] 指纹 ARGV[4..] 角色id、加载前的代数依次排列
+     */
+    private static final RedisScript<Long> SAVE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 4, #ARGV, 2 do " +
+                    "if (redis.call('HGET', KEYS[1], ARGV[i]) or '0') ~= ARGV[i + 1] then return 0 end " +
+                    "end " +
+                    "redis.call('SET', KEYS[2], ARGV[1], 'EX', ARGV[2]) " +
+                    "for i = 3, #KEYS do " +
+                    "redis.call('SADD', KEYS[i], ARGV[3]) " +
+                    "redis.call('EXPIRE', KEYS[i], ARGV[2]) " +
+                    "end " +
+                    "return 1", Long.class);
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private AuthzSnapshotLoader authzSnapshotLoader;
+    @Autowired
+    private LocalAuthorizationCache localAuthorizationCache;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private NearCache<String, RoleSetSnapshot> snapshots;
+
+    @PostConstruct
+    public void init() {
+        snapshots = new NearCache<>(authCacheSettings.getRoleSetMaxSize(), authCacheSettings.getAuthorizationTtl());
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(Constant.ROLE_SET_INVALIDATION_CHANNEL));
+        Gauge.builder("auth.role-set.snapshots", this, RoleSetSnapshotStore::size).register(meterRegistry);
+    }
+
+    /**
+     * 按指纹获取快照，先本地再 redis，都没有返回 null
+     */
+    public RoleSetSnapshot get(String fingerprint) {
+        RoleSetSnapshot snapshot = snapshots.get(fingerprint);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        long sequence = snapshots.currentSequence();
+        Object json = redisService.get(Constant.ROLE_SET_SNAPSHOT_KEY + fingerprint);
+        if (json == null) {
+            return null;
+        }
+        return intern(RoleSetSnapshot.parse(fingerprint, json.toString()), sequence);
+    }
+
+    /**
+     * 从数据库加载用户的授权快照，角色集合相同的用户拿到的是同一份
+     */
+    public RoleSetSnapshot load(String userId) {
+        long sequence = snapshots.currentSequence();
+        Map<Object, Object> generations = getGenerations();
+        AuthzSnapshot authzSnapshot = authzSnapshotLoader.load(userId);
+        RoleSetSnapshot snapshot = snapshots.get(authzSnapshot.getRoleSetFingerprint());
+        if (snapshot != null) {
+            return snapshot;
+        }
+        snapshot = RoleSetSnapshot.of(authzSnapshot);
+        if (generations != null && sequence == snapshots.currentSequence()) {
+            save(snapshot, generations);
+        }
+        return intern(snapshot, sequence);
+    }
+
+    /**
+     * 用户当前的授权快照，只查缓存，没有返回 null
+     */
+    public RoleSetSnapshot getByUserId(String userId) {
+        long sequence = localAuthorizationCache.currentSequence();
+        String fingerprint = localAuthorizationCache.get(userId);
+        if (fingerprint == null) {
+            Object value = redisService.get(Constant.IDENTIFY_CACHE_KEY + userId);
+            if (value == null) {
+                return null;
+            }
+            fingerprint = value.toString();
+        }
+        RoleSetSnapshot snapshot = get(fingerprint);
+        if (snapshot != null) {
+            localAuthorizationCache.put(userId, fingerprint, sequence);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 用户当前的授权快照，缓存里没有就从数据库加载并记下用户的角色集合
+     */
+    public RoleSetSnapshot loadByUserId(String userId) {
+        RoleSetSnapshot snapshot = getByUserId(userId);
+        if (snapshot == null) {
+            snapshot = load(userId);
+            bindUser(userId, snapshot.getFingerprint());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 记下用户对应的角色集合
+     */
+    public void bindUser(String userId, String fingerprint) {
+        long sequence = localAuthorizationCache.currentSequence();
+        redisService.set(Constant.IDENTIFY_CACHE_KEY + userId, fingerprint, authCacheSettings.getRoleSetSnapshotTtl().getSeconds(), TimeUnit.SECONDS);
+        localAuthorizationCache.put(userId, fingerprint, sequence);
+    }
+
+    /**
+     * 清除用户对应的角色集合
+     */
+    public void unbindUser(String userId) {
+        localAuthorizationCache.remove(userId);
+        redisService.delete(Constant.IDENTIFY_CACHE_KEY + userId);
+    }
+
+    /**
+     * 角色的名称/权限或者菜单权限发生了变化：包含这些角色的快照全部失效，并通知各节点清除本地的快照
+     * 用户的指纹不用清，下次用到时按指纹找不到快照会重新加载
+     */
+    public void invalidateRoles(Collection<String> roleIds) {
+        if (roleIds == null || roleIds.isEmpty()) {
+            return;
+        }
+        List<String> indexKeys = new ArrayList<>();
+        for (String roleId : roleIds) {
+            //先加代数，正在加载这些角色的节点写回快照时会发现代数变了
+            redisService.hIncrBy(Constant.ROLE_SET_GENERATION_KEY, roleId, 1);
+            indexKeys.add(Constant.ROLE_SET_INDEX_KEY + roleId);
+        }
+        Set<Object> members = redisService.sUnion(indexKeys);
+        List<String> fingerprints = new ArrayList<>();
+        if (members != null) {
+            for (Object member : members) {
+                fingerprints.add(member.toString());
+            }
+        }
+        List<String> keys = new ArrayList<>(indexKeys);
+        for (String fingerprint : fingerprints) {
+            keys.add(Constant.ROLE_SET_SNAPSHOT_KEY + fingerprint);
+        }
+        redisService.unlink(keys);
+        evict(fingerprints);
+        if (fingerprints.isEmpty()) {
+            return;
+        }
+        try {
+            redisService.convertAndSend(Constant.ROLE_SET_INVALIDATION_CHANNEL, StringUtils.collectionToDelimitedString(fingerprints, SEPARATOR));
+        } catch (Exception e) {
+            //广播失败其它节点靠本地缓存的兜底过期时间失效
+            log.error("publish role set invalidation error", e);
+        }
+    }
+
+    /**
+     * 收到其它节点(包括自己)广播的失效消息
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (StringUtils.isEmpty(body)) {
+            return;
+        }
+        evict(Arrays.asList(StringUtils.tokenizeToStringArray(body, SEPARATOR)));
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * 全部角色当前的代数，读不到返回 null(这次加载的快照就不写回 redis)
+     */
+    private Map<Object, Object> getGenerations() {
+        try {
+            Map<Object, Object> generations = redisService.hgetall(Constant.ROLE_SET_GENERATION_KEY);
+            return generations == null ? new HashMap<>() : generations;
+        } catch (Exception e) {
+            log.error("get role set generations error", e);
+            return null;
+        }
+    }
+
+    /**
+     * 角色的代数和加载前一样时，快照存到 redis，并把指纹加到每个角色的索引里
+     */
+    private void save(RoleSetSnapshot snapshot, Map<Object, Object> generations) {
+        try {
+            String fingerprint = snapshot.getFingerprint();
+            List<String> keys = new ArrayList<>();
+            keys.add(Constant.ROLE_SET_GENERATION_KEY);
+            keys.add(Constant.ROLE_SET_SNAPSHOT_KEY + fingerprint);
+            List<Object> args = new ArrayList<>();
+            args.add(snapshot.toJson());
+            args.add(String.valueOf(authCacheSettings.getRoleSetSnapshotTtl().getSeconds()));
+            args.add(fingerprint);
+            for (String roleId : snapshot.getRoleIds()) {
+                keys.add(Constant.ROLE_SET_INDEX_KEY + roleId);
+                Object generation = generations.get(roleId);
+                args.add(roleId);
+                args.add(generation == null ? "0" : generation.toString());
+            }
+            Long saved = redisService.execute(SAVE_SCRIPT, keys, args.toArray());
+            if (saved == null || saved == 0) {
+                log.info("role set {} changed while loading, skip saving snapshot", fingerprint);
+            }
+        } catch (Exception e) {
+            //存不进去只是其它节点要自己查一次数据库
+            log.error("save role set snapshot error", e);
+        }
+    }
+
+    /**
+     * 放入本地缓存，已经有一份就用已有的，保证同一个角色集合在本节点只有一份；加载期间发生过失效则不放入
+     */
+    private RoleSetSnapshot intern(RoleSetSnapshot snapshot, long sequence) {
+        return snapshots.intern(snapshot.getFingerprint(), snapshot, sequence);
+    }
+
+    private void evict(Collection<String> fingerprints) {
+        snapshots.invalidate(fingerprints);
+    }
+}
@@ -0,0 +1,236 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.RotatingBloomFilter;
+import com.yingxue.lesson.utils.TokenSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token 黑名单的本地布隆过滤器
+ * 正常使用中的 token 几乎都不在黑名单里，以前每个请求都要去 redis hasKey 一次黑名单，现在先问布隆过滤器，
+ * 过滤器说"可能在"才去 redis 确认，说"不在"就一定不在
+ * 会话过滤器放 token 家族id(主动退出时整个家族一起吊销)，按 refresh_token 最长有效期分代轮换；
+ * 老版本没有家族id 的 token 仍按整个 token 拉黑，access_token 放 access 过滤器按 access_token 有效期分代轮换，refresh_token 放会话过滤器
+ * 过期的数据跟着旧的一代一起丢弃
+ * 集群同步：加入黑名单时通过 redis 发布订阅通知所有节点；启动时和每隔 blacklistResyncInterval 用 SCAN 从 redis 全量补一次，防止消息丢失
+ * 启动时还没从 redis 加载完之前过滤器不可信，一律去 redis 查
+ */
+@Slf4j
+@Component
+public class TokenBlacklistFilter implements MessageListener {
+    /**
+     * 消息格式 类型前缀 + token
+     */
+    private static final String ACCESS_PREFIX = "A:";
+    private static final String SESSION_PREFIX = "S:";
+    private static final int SCAN_COUNT = 1000;
+
+    @Autowired
+    private RedisService redisService;
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Autowired
+    private TokenSettings tokenSettings;
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private TrackedFilter accessFilter;
+    private TrackedFilter sessionFilter;
+    private ScheduledExecutorService resyncExecutor;
+
+    /**
+     * 是否已经从 redis 加载完成
+     */
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        long accessGeneration = tokenSettings.getAccessTokenExpireTime().toMillis();
+        long sessionGeneration = Math.max(tokenSettings.getRefreshTokenExpireTime().toMillis(),
+                tokenSettings.getRefreshTokenExpireAppTime().toMillis());
+        accessFilter = new TrackedFilter("access", accessGeneration);
+        sessionFilter = new TrackedFilter("session", sessionGeneration);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(Constant.TOKEN_BLACKLIST_CHANNEL));
+        resyncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "token-blacklist-resync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = authCacheSettings.getBlacklistResyncInterval().toMillis();
+        resyncExecutor.scheduleWithFixedDelay(this::resync, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        resyncExecutor.shutdownNow();
+    }
+
+    /**
+     * 老版本 access_token 是否可能在黑名单里
+     */
+    public boolean mightContainAccessToken(String token) {
+        return !ready || accessFilter.mightContain(token);
+    }
+
+    /**
+     * token 家族id(或者老版本 refresh_token) 是否可能在黑名单里
+     */
+    public boolean mightContainSession(String id) {
+        return !ready || sessionFilter.mightContain(id);
+    }
+
+    /**
+     * 过滤器说"可能在"以后，redis 确认的结果回报到这里，用来统计实际的误判率
+     */
+    public void recordAccessTokenLookup(boolean blacklisted) {
+        if (ready) {
+            accessFilter.record(blacklisted);
+        }
+    }
+
+    /**
+     * 过滤器说"可能在"以后，redis 确认的结果回报到这里，用来统计实际的误判率
+     */
+    public void recordSessionLookup(boolean blacklisted) {
+        if (ready) {
+            sessionFilter.record(blacklisted);
+        }
+    }
+
+    /**
+     * 老版本 access_token 已加入 redis 黑名单，放入本地过滤器并通知其它节点
+     */
+    public void addAccessToken(String token) {
+        accessFilter.put(token);
+        publish(ACCESS_PREFIX + token);
+    }
+
+    /**
+     * token 家族id(或者老版本 refresh_token) 已加入 redis 黑名单，放入本地过滤器并通知其它节点
+     */
+    public void addSession(String id) {
+        sessionFilter.put(id);
+        publish(SESSION_PREFIX + id);
+    }
+
+    /**
+     * redis 里查到在黑名单、本地过滤器却说不在(广播丢了、全量同步还没补上)，只补进本地过滤器，吊销的节点已经广播过了
+     */
+    public void rememberAccessToken(String token) {
+        accessFilter.put(token);
+    }
+
+    /**
+     * 同 rememberAccessToken，token 家族id(或者老版本 refresh_token)
+     */
+    public void rememberSession(String id) {
+        sessionFilter.put(id);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(ACCESS_PREFIX)) {
+            accessFilter.put(body.substring(ACCESS_PREFIX.length()));
+        } else if (body.startsWith(SESSION_PREFIX)) {
+            sessionFilter.put(body.substring(SESSION_PREFIX.length()));
+        }
+    }
+
+    private void publish(String message) {
+        try {
+            redisService.convertAndSend(Constant.TOKEN_BLACKLIST_CHANNEL, message);
+        } catch (Exception e) {
+            //广播失败其它节点靠定时全量同步补上
+            log.error("publish token blacklist error", e);
+        }
+    }
+
+    /**
+     * 从 redis 全量加载黑名单
+     */
+    private void resync() {
+        try {
+            redisService.scan(Constant.JWT_ACCESS_TOKEN_BLACKLIST + "*", SCAN_COUNT,
+                    key -> accessFilter.put(key.substring(Constant.JWT_ACCESS_TOKEN_BLACKLIST.length())));
+            redisService.scan(Constant.JWT_REFRESH_TOKEN_BLACKLIST + "*", SCAN_COUNT,
+                    key -> sessionFilter.put(key.substring(Constant.JWT_REFRESH_TOKEN_BLACKLIST.length())));
+            redisService.scan(Constant.JWT_TOKEN_FAMILY_BLACKLIST + "*", SCAN_COUNT,
+                    key -> sessionFilter.put(key.substring(Constant.JWT_TOKEN_FAMILY_BLACKLIST.length())));
+            ready = true;
+        } catch (Exception e) {
+            log.error("resync token blacklist error", e);
+        }
+    }
+
+    /**
+     * 带监控指标的布隆过滤器
+     */
+    private class TrackedFilter {
+        private final RotatingBloomFilter filter;
+        private final Counter negative;
+        private final Counter confirmed;
+        private final Counter falsePositive;
+
+        private TrackedFilter(String type, long generationMillis) {
+            this.filter = new RotatingBloomFilter(generationMillis,
+                    authCacheSettings.getBlacklistExpectedInsertions(), authCacheSettings.getBlacklistFpp());
+            this.negative = Counter.builder("auth.token.blacklist.bloom.lookups")
+                    .tag("type", type).tag("result", "negative").register(meterRegistry);
+            this.confirmed = Counter.builder("auth.token.blacklist.bloom.lookups")
+                    .tag("type", type).tag("result", "confirmed").register(meterRegistry);
+            this.falsePositive = Counter.builder("auth.token.blacklist.bloom.lookups")
+                    .tag("type", type).tag("result", "false_positive").register(meterRegistry);
+            //实际误判率 = 误判次数 / 不在黑名单里的查询次数
+            Gauge.builder("auth.token.blacklist.bloom.false.positive.rate", this, tracked -> {
+                double falsePositiveCount = tracked.falsePositive.count();
+                double total = falsePositiveCount + tracked.negative.count();
+                return total == 0 ? 0 : falsePositiveCount / total;
+            }).tag("type", type).register(meterRegistry);
+            Gauge.builder("auth.token.blacklist.bloom.expected.fpp", filter, RotatingBloomFilter::expectedFpp)
+                    .tag("type", type).register(meterRegistry);
+            Gauge.builder("auth.token.blacklist.bloom.memory", filter, RotatingBloomFilter::memoryBytes)
+                    .tag("type", type).baseUnit("bytes").register(meterRegistry);
+        }
+
+        private boolean mightContain(String id) {
+            boolean maybe = filter.mightContain(id);
+            if (!maybe) {
+                negative.increment();
+            }
+            return maybe;
+        }
+
+        private void record(boolean blacklisted) {
+            if (blacklisted) {
+                confirmed.increment();
+            } else {
+                falsePositive.increment();
+            }
+        }
+
+        private void put(String id) {
+            filter.put(id);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.yingxue.lesson.shiro;
+
+/**
+ * 用户认证状态快照
+ * 锁定、删除、授权版本号、所有会话吊销时间这几个数据很少变化，缓存在本地，变化时通过失效广播清除
+ */
+public class UserAuthState {
+    private final boolean locked;
+    private final boolean deleted;
+    /**
+     * 用户当前的授权版本号，0 表示角色/权限从来没有修改过
+     */
+    private final long authzEpoch;
+    /**
+     * 所有会话吊销时间戳(毫秒)，在这之前签发的 token 全部失效，0 表示没有吊销过
+     */
+    private final long revokedBefore;
+    /**
+     * 加载时间
+     */
+    private final long loadedAt;
+
+    public UserAuthState(boolean locked, boolean deleted, long authzEpoch, long revokedBefore, long loadedAt) {
+        this.locked = locked;
+        this.deleted = deleted;
+        this.authzEpoch = authzEpoch;
+        this.revokedBefore = revokedBefore;
+        this.loadedAt = loadedAt;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public long getAuthzEpoch() {
+        return authzEpoch;
+    }
+
+    public long getRevokedBefore() {
+        return revokedBefore;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * token 里的授权版本号比当前的小，说明签发之后角色/权限修改过，需要刷新
+     */
+    public boolean isRefreshRequired(long tokenAuthzEpoch) {
+        return tokenAuthzEpoch < authzEpoch;
+    }
+
+    /**
+     * 这个 token 是否在所有会话吊销之前签发的
+     */
+    public boolean isRevoked(long tokenIssuedAt) {
+        return tokenIssuedAt < revokedBefore;
+    }
+}
@@ -0,0 +1,56 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.NearCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+
+/**
+ * 用户认证状态本地缓存(near-cache)
+ * 有界的分段 LRU，超过 userStateMaxSize 淘汰最久没访问的用户
+ * 失效：写操作通过 AuthInvalidationBus 广播，各节点毫秒级清除；兜底：超过 userStateTtl 的数据视为过期，重新去 redis 加载
+ */
+@Component
+public class UserAuthStateCache implements AuthInvalidationListener {
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+
+    private NearCache<String, UserAuthState> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = new NearCache<>(authCacheSettings.getUserStateMaxSize(), authCacheSettings.getUserStateTtl());
+        authInvalidationBus.addListener(this);
+    }
+
+    /**
+     * 获取用户认证状态，不存在或者超过兜底过期时间返回 null
+     */
+    public UserAuthState get(String userId) {
+        return cache.get(userId);
+    }
+
+    /**
+     * 加载前获取当前的失效序号
+     */
+    public long currentSequence() {
+        return cache.currentSequence();
+    }
+
+    /**
+     * 放入缓存，加载期间发生过失效则丢弃
+     */
+    public void put(String userId, UserAuthState state, long sequence) {
+        cache.put(userId, state, sequence);
+    }
+
+    @Override
+    public void onInvalidate(Collection<String> userIds) {
+        cache.invalidate(userIds);
+    }
+}
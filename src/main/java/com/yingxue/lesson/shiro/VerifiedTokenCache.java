@@ -0,0 +1,200 @@
+package com.yingxue.lesson.shiro;
+
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.VerifiedToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 已校验 token 的本地缓存
+ * 同一个 access_token 在两个小时里会带过来成千上万次，命中缓存就不用再做 base64 解码、JSON 解析和 HMAC 校验
+ * key 是 token 的签名段(本身就是整个 token 的摘要)，命中后还会比较完整的 token，防止签名段相同的伪造 token
+ * 分段加锁的 LRU，按条数和总重量(token 长度估算)两个维度限制内存；token 过期的条目取的时候直接淘汰
+ * 用户的吊销状态变化(锁定、删除、角色权限修改、吊销所有会话)通过 AuthInvalidationBus 清除该用户的所有条目
+ */
+@Component
+public class VerifiedTokenCache implements AuthInvalidationListener {
+    private static final int SEGMENT_COUNT = 16;
+
+    @Autowired
+    private AuthCacheSettings authCacheSettings;
+    @Autowired
+    private AuthInvalidationBus authInvalidationBus;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Segment[] segments;
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        int maxSize = Math.max(1, authCacheSettings.getTokenCacheMaxSize() / SEGMENT_COUNT);
+        long maxWeight = Math.max(1, authCacheSettings.getTokenCacheMaxWeight() / SEGMENT_COUNT);
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(maxSize, maxWeight);
+        }
+        hits = Counter.builder("auth.token.cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("auth.token.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("auth.token.cache.hit.rate", this, cache -> {
+            double total = cache.hits.count() + cache.misses.count();
+            return total == 0 ? 0 : cache.hits.count() / total;
+        }).register(meterRegistry);
+        Gauge.builder("auth.token.cache.size", this, VerifiedTokenCache::size).register(meterRegistry);
+        Gauge.builder("auth.token.cache.weight", this, VerifiedTokenCache::weight).baseUnit("bytes").register(meterRegistry);
+        authInvalidationBus.addListener(this);
+        JwtTokenUtil.setVerifiedTokenCache(this);
+    }
+
+    /**
+     * 获取已校验的 token，不存在或者已过期返回 null
+     */
+    public VerifiedToken get(String token) {
+        String key = digest(token);
+        VerifiedToken verifiedToken = segmentFor(key).get(key, token);
+        if (verifiedToken == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return verifiedToken;
+    }
+
+    /**
+     * 放入缓存，只有签名校验通过并且没过期的 token 才能放进来
+     */
+    public void put(VerifiedToken verifiedToken) {
+        String key = digest(verifiedToken.getToken());
+        segmentFor(key).put(key, verifiedToken);
+    }
+
+    @Override
+    public void onInvalidate(Collection<String> userIds) {
+        Set<String> ids = new HashSet<>(userIds);
+        for (Segment segment : segments) {
+            segment.removeUsers(ids);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    /**
+     * token 的签名段
+     */
+    private String digest(String token) {
+        int lastDot = token.lastIndexOf('.');
+        return lastDot < 0 ? token : token.substring(lastDot + 1);
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * 条目重量：token 本身加上解析出来的载荷，按 token 长度的 4 倍估算(字节)
+     */
+    private static long weigh(VerifiedToken verifiedToken) {
+        return verifiedToken.getToken().length() * 4L;
+    }
+
+    private static class Segment {
+        private final long maxWeight;
+        private final LinkedHashMap<String, VerifiedToken> map;
+        private long weight;
+
+        private Segment(final int maxSize, long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.map = new LinkedHashMap<String, VerifiedToken>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                    if (size() > maxSize) {
+                        weight -= weigh(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized VerifiedToken get(String key, String token) {
+            VerifiedToken verifiedToken = map.get(key);
+            if (verifiedToken == null) {
+                return null;
+            }
+            if (!verifiedToken.getToken().equals(token)) {
+                return null;
+            }
+            if (verifiedToken.isExpired()) {
+                remove(key);
+                return null;
+            }
+            return verifiedToken;
+        }
+
+        private synchronized void put(String key, VerifiedToken verifiedToken) {
+            remove(key);
+            weight += weigh(verifiedToken);
+            map.put(key, verifiedToken);
+            //超过总重量，从最久没访问的开始淘汰
+            Iterator<VerifiedToken> iterator = map.values().iterator();
+            while (weight > maxWeight && iterator.hasNext()) {
+                weight -= weigh(iterator.next());
+                iterator.remove();
+            }
+        }
+
+        private synchronized void removeUsers(Set<String> userIds) {
+            Iterator<VerifiedToken> iterator = map.values().iterator();
+            while (iterator.hasNext()) {
+                VerifiedToken verifiedToken = iterator.next();
+                if (userIds.contains(verifiedToken.getUserId())) {
+                    weight -= weigh(verifiedToken);
+                    iterator.remove();
+                }
+            }
+        }
+
+        private void remove(String key) {
+            VerifiedToken removed = map.remove(key);
+            if (removed != null) {
+                weight -= weigh(removed);
+            }
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+
+        private synchronized long weight() {
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.yingxue.lesson.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 认证/授权本地缓存配置读取类
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "auth-cache")
+public class AuthCacheSettings {
+    /**
+     * 用户认证状态(锁定/删除/授权版本号)本地缓存最多缓存多少个用户
+     */
+    private int userStateMaxSize = 10000;
+    /**
+     * 用户认证状态本地缓存的最长有效时间
+     * 正常情况下靠 redis 发布订阅的失效消息来清除，这个时间是兜底，防止消息丢失导致锁定的用户一直可以访问
+     */
+    private Duration userStateTtl = Duration.ofSeconds(30);
+    /**
+     * token 黑名单布隆过滤器每一代预计放入的 token 数量
+     */
+    private long blacklistExpectedInsertions = 100000;
+    /**
+     * token 黑名单布隆过滤器期望的误判率
+     */
+    private double blacklistFpp = 0.01;
+    /**
+     * token 黑名单布隆过滤器从 redis 全量同步的间隔，防止发布订阅消息丢失
+     */
+    private Duration blacklistResyncInterval = Duration.ofMinutes(5);
+    /**
+     * 已校验 token 本地缓存最多缓存多少个 token
+     */
+    private int tokenCacheMaxSize = 10000;
+    /**
+     * 已校验 token 本地缓存最多占用多少内存(字节，按 token 长度估算)
+     */
+    private long tokenCacheMaxWeight = 32 * 1024 * 1024;
+    /**
+     * 授权信息一级缓存(堆内)最多缓存多少个用户
+     */
+    private int authorizationMaxSize = 10000;
+    /**
+     * 授权信息一级缓存的最长有效时间，正常靠失效广播清除，这个时间是兜底
+     */
+    private Duration authorizationTtl = Duration.ofSeconds(30);
+    /**
+     * 角色集合授权快照一级缓存最多缓存多少个角色集合，角色集合相同的用户共用一份
+     */
+    private int roleSetMaxSize = 1000;
+    /**
+     * 批量会话失效每批的用户数，一批用一次管道发送
+     */
+    private int invalidationBatchSize = 500;
+    /**
+     * 影响的用户数超过这个值的按后台任务处理，每写完一批记录一次进度，通过任务进度接口查询
+     */
+    private int invalidationAsyncThreshold = 2000;
+    /**
+     * 批量会话失效任务进度保留多久
+     */
+    private Duration invalidationTaskTtl = Duration.ofHours(1);
+    /**
+     * 失效事件发件箱每批最多合并多少个事件
+     */
+    private int outboxBatchSize = 100;
+    /**
+     * 发件箱表的扫描间隔，事务提交后会立即唤醒发布线程，定时扫描负责其它节点宕机留下的事件和失败重试
+     */
+    private Duration outboxPollInterval = Duration.ofSeconds(5);
+    /**
+     * 失效事件发布失败后的重试间隔，第 n 次失败后等 n 倍
+     */
+    private Duration outboxRetryInterval = Duration.ofSeconds(30);
+    /**
+     * 失效事件最多尝试发布几次，超过的留在表里不再重试
+     */
+    private int outboxMaxAttempts = 10;
+    /**
+     * 角色集合授权快照、用户角色集合指纹在 redis 里的过期时间，失效消息全部丢失时最多用这么久的旧授权
+     */
+    private Duration roleSetSnapshotTtl = Duration.ofHours(1);
+    /**
+     * 检查授权索引(角色下的用户、拥有菜单权限的角色)是否可用的间隔，不可用就从数据库重建
+     */
+    private Duration authzIndexCheckInterval = Duration.ofMinutes(1);
+    /**
+     * 菜单权限树没有收到变化广播时多久重新加载一次，只是广播丢失时的兜底，内容没变的话版本号不变
+     */
+    private Duration permissionTreeReloadInterval = Duration.ofMinutes(10);
+}
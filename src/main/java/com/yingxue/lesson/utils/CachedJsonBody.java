@@ -0,0 +1,23 @@
+package com.yingxue.lesson.utils;
+
+/**
+ * 序列化好的 JSON 响应体和它的 ETag
+ * 内容不变时 ETag 不变，客户端带着 If-None-Match 来可以直接返回 304
+ */
+public final class CachedJsonBody {
+    private final byte[] body;
+    private final String etag;
+
+    public CachedJsonBody(byte[] body, String etag) {
+        this.body = body;
+        this.etag = etag;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -0,0 +1,26 @@
+package com.yingxue.lesson.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 部门层级(闭包表)、部门字典配置读取类
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "dept-hierarchy")
+public class DeptHierarchySettings {
+    /**
+     * 检查闭包表和部门数据是否一致的间隔，启动时先检查一次
+     * 滚动发布时还没升级的节点新增、移动部门不会维护闭包表，靠这个检查发现并重建
+     */
+    private Duration checkInterval = Duration.ofMinutes(5);
+    /**
+     * 部门字典没有收到变化广播时多久重新加载一次，只是广播丢失时的兜底
+     * 部门名称只用于展示，比菜单权限树的兜底间隔长
+     */
+    private Duration dictionaryReloadInterval = Duration.ofMinutes(30);
+}
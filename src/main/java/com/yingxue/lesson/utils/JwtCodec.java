@@ -0,0 +1,132 @@
+package com.yingxue.lesson.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HS256 的 jwt 编解码器
+ * 由 JwtTokenUtil 在启动时按 TokenSettings 初始化一次：密钥只 base64 解码一次，每个线程复用一个 Mac，
+ * 签名校验直接算 HMAC 比较，不再每次 new 一个 Jwts.parser() 走 jjwt 通用的反射解析流程
+ * 签发出来的 token 格式和 jjwt 完全一致，新老 token 可以互相解析
+ */
+public class JwtCodec {
+    private static final String ALGORITHM = "HmacSHA256";
+    /**
+     * jjwt 签发 HS256 时的头部 {"alg":"HS256"}
+     */
+    private static final String HEADER = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("{\"alg\":\"HS256\"}".getBytes(StandardCharsets.UTF_8));
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final String secretKey;
+    private final SecretKeySpec signingKey;
+    private final ThreadLocal<Mac> macHolder;
+
+    public JwtCodec(String secretKey) {
+        this.secretKey = secretKey;
+        //和 jjwt 一样，密钥按 base64 解码后作为 HMAC 的密钥
+        this.signingKey = new SecretKeySpec(DatatypeConverter.parseBase64Binary(secretKey), ALGORITHM);
+        this.macHolder = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public String getSecretKey() {
+        return secretKey;
+    }
+
+    /**
+     * 签发 token
+     * issuedAt/expiration 为毫秒时间戳，写入载荷时和 jjwt 一样转为秒；expiration 小于 0 表示不过期
+     */
+    public String sign(String issuer, String subject, Map<String, Object> claims, String tokenId, long issuedAt, long expiration) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        if (claims != null) {
+            payload.putAll(claims);
+        }
+        if (subject != null && !subject.isEmpty()) {
+            payload.put(Claims.SUBJECT, subject);
+        }
+        if (issuer != null && !issuer.isEmpty()) {
+            payload.put(Claims.ISSUER, issuer);
+        }
+        payload.put(Claims.ID, tokenId);
+        payload.put(Claims.ISSUED_AT, issuedAt / 1000);
+        if (expiration >= 0) {
+            payload.put(Claims.EXPIRATION, expiration / 1000);
+        } else {
+            payload.remove(Claims.EXPIRATION);
+        }
+        String content = HEADER + "." + ENCODER.encodeToString(JSON.toJSONBytes(payload));
+        byte[] signature = macHolder.get().doFinal(content.getBytes(StandardCharsets.US_ASCII));
+        return content + "." + ENCODER.encodeToString(signature);
+    }
+
+    /**
+     * 校验签名并解析载荷
+     * 签名不对、格式不对、已过期都返回 null
+     */
+    public Claims verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int firstDot = token.indexOf('.');
+        int lastDot = token.lastIndexOf('.');
+        if (firstDot <= 0 || lastDot == firstDot || lastDot == token.length() - 1) {
+            return null;
+        }
+        try {
+            //jjwt 和本类签发的头部都是固定的 {"alg":"HS256"}，不是这个头部的直接拒绝，
+            //签名校验之前不解析任何来自请求的 JSON(alg:none、伪造的头部都在这里挡掉)
+            if (!HEADER.equals(token.substring(0, firstDot))) {
+                return null;
+            }
+            byte[] expected = macHolder.get().doFinal(token.substring(0, lastDot).getBytes(StandardCharsets.US_ASCII));
+            byte[] actual = DECODER.decode(token.substring(lastDot + 1));
+            if (!MessageDigest.isEqual(expected, actual)) {
+                return null;
+            }
+            JSONObject payload = JSON.parseObject(new String(DECODER.decode(token.substring(firstDot + 1, lastDot)), StandardCharsets.UTF_8));
+            if (payload == null) {
+                return null;
+            }
+            Claims claims = Jwts.claims(payload);
+            long now = System.currentTimeMillis();
+            Date expiration = claims.getExpiration();
+            if (expiration != null && now > expiration.getTime()) {
+                return null;
+            }
+            Date notBefore = claims.getNotBefore();
+            if (notBefore != null && now < notBefore.getTime()) {
+                return null;
+            }
+            return claims;
+        } catch (RuntimeException e) {
+            //base64/JSON 格式不对，这个token就是无效的
+            return null;
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(signingKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("init HmacSHA256 error", e);
+        }
+    }
+}
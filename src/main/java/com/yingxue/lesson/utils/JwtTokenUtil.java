@@ -1,6 +1,7 @@
 package com.yingxue.lesson.utils;
 
 import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.shiro.VerifiedTokenCache;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
@@ -9,9 +10,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.StringUtils;
 
 import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.Base64;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 @Slf4j
 public class JwtTokenUtil {
@@ -20,55 +25,91 @@ public class JwtTokenUtil {
     private static Duration refreshTokenExpireTime;
     private static Duration refreshTokenExpireAppTime;
     private static String issuer;
+    /**
+     * 缓存了密钥的编解码器，启动时初始化一次
+     */
+    private static JwtCodec jwtCodec;
+    /**
+     * 已校验 token 的本地缓存，容器启动后由 VerifiedTokenCache 注册进来
+     */
+    private static VerifiedTokenCache verifiedTokenCache;
 
     public static void setTokenSettings(TokenSettings tokenSettings){
         secretKey=tokenSettings.getSecretKey();
+        jwtCodec=new JwtCodec(secretKey);
         accessTokenExpireTime=tokenSettings.getAccessTokenExpireTime();
         refreshTokenExpireTime=tokenSettings.getRefreshTokenExpireTime();
         refreshTokenExpireAppTime=tokenSettings.getRefreshTokenExpireAppTime();
         issuer=tokenSettings.getIssuer();
     }
 
+    public static void setVerifiedTokenCache(VerifiedTokenCache cache){
+        verifiedTokenCache=cache;
+    }
+
     /**
      * 签发/生成token
      * issuer 签发人
      * subject 代表这个JWT的主体，即他的所有人，一般是用户ID
      * claims 储存在jwt里的信息(键值对)，一般是放些用户的权限/角色信息
+     * 每次签发都会生成一个新的 jti(token 唯一id)
      * ttlMillis 有效时间(毫秒)
      * secret 密钥
      */
     public static String generateToken(String issuer, String subject, Map<String, Object> claims, long ttlMillis, String secret) {
+        return generateToken(issuer, subject, claims, newTokenId(), System.currentTimeMillis(), ttlMillis, secret);
+    }
+
+    /**
+     * 按指定的 jti 和签发时间签发，载荷和密钥相同时签出来的 token 完全一样
+     */
+    private static String generateToken(String issuer, String subject, Map<String, Object> claims, String tokenId, long nowMillis, long ttlMillis, String secret) {
+        long expMillis = ttlMillis >= 0 ? nowMillis + ttlMillis : -1;
+        //签发时间另外按毫秒记一份，吊销所有会话之后同一秒内重新登录的 token 不会被误判为吊销
+        claims = claims == null ? new HashMap<>() : new HashMap<>(claims);
+        claims.put(Constant.JWT_ISSUED_AT_MILLIS_KEY, nowMillis);
+        if (jwtCodec != null && jwtCodec.getSecretKey().equals(secret)) {
+            //配置的密钥走缓存好的编解码器，不用每次解码密钥
+            return jwtCodec.sign(issuer, subject, claims, tokenId, nowMillis, expMillis);
+        }
         //加密方式
         SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.HS256;
-        //当前时间戳，并转为日期
-        long nowMillis = System.currentTimeMillis();
         Date now = new Date(nowMillis);
         //String printBase64Binary(byte[])就是将字节数组做base64编码，byte[] parseBase64Binary(String) 就是将Base64编码后的String还原成字节数组。
         byte[] signingKey = DatatypeConverter.parseBase64Binary(secret);
         //这里其实就是new一个JwtBuilder，设置jwt的body
         JwtBuilder builder = Jwts.builder();
-        //如果claims不为空，就加到JWT的载荷里面去
-        if(null!=claims){
-            builder.setClaims(claims);
-        }
+        //claims加到JWT的载荷里面去
+        builder.setClaims(claims);
         if (!StringUtils.isEmpty(subject)) {
             builder.setSubject(subject);
         }
         if (!StringUtils.isEmpty(issuer)) {
             builder.setIssuer(issuer);
         }
+        builder.setId(tokenId);
         //签发时间
         builder.setIssuedAt(now);
-        if (ttlMillis >= 0) {
-            long expMillis = nowMillis + ttlMillis;
+        if (expMillis >= 0) {
             //过期时间
-            Date exp = new Date(expMillis);
-            builder.setExpiration(exp);
+            builder.setExpiration(new Date(expMillis));
         }
         builder.signWith(signatureAlgorithm, signingKey);
         return builder.compact();
     }
 
+    /**
+     * 生成紧凑的唯一id(22个字符)
+     * 用作 jti 和 token 家族id，吊销 token 时 redis 的 key 用它而不是整个 token
+     */
+    public static String newTokenId() {
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
     // 刷新token和业务token 只是过期时间不一样
 
     /**
@@ -98,15 +139,39 @@ public class JwtTokenUtil {
      * 拿到用户及用户的角色、权限等信息
      */
     public static Claims getClaimsFromToken(String token) {
-        Claims claims;
-        try {
-            //用密钥(必字节数组)解析jwt，获取body（有效载荷）
-            claims = Jwts.parser().setSigningKey(DatatypeConverter.parseBase64Binary(secretKey)).parseClaimsJws(token).getBody();
-        } catch (Exception e) {
-            //解析不了，这个token就是无效的
-            claims = null;
+        VerifiedToken verifiedToken = parseToken(token);
+        return verifiedToken == null ? null : verifiedToken.getClaims();
+    }
+
+    /**
+     * 解析并校验令牌
+     * 签名校验通过并且没有过期返回 VerifiedToken，否则返回 null
+     * 同一个请求里只需要解析一次，后续直接用 VerifiedToken 里的数据
+     */
+    public static VerifiedToken parseToken(String token) {
+        if (token == null) {
+            return null;
+        }
+        //缓存命中直接返回，不用再做解码和签名校验
+        if (verifiedTokenCache != null) {
+            VerifiedToken cached = verifiedTokenCache.get(token);
+            if (cached != null) {
+                return cached;
+            }
         }
-        return claims;
+        //直接算 HMAC 校验签名，解析不了、签名不对、已过期都返回 null
+        Claims claims = jwtCodec.verify(token);
+        if (claims == null) {
+            return null;
+        }
+        VerifiedToken verifiedToken = new VerifiedToken(token, claims);
+        if (verifiedToken.isExpired()) {
+            return null;
+        }
+        if (verifiedTokenCache != null) {
+            verifiedTokenCache.put(verifiedToken);
+        }
+        return verifiedToken;
     }
 
     /**
@@ -160,8 +225,8 @@ public class JwtTokenUtil {
      * 校验令牌
      */
     public static Boolean validateToken(String token) {
-        Claims claimsFromToken = getClaimsFromToken(token);
-        return (null!=claimsFromToken && !isTokenExpired(token));
+        //解析一次即可，签名和过期时间一起判断
+        return null!=parseToken(token);
     }
 
     /**
@@ -170,6 +235,15 @@ public class JwtTokenUtil {
      * 如果主动刷新，claims/载荷 改变【一般是权限/角色改变的时候去主动刷新】
      */
     public static String refreshToken(String refreshToken,Map<String, Object> claims) {
+        return refreshToken(refreshToken,claims,newTokenId(),System.currentTimeMillis());
+    }
+
+    /**
+     * 按指定的 jti 和签发时间刷新token
+     * 同一个 refresh_token、同样的 claims、同样的 jti 和签发时间，得到的 access_token 完全一样，
+     * 刷新去重时 redis 里只需要记 jti 和签发时间，不用存 access_token 本身
+     */
+    public static String refreshToken(String refreshToken,Map<String, Object> claims,String tokenId,long issuedAt) {
         String refreshedToken;
         try {
             Claims parserclaims = getClaimsFromToken(refreshToken);
@@ -178,11 +252,14 @@ public class JwtTokenUtil {
              */
             if(null==claims){
                 claims=parserclaims;
+            }else if(parserclaims.get(Constant.JWT_TOKEN_FAMILY_KEY)!=null){
+                //主动刷新 新的载荷也要继承 refresh_token 的家族id
+                claims.put(Constant.JWT_TOKEN_FAMILY_KEY,parserclaims.get(Constant.JWT_TOKEN_FAMILY_KEY));
             }
             /**
              * 不为空，根据传入的claims【用户信息】，生成新的Token
              */
-            refreshedToken = generateToken(parserclaims.getIssuer(),parserclaims.getSubject(),claims,accessTokenExpireTime.toMillis(),secretKey);
+            refreshedToken = generateToken(parserclaims.getIssuer(),parserclaims.getSubject(),claims,tokenId,issuedAt,accessTokenExpireTime.toMillis(),secretKey);
         } catch (Exception e) {
             refreshedToken = null;
             log.error("error={}",e);
@@ -0,0 +1,163 @@
+package com.yingxue.lesson.utils;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 有界、带兜底过期时间、带失效序号的本地缓存(near-cache)
+ * 按 key 的哈希分成 16 段，每段各自加锁维护一个 LRU，不同用户的读写不会互相等待；每段最多 maxSize / 16 条
+ * 失效序号：加载前用 currentSequence 记下来，put 时在段锁里比较，加载期间发生过失效就不放入，避免把旧数据放回缓存
+ * 失效时先加序号再逐段删除，所以 put 要么看到新序号被丢弃，要么先放进去再被删掉
+ */
+public class NearCache<K, V> {
+    private static final int SEGMENT_COUNT = 16;
+
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Segment<K, V>[] segments;
+    private final AtomicLong invalidationSequence = new AtomicLong();
+
+    public NearCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::currentTimeMillis);
+    }
+
+    @SuppressWarnings("unchecked")
+    NearCache(int maxSize, Duration ttl, LongSupplier clock) {
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(segmentSize, ttlMillis, invalidationSequence);
+        }
+    }
+
+    /**
+     * 不存在或者超过兜底过期时间返回 null
+     */
+    public V get(K key) {
+        return segmentFor(key).get(key, clock.getAsLong());
+    }
+
+    /**
+     * 加载前获取当前的失效序号
+     */
+    public long currentSequence() {
+        return invalidationSequence.get();
+    }
+
+    /**
+     * 放入缓存，加载期间发生过失效则丢弃
+     */
+    public void put(K key, V value, long sequence) {
+        segmentFor(key).put(key, value, clock.getAsLong(), sequence, false);
+    }
+
+    /**
+     * 放入缓存，已经有一份没过期的就返回已有的，保证同一个 key 在本节点只有一份；加载期间发生过失效则不放入，返回传进来的
+     */
+    public V intern(K key, V value, long sequence) {
+        return segmentFor(key).put(key, value, clock.getAsLong(), sequence, true);
+    }
+
+    public void invalidate(K key) {
+        invalidationSequence.incrementAndGet();
+        segmentFor(key).remove(key);
+    }
+
+    public void invalidate(Collection<? extends K> keys) {
+        invalidationSequence.incrementAndGet();
+        for (K key : keys) {
+            segmentFor(key).remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        invalidationSequence.incrementAndGet();
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static class Segment<K, V> {
+        private final long ttlMillis;
+        private final AtomicLong invalidationSequence;
+        private final LinkedHashMap<K, Entry<V>> map;
+
+        private Segment(final int maxSize, long ttlMillis, AtomicLong invalidationSequence) {
+            this.ttlMillis = ttlMillis;
+            this.invalidationSequence = invalidationSequence;
+            this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        private synchronized V get(K key, long now) {
+            Entry<V> entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.loadedAt > ttlMillis) {
+                map.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        private synchronized V put(K key, V value, long now, long sequence, boolean intern) {
+            if (sequence != invalidationSequence.get()) {
+                return value;
+            }
+            if (intern) {
+                Entry<V> entry = map.get(key);
+                if (entry != null && now - entry.loadedAt <= ttlMillis) {
+                    return entry.value;
+                }
+            }
+            map.put(key, new Entry<>(value, now));
+            return value;
+        }
+
+        private synchronized void remove(K key) {
+            map.remove(key);
+        }
+
+        private synchronized void clear() {
+            map.clear();
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.yingxue.lesson.utils;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 按时间轮换的布隆过滤器
+ * 时间按 generationMillis 分代，只保留当前代和上一代两个过滤器，更早的直接丢弃
+ * 某一代里放入的元素至少能保留一个完整的 generationMillis，只要 generationMillis 不小于元素(token)的有效期，元素过期前一定查得到
+ * 各节点都按墙上时钟分代，不需要协调
+ */
+public class RotatingBloomFilter {
+    private final long generationMillis;
+    private final long expectedInsertions;
+    private final double fpp;
+    private final LongSupplier clock;
+
+    private volatile Generation current;
+    private volatile Generation previous;
+
+    public RotatingBloomFilter(long generationMillis, long expectedInsertions, double fpp) {
+        this(generationMillis, expectedInsertions, fpp, System::currentTimeMillis);
+    }
+
+    RotatingBloomFilter(long generationMillis, long expectedInsertions, double fpp, LongSupplier clock) {
+        this.generationMillis = generationMillis;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.clock = clock;
+        this.current = new Generation(generationIndex(), new BloomFilter(expectedInsertions, fpp));
+        this.previous = new Generation(current.index - 1, new BloomFilter(expectedInsertions, fpp));
+    }
+
+    public void put(String value) {
+        rotateIfNecessary();
+        current.filter.put(value);
+    }
+
+    public boolean mightContain(String value) {
+        rotateIfNecessary();
+        return current.filter.mightContain(value) || previous.filter.mightContain(value);
+    }
+
+    /**
+     * 两代过滤器一共占用的内存(字节)
+     */
+    public long memoryBytes() {
+        return current.filter.memoryBytes() + previous.filter.memoryBytes();
+    }
+
+    /**
+     * 估算的误判率，任意一代误判都算误判
+     */
+    public double expectedFpp() {
+        double currentFpp = current.filter.expectedFpp();
+        double previousFpp = previous.filter.expectedFpp();
+        return 1 - (1 - currentFpp) * (1 - previousFpp);
+    }
+
+    private long generationIndex() {
+        return clock.getAsLong() / generationMillis;
+    }
+
+    private void rotateIfNecessary() {
+        long index = generationIndex();
+        if (index == current.index) {
+            return;
+        }
+        synchronized (this) {
+            if (index == current.index) {
+                return;
+            }
+            if (index == current.index + 1) {
+                previous = current;
+            } else {
+                //中间隔了不止一代，原来的数据全部都过期了
+                previous = new Generation(index - 1, new BloomFilter(expectedInsertions, fpp));
+            }
+            current = new Generation(index, new BloomFilter(expectedInsertions, fpp));
+        }
+    }
+
+    private static class Generation {
+        private final long index;
+        private final BloomFilter filter;
+
+        private Generation(long index, BloomFilter filter) {
+            this.index = index;
+            this.filter = filter;
+        }
+    }
+}
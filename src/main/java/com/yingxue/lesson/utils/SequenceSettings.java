@@ -0,0 +1,19 @@
+package com.yingxue.lesson.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 号段序列配置读取类
+ */
+@Component
+@Data
+@ConfigurationProperties(prefix = "sequence")
+public class SequenceSettings {
+    /**
+     * 每次领多少个号，领完之前本节点直接在内存里发号，不用访问 redis
+     * 节点重启时没发完的号会浪费掉，编码会有空缺
+     */
+    private int blockSize = 1000;
+}
@@ -0,0 +1,69 @@
+package com.yingxue.lesson.utils;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * 请求级别的 token 上下文
+ * CustomAccessControlerFilter 校验通过后把 VerifiedToken 放到 request 的属性里，请求结束 request 销毁，上下文也就跟着没了，不需要手动清理
+ * 后续同一个请求里要用到 token 信息的地方(认证器、域、缓存、日志切面、controller) 都从这里取，取不到才去解析
+ */
+public class TokenContextHolder {
+    /**
+     * request 属性名
+     */
+    public static final String VERIFIED_TOKEN_ATTRIBUTE = TokenContextHolder.class.getName() + ".VERIFIED_TOKEN";
+
+    private TokenContextHolder(){}
+
+    /**
+     * 过滤器解析完 token 后放入上下文
+     */
+    public static void set(ServletRequest request, VerifiedToken verifiedToken) {
+        request.setAttribute(VERIFIED_TOKEN_ATTRIBUTE, verifiedToken);
+    }
+
+    /**
+     * 获取当前请求已校验的 token，不在请求线程里或者还没校验返回 null
+     */
+    public static VerifiedToken current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        return (VerifiedToken) attributes.getAttribute(VERIFIED_TOKEN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * 获取传入 token 的解析结果
+     * 如果就是当前请求已经校验过的 token 直接返回，否则才去解析，解析失败返回 null
+     */
+    public static VerifiedToken resolve(String token) {
+        if (token == null) {
+            return null;
+        }
+        VerifiedToken current = current();
+        if (current != null && token.equals(current.getToken())) {
+            return current;
+        }
+        return JwtTokenUtil.parseToken(token);
+    }
+
+    /**
+     * 获取当前登录用户id
+     */
+    public static String getUserId() {
+        VerifiedToken current = current();
+        return current == null ? null : current.getUserId();
+    }
+
+    /**
+     * 获取 token 里的用户id
+     */
+    public static String getUserId(String token) {
+        VerifiedToken verifiedToken = resolve(token);
+        return verifiedToken == null ? null : verifiedToken.getUserId();
+    }
+}
@@ -19,4 +19,13 @@ public class TokenSettings {
     private Duration refreshTokenExpireTime;
     private Duration refreshTokenExpireAppTime;
     private String issuer;
+    /**
+     * 同一个 refresh_token 在这个时间内重复刷新，返回同一个新的 access_token
+     * 只需要盖住一次刷新风暴里的重复请求，不要设得太长
+     */
+    private Duration refreshDedupWindow = Duration.ofSeconds(5);
+    /**
+     * 角色/权限修改后要求客户端刷新 token 时，随机延迟的最大值，让大量客户端错开刷新
+     */
+    private Duration refreshJitter = Duration.ofSeconds(3);
 }
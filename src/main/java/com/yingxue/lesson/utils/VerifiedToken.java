@@ -0,0 +1,146 @@
+package com.yingxue.lesson.utils;
+
+import com.yingxue.lesson.constants.Constant;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+import java.util.*;
+
+/**
+ * 已校验过签名的 token
+ * 一个 token 只在 CustomAccessControlerFilter 里解析一次，后续的认证器、域、缓存、日志切面、controller 都直接读取这里的数据，
+ * 不用再反复的去做 HMAC 校验和 base64/JSON 解析
+ */
+public final class VerifiedToken {
+    /**
+     * 原始 token
+     */
+    private final String token;
+    /**
+     * 解析出来的载荷，只读：同一个 VerifiedToken 会放在 VerifiedTokenCache 里被所有请求线程共用
+     */
+    private final Claims claims;
+    private final String userId;
+    private final String username;
+    /**
+     * token 唯一id(jti)
+     */
+    private final String tokenId;
+    /**
+     * token 家族id，老版本签发的 token 没有，为 null
+     */
+    private final String familyId;
+    /**
+     * 签发时用户的授权版本号，老版本签发的 token 没有，为 0
+     */
+    private final long authzEpoch;
+    /**
+     * 签发时间戳(毫秒)，老版本签发的 token 只有 iat，精确到秒
+     */
+    private final long issuedAt;
+    /**
+     * 过期时间戳(毫秒)
+     */
+    private final long expiration;
+
+    public VerifiedToken(String token, Claims claims) {
+        this.token = token;
+        this.claims = readOnly(claims);
+        this.userId = claims.getSubject();
+        this.username = (String) claims.get(Constant.JWT_USER_NAME);
+        this.tokenId = claims.getId();
+        this.familyId = (String) claims.get(Constant.JWT_TOKEN_FAMILY_KEY);
+        Object authzEpoch = claims.get(Constant.JWT_AUTHZ_EPOCH_KEY);
+        this.authzEpoch = authzEpoch instanceof Number ? ((Number) authzEpoch).longValue() : 0;
+        Object issuedAtMillis = claims.get(Constant.JWT_ISSUED_AT_MILLIS_KEY);
+        if (issuedAtMillis instanceof Number) {
+            this.issuedAt = ((Number) issuedAtMillis).longValue();
+        } else {
+            this.issuedAt = claims.getIssuedAt() == null ? 0 : claims.getIssuedAt().getTime();
+        }
+        this.expiration = claims.getExpiration() == null ? Long.MAX_VALUE : claims.getExpiration().getTime();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * 只读的载荷，修改(包括里面的列表)会抛 UnsupportedOperationException，要改先复制一份
+     */
+    public Claims getClaims() {
+        return claims;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    public String getFamilyId() {
+        return familyId;
+    }
+
+    public long getAuthzEpoch() {
+        return authzEpoch;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * 是否已过期
+     */
+    public boolean isExpired() {
+        return expiration < System.currentTimeMillis();
+    }
+
+    /**
+     * 剩余的过期时间(毫秒)
+     */
+    public long getRemainingTime() {
+        return expiration - System.currentTimeMillis();
+    }
+
+    /**
+     * 复制一份只读的载荷，jjwt 的 Claims 直接读写传进去的 map，包一层不可修改的 map 之后 put 和 setXxx 都会抛异常
+     */
+    private static Claims readOnly(Claims claims) {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : claims.entrySet()) {
+            copy.put(entry.getKey(), readOnlyValue(entry.getValue()));
+        }
+        return Jwts.claims(Collections.unmodifiableMap(copy));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readOnlyValue(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), readOnlyValue(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            for (Object item : (Collection<Object>) value) {
+                copy.add(readOnlyValue(item));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+}
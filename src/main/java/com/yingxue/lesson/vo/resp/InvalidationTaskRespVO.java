@@ -0,0 +1,38 @@
+package com.yingxue.lesson.vo.resp;
+
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * @ClassName: InvalidationTaskRespVO
+ * 批量会话失效任务进度
+ */
+@Data
+public class InvalidationTaskRespVO {
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+    public static final String TYPE_AUTHORIZATION = "authorization";
+    public static final String TYPE_DELETED = "deleted";
+
+    @ApiModelProperty(value = "任务id")
+    private String taskId;
+    @ApiModelProperty(value = "任务类型 authorization:角色/权限修改 deleted:删除用户")
+    private String type;
+    @ApiModelProperty(value = "状态 RUNNING:执行中 DONE:已完成 FAILED:失败")
+    private String status;
+    @ApiModelProperty(value = "影响的用户数")
+    private int total;
+    @ApiModelProperty(value = "已处理的用户数")
+    private int processed;
+    @ApiModelProperty(value = "是否在后台执行")
+    private boolean async;
+    @ApiModelProperty(value = "开始时间")
+    private Date startTime;
+    @ApiModelProperty(value = "结束时间")
+    private Date finishTime;
+    @ApiModelProperty(value = "失败原因")
+    private String errorMsg;
+}
@@ -0,0 +1,11 @@
+-- 部门层级闭包表：每个部门和它的每个祖先(包括自己)一行，depth 为两者相差的层数(自己为 0)
+-- 查子孙走主键(ancestor 前缀)，查祖先走 idx_descendant；移动部门只改动被移动子树的行
+-- 应用启动时和之后每隔 dept-hierarchy.check-interval 检查一次，有部门缺少自身的行或者父级关联对不上，
+-- 会按 relation_code 重建整张表(DeptHierarchyService)；滚动发布时还没升级的节点新增/移动部门不会维护这张表，由定时检查修复
+CREATE TABLE IF NOT EXISTS `sys_dept_closure` (
+  `ancestor` varchar(64) NOT NULL COMMENT '祖先部门id',
+  `descendant` varchar(64) NOT NULL COMMENT '子孙部门id',
+  `depth` int(11) NOT NULL COMMENT '相差的层数，自己为0',
+  PRIMARY KEY (`ancestor`, `descendant`),
+  KEY `idx_descendant` (`descendant`, `depth`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='部门层级闭包表';
@@ -0,0 +1,14 @@
+-- 缓存失效事件发件箱：业务事务里和业务数据一起写入，提交之后由发布线程发布，发布成功再删除
+-- 节点在提交之后、发布之前宕机，事件还在表里，其它节点(或者重启后)定时扫描到会继续发布
+-- 发布失败的按 next_attempt_time 退避重试，超过最大次数的留在表里不再重试，需要人工处理
+CREATE TABLE IF NOT EXISTS `sys_invalidation_outbox` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `type` varchar(20) NOT NULL COMMENT '事件类型',
+  `task_id` varchar(64) DEFAULT NULL COMMENT '会话失效任务id',
+  `ids` longtext NOT NULL COMMENT '用户id或者角色id，逗号分隔',
+  `attempts` int(11) NOT NULL DEFAULT '0' COMMENT '已经尝试发布的次数',
+  `next_attempt_time` datetime NOT NULL COMMENT '下次可以发布的时间',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  PRIMARY KEY (`id`),
+  KEY `idx_next_attempt_time` (`next_attempt_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='缓存失效事件发件箱';
@@ -0,0 +1,8 @@
+-- 号段表：记录每个序列已经发出去的最大值
+-- 正常从 redis 领号段，领到之后把上限写到这里；redis 被清空时以这里为下限继续发，redis 不可用时直接在这里领号段
+CREATE TABLE IF NOT EXISTS `sys_sequence` (
+  `name` varchar(64) NOT NULL COMMENT '序列名称',
+  `next_value` bigint(20) NOT NULL DEFAULT '0' COMMENT '已经发出去的最大值',
+  `update_time` datetime DEFAULT NULL COMMENT '更新时间',
+  PRIMARY KEY (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='号段表';
@@ -2,18 +2,69 @@
 /*工具类，类似java静态工具类*/
 var CoreUtil = (function () {
     var coreUtil = {};
-    /*ajax请求*/
-    coreUtil.sendAjax = function (url, params, ft, method,headers, noAuthorityFt, async,contentType) {
+    /*正在刷新 token 时，其它需要刷新的请求排队等这一次刷新的结果，不重复刷新*/
+    var refreshing = false;
+    var refreshQueue = [];
+    /*刷新token 然后存入缓存，refreshAfter 是后端给的随机延迟(毫秒)，大量客户端错开刷新*/
+    /*不走 sendAjax：它只在 code==0 时回调，刷新失败时 refreshing 会一直为 true，排队的请求永远等不到结果*/
+    var refreshToken = function (retry, refreshAfter) {
+        refreshQueue.push(retry);
+        if(refreshing){
+            return;
+        }
+        refreshing = true;
+        var toLogin = function () {
+            layer.msg("凭证过期请重新登录");
+            top.window.location.href="/index/login"
+        };
+        setTimeout(function () {
+            var refreshed = false;
+            layui.jquery.ajax({
+                url: "/api/user/token",
+                cache: false,
+                type: "GET",
+                dataType: "json",
+                beforeSend: function(request) {
+                    request.setRequestHeader("authorization", CoreUtil.getData("access_token"));
+                    request.setRequestHeader("refresh_token", CoreUtil.getData("refresh_token"));
+                },
+                success: function (res) {
+                    if(res.code==0){
+                        CoreUtil.setData("access_token",res.data);
+                        refreshed = true;
+                    }
+                },
+                complete: function () {
+                    /*不管成功失败都要清空队列、结束刷新，失败的回到登录页*/
+                    var queue = refreshQueue;
+                    refreshQueue = [];
+                    refreshing = false;
+                    if(!refreshed){
+                        toLogin();
+                        return;
+                    }
+                    for (var i = 0; i < queue.length; i++) {
+                        queue[i]();
+                    }
+                }
+            });
+        }, refreshAfter > 0 ? refreshAfter : 0);
+    };
+    /*ajax请求 cache 为 true 时不加时间戳参数，浏览器可以用 ETag 协商缓存(If-None-Match)*/
+    coreUtil.sendAjax = function (url, params, ft, method,headers, noAuthorityFt, async,contentType,cache) {
+        /*记录发请求时用的 access_token*/
+        var sentToken;
         var roleSaveLoading = top.layer.msg('数据提交中，请稍候',{icon: 16,time:false,shade:0.8});
         layui.jquery.ajax({
             url: url,
-            cache: false,
+            cache: cache == undefined ? false : cache,
             async: async == undefined ? true : async,
             data: params,
             type: method == undefined ? "POST" : method,
             contentType: contentType == undefined ? 'application/json; charset=UTF-8': contentType ,
             dataType: "json",
             beforeSend: function(request) {
+                sentToken=CoreUtil.getData("access_token");
                 if(headers == undefined){
 
                 }else if(headers){
@@ -31,26 +82,16 @@ var CoreUtil = (function () {
                         layer.msg("凭证过期请重新登录")
                         top.window.location.href="/index/login"
                     }else if(res.code==4010002){//根据后端提示刷新token
-                        /*记录要重复刷新的参数*/
-                        var reUrl=url;
-                        var reParams=params;
-                        var reFt=ft;
-                        var reMethod=method;
-                        var reHeaders=headers;
-                        var reContentType=contentType;
-                        var reAsync=async;
-                        var reNoAuthorityFt=noAuthorityFt;
-                        /*刷新token  然后存入缓存*/
-                        CoreUtil.sendAjax("/api/user/token",null,function (res) {
-                            if(res.code==0){
-                                CoreUtil.setData("access_token",res.data);
-                                /*刷新成功后继续重复请求*/
-                                CoreUtil.sendAjax(reUrl,reParams,reFt,reMethod,reHeaders,reNoAuthorityFt,reContentType,reAsync);
-                            }else {
-                                layer.msg("凭证过期请重新登录");
-                                top.window.location.href="/index/login"
-                            }
-                        },"GET",true)
+                        /*刷新成功后继续重复请求 注意参数顺序 async 在 contentType 前面*/
+                        var retry=function () {
+                            CoreUtil.sendAjax(url,params,ft,method,headers,noAuthorityFt,async,contentType,cache);
+                        };
+                        if(sentToken!=CoreUtil.getData("access_token")){
+                            /*请求发出后 token 已经被别的请求刷新过了，直接用新的 token 重试*/
+                            retry();
+                        }else {
+                            refreshToken(retry,res.data&&res.data.refreshAfter);
+                        }
                     } else if(res.code==0) {
                         if(ft!=null&&ft!=undefined){
                             ft(res);
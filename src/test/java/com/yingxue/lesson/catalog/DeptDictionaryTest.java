@@ -0,0 +1,105 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysDept;
+import com.yingxue.lesson.mapper.SysDeptMapper;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.DeptHierarchySettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DeptDictionaryTest {
+    private DeptDictionary deptDictionary;
+    private SysDeptMapper sysDeptMapper;
+    private RedisService redisService;
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    private DeptHierarchySettings deptHierarchySettings;
+    /**
+     * 数据库里的部门名称，selectAll 每次都返回新的实体
+     */
+    private final Map<String, String> names = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() {
+        names.put("1", "总公司");
+        names.put("11", "研发部");
+        sysDeptMapper = mock(SysDeptMapper.class);
+        when(sysDeptMapper.selectAll()).thenAnswer(invocation -> select());
+        redisService = mock(RedisService.class);
+        redisMessageListenerContainer = mock(RedisMessageListenerContainer.class);
+        deptHierarchySettings = new DeptHierarchySettings();
+        deptDictionary = new DeptDictionary();
+        ReflectionTestUtils.setField(deptDictionary, "sysDeptMapper", sysDeptMapper);
+        ReflectionTestUtils.setField(deptDictionary, "redisService", redisService);
+        ReflectionTestUtils.setField(deptDictionary, "redisMessageListenerContainer", redisMessageListenerContainer);
+        ReflectionTestUtils.setField(deptDictionary, "deptHierarchySettings", deptHierarchySettings);
+        deptDictionary.init();
+    }
+
+    private List<SysDept> select() {
+        List<SysDept> list = new ArrayList<>();
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            SysDept sysDept = new SysDept();
+            sysDept.setId(entry.getKey());
+            sysDept.setPid(entry.getKey().length() == 1 ? DeptTree.ROOT_ID : entry.getKey().substring(0, 1));
+            sysDept.setName(entry.getValue());
+            list.add(sysDept);
+        }
+        return list;
+    }
+
+    @Test
+    public void subscribesToItsOwnChannel() {
+        verify(redisMessageListenerContainer).addMessageListener(deptDictionary, new ChannelTopic(Constant.DEPT_DICTIONARY_INVALIDATION_CHANNEL));
+    }
+
+    @Test
+    public void usesItsOwnReloadInterval() throws InterruptedException {
+        DeptTree first = deptDictionary.current();
+        assertSame(first, deptDictionary.current());
+
+        deptHierarchySettings.setDictionaryReloadInterval(Duration.ZERO);
+        Thread.sleep(5);
+        DeptTree second = deptDictionary.current();
+
+        verify(sysDeptMapper, times(2)).selectAll();
+        //兜底重新加载内容没变，版本号不变
+        assertEquals(first.getVersion(), second.getVersion());
+    }
+
+    @Test
+    public void renamedDeptBumpsVersion() {
+        DeptTree first = deptDictionary.current();
+
+        names.put("11", "产品研发部");
+        deptDictionary.changed();
+        DeptTree second = deptDictionary.current();
+
+        verify(redisService).convertAndSend(eq(Constant.DEPT_DICTIONARY_INVALIDATION_CHANNEL), any());
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals("产品研发部", second.getName("11"));
+    }
+
+    @Test
+    public void identicalBroadcastKeepsVersion() {
+        DeptTree first = deptDictionary.current();
+
+        deptDictionary.onMessage(null, null);
+        DeptTree second = deptDictionary.current();
+
+        assertNotSame(first, second);
+        assertEquals(first.getVersion(), second.getVersion());
+        //换了版本号的对象和原来的内容一样
+        assertEquals("总公司", second.get("11").getPidName());
+    }
+}
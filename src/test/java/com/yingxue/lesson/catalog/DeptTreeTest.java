@@ -0,0 +1,86 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.entity.SysDept;
+import com.yingxue.lesson.vo.resp.DeptRespNodeVO;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeptTreeTest {
+    /**
+     * 总公司
+     *   ├ 研发部 ─ 后端组
+     *   └ 市场部
+     * 分公司
+     */
+    private final List<SysDept> depts = Arrays.asList(
+            dept("1", "0", "总公司"),
+            dept("2", "0", "分公司"),
+            dept("11", "1", "研发部"),
+            dept("12", "1", "市场部"),
+            dept("111", "11", "后端组"));
+
+    @Test
+    public void namesAndParents() {
+        DeptTree tree = new DeptTree(5, depts);
+        assertEquals(5, tree.getVersion());
+        assertEquals("研发部", tree.getName("11"));
+        assertEquals("11", tree.getPid("111"));
+        assertEquals("总公司", tree.get("11").getPidName());
+        assertNull(tree.get("1").getPidName());
+        assertNull(tree.getName("404"));
+        assertNull(tree.getPid("404"));
+        assertNull(tree.get(null));
+    }
+
+    @Test
+    public void wholeTree() {
+        List<DeptRespNodeVO> roots = new DeptTree(1, depts).toTree(null);
+        assertEquals(Arrays.asList("1", "2"), ids(roots));
+        assertEquals(Arrays.asList("11", "12"), ids(children(roots.get(0))));
+        assertEquals(Collections.singletonList("111"), ids(children(children(roots.get(0)).get(0))));
+        assertTrue(children(roots.get(1)).isEmpty());
+        assertEquals("总公司", roots.get(0).getTitle());
+    }
+
+    @Test
+    public void excludeSubtree() {
+        //选择上级部门时排除自己和子孙
+        List<DeptRespNodeVO> roots = new DeptTree(1, depts).toTree("11");
+        assertEquals(Arrays.asList("1", "2"), ids(roots));
+        assertEquals(Collections.singletonList("12"), ids(children(roots.get(0))));
+    }
+
+    @Test
+    public void emptyTree() {
+        DeptTree tree = new DeptTree(1, new ArrayList<>());
+        assertTrue(tree.getAll().isEmpty());
+        assertTrue(tree.toTree(null).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<DeptRespNodeVO> children(DeptRespNodeVO node) {
+        return (List<DeptRespNodeVO>) node.getChildren();
+    }
+
+    private static List<String> ids(List<DeptRespNodeVO> nodes) {
+        List<String> ids = new ArrayList<>();
+        for (DeptRespNodeVO node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    private static SysDept dept(String id, String pid, String name) {
+        SysDept sysDept = new SysDept();
+        sysDept.setId(id);
+        sysDept.setPid(pid);
+        sysDept.setName(name);
+        return sysDept;
+    }
+}
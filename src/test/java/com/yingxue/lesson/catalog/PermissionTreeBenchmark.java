@@ -0,0 +1,152 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 5000 个菜单权限组装树的开销：20 个目录，每个目录 10 个菜单，每个菜单 24 个按钮，一共 5020 个
+ * legacy*：改造前 PermissionServiceImpl 的 getTree/getChild/getChildExBtn，每个节点扫描一遍全部数据找子集(O(n²))，反射拷贝属性
+ * catalog*：PermissionTree 按邻接表组装，每个节点只访问一次
+ * build：菜单权限变化后重新建 PermissionTree(建索引、邻接表、填父级名称)的开销，不含查库
+ * 改造前列表接口每行还要查一次父级(N+1)，那部分是数据库往返，这里不测
+ * 运行：mvn test-compile 之后在 IDE 里运行 main
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermissionTreeBenchmark {
+    private static final int DIRECTORY = 1;
+    private static final int MENU = 2;
+    private static final int BUTTON = 3;
+
+    private List<SysPermission> all;
+    private PermissionTree tree;
+
+    @Setup
+    public void setUp() {
+        all = new ArrayList<>();
+        for (int d = 0; d < 20; d++) {
+            String directoryId = "d" + d;
+            all.add(permission(directoryId, PermissionTree.ROOT_ID, DIRECTORY));
+            for (int m = 0; m < 10; m++) {
+                String menuId = directoryId + "m" + m;
+                all.add(permission(menuId, directoryId, MENU));
+                for (int b = 0; b < 24; b++) {
+                    all.add(permission(menuId + "b" + b, menuId, BUTTON));
+                }
+            }
+        }
+        tree = new PermissionTree(1, all);
+    }
+
+    /**
+     * /permission/tree/all
+     */
+    @Benchmark
+    public List<PermissionRespNodeVO> legacyTreeWithButtons() {
+        return legacyTree(all, false);
+    }
+
+    @Benchmark
+    public List<PermissionRespNodeVO> catalogTreeWithButtons() {
+        return tree.toTree(true);
+    }
+
+    /**
+     * /permission/tree、/home
+     */
+    @Benchmark
+    public List<PermissionRespNodeVO> legacyTreeWithoutButtons() {
+        return legacyTree(all, true);
+    }
+
+    @Benchmark
+    public List<PermissionRespNodeVO> catalogTreeWithoutButtons() {
+        return tree.toTree(false);
+    }
+
+    @Benchmark
+    public PermissionTree build() {
+        return new PermissionTree(2, all);
+    }
+
+    /**
+     * 改造前的 getTree，type=true 只到菜单，type=false 到按钮
+     */
+    private static List<PermissionRespNodeVO> legacyTree(List<SysPermission> all, boolean type) {
+        List<PermissionRespNodeVO> list = new ArrayList<>();
+        for (SysPermission sysPermission : all) {
+            if (sysPermission.getPid().equals("0")) {
+                PermissionRespNodeVO respNodeVO = new PermissionRespNodeVO();
+                BeanUtils.copyProperties(sysPermission, respNodeVO);
+                respNodeVO.setTitle(sysPermission.getName());
+                if (type) {
+                    respNodeVO.setChildren(legacyChildExBtn(sysPermission.getId(), all));
+                } else {
+                    respNodeVO.setChildren(legacyChild(sysPermission.getId(), all));
+                }
+                list.add(respNodeVO);
+            }
+        }
+        return list;
+    }
+
+    private static List<PermissionRespNodeVO> legacyChild(String id, List<SysPermission> all) {
+        List<PermissionRespNodeVO> list = new ArrayList<>();
+        for (SysPermission s : all) {
+            if (s.getPid().equals(id)) {
+                PermissionRespNodeVO respNodeVO = new PermissionRespNodeVO();
+                BeanUtils.copyProperties(s, respNodeVO);
+                respNodeVO.setTitle(s.getName());
+                respNodeVO.setChildren(legacyChild(s.getId(), all));
+                list.add(respNodeVO);
+            }
+        }
+        return list;
+    }
+
+    private static List<PermissionRespNodeVO> legacyChildExBtn(String id, List<SysPermission> all) {
+        List<PermissionRespNodeVO> list = new ArrayList<>();
+        for (SysPermission s : all) {
+            if (s.getPid().equals(id) && s.getType() != 3) {
+                PermissionRespNodeVO respNodeVO = new PermissionRespNodeVO();
+                BeanUtils.copyProperties(s, respNodeVO);
+                respNodeVO.setTitle(s.getName());
+                respNodeVO.setChildren(legacyChildExBtn(s.getId(), all));
+                list.add(respNodeVO);
+            }
+        }
+        return list;
+    }
+
+    private static SysPermission permission(String id, String pid, int type) {
+        SysPermission sysPermission = new SysPermission();
+        sysPermission.setId(id);
+        sysPermission.setPid(pid);
+        sysPermission.setName("菜单" + id);
+        sysPermission.setType(type);
+        sysPermission.setUrl("/menu/" + id);
+        sysPermission.setPerms("sys:" + id);
+        return sysPermission;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PermissionTreeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
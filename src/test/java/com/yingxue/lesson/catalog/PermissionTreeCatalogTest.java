@@ -0,0 +1,152 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.mapper.SysPermissionMapper;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PermissionTreeCatalogTest {
+    private PermissionTreeCatalog permissionTreeCatalog;
+    private SysPermissionMapper sysPermissionMapper;
+    private RedisService redisService;
+    private AuthCacheSettings authCacheSettings;
+    /**
+     * 数据库里的菜单权限名称，selectAll 每次都返回新的实体，和 mybatis 一样
+     */
+    private final Map<String, String> names = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() {
+        names.put("1", "组织管理");
+        names.put("11", "用户管理");
+        sysPermissionMapper = mock(SysPermissionMapper.class);
+        when(sysPermissionMapper.selectAll()).thenAnswer(invocation -> select());
+        redisService = mock(RedisService.class);
+        authCacheSettings = new AuthCacheSettings();
+        permissionTreeCatalog = new PermissionTreeCatalog();
+        ReflectionTestUtils.setField(permissionTreeCatalog, "sysPermissionMapper", sysPermissionMapper);
+        ReflectionTestUtils.setField(permissionTreeCatalog, "redisService", redisService);
+        ReflectionTestUtils.setField(permissionTreeCatalog, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(permissionTreeCatalog, "authCacheSettings", authCacheSettings);
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private List<SysPermission> select() {
+        List<SysPermission> list = new ArrayList<>();
+        for (Map.Entry<String, String> entry : names.entrySet()) {
+            SysPermission sysPermission = new SysPermission();
+            sysPermission.setId(entry.getKey());
+            sysPermission.setPid(entry.getKey().length() == 1 ? PermissionTree.ROOT_ID : entry.getKey().substring(0, 1));
+            sysPermission.setName(entry.getValue());
+            sysPermission.setType(entry.getKey().length());
+            list.add(sysPermission);
+        }
+        return list;
+    }
+
+    @Test
+    public void loadOnceWithinReloadInterval() {
+        PermissionTree tree = permissionTreeCatalog.current();
+        assertSame(tree, permissionTreeCatalog.current());
+        verify(sysPermissionMapper, times(1)).selectAll();
+    }
+
+    @Test
+    public void identicalReloadKeepsVersion() {
+        PermissionTree first = permissionTreeCatalog.current();
+
+        //广播了但是内容没变(比如保存时什么都没改)
+        permissionTreeCatalog.onMessage(null, null);
+        PermissionTree second = permissionTreeCatalog.current();
+
+        verify(sysPermissionMapper, times(2)).selectAll();
+        assertNotSame(first, second);
+        //版本号不变，按版本号缓存的导航菜单不用重新生成
+        assertEquals(first.getVersion(), second.getVersion());
+    }
+
+    @Test
+    public void backstopReloadKeepsVersionWhenUnchanged() throws InterruptedException {
+        PermissionTree first = permissionTreeCatalog.current();
+        authCacheSettings.setPermissionTreeReloadInterval(Duration.ZERO);
+        Thread.sleep(5);
+
+        PermissionTree second = permissionTreeCatalog.current();
+
+        verify(sysPermissionMapper, times(2)).selectAll();
+        assertEquals(first.getVersion(), second.getVersion());
+        assertTrue(second.getLoadedAt() > first.getLoadedAt());
+    }
+
+    @Test
+    public void changedContentBumpsVersion() {
+        PermissionTree first = permissionTreeCatalog.current();
+
+        names.put("11", "成员管理");
+        permissionTreeCatalog.onMessage(null, null);
+        PermissionTree second = permissionTreeCatalog.current();
+
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals("成员管理", second.get("11").getName());
+
+        //改回去也是新的内容，版本号接着往上加，不会和以前的版本重复
+        names.put("11", "用户管理");
+        permissionTreeCatalog.onMessage(null, null);
+        assertTrue(permissionTreeCatalog.current().getVersion() > second.getVersion());
+    }
+
+    @Test
+    public void invalidationDuringLoadIsNotCached() {
+        when(sysPermissionMapper.selectAll()).thenAnswer(invocation -> {
+            List<SysPermission> list = select();
+            //查出来之后、放进缓存之前别的节点改了菜单权限
+            names.put("11", "成员管理");
+            permissionTreeCatalog.onMessage(null, null);
+            return list;
+        }).thenAnswer(invocation -> select());
+
+        assertEquals("用户管理", permissionTreeCatalog.current().get("11").getName());
+        //加载期间失效了，这次的结果不缓存，下次重新加载
+        assertEquals("成员管理", permissionTreeCatalog.current().get("11").getName());
+        verify(sysPermissionMapper, times(2)).selectAll();
+    }
+
+    @Test
+    public void changedPublishesAfterCommit() {
+        PermissionTree first = permissionTreeCatalog.current();
+        TransactionSynchronizationManager.initSynchronization();
+
+        permissionTreeCatalog.changed();
+
+        //事务还没提交，其它请求看到的还是原来的树
+        verify(redisService, never()).convertAndSend(anyString(), any());
+        assertSame(first, permissionTreeCatalog.current());
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+        verify(redisService).convertAndSend(eq(Constant.PERMISSION_TREE_INVALIDATION_CHANNEL), any());
+        assertNotSame(first, permissionTreeCatalog.current());
+    }
+}
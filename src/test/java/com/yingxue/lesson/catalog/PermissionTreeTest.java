@@ -0,0 +1,111 @@
+package com.yingxue.lesson.catalog;
+
+import com.yingxue.lesson.entity.SysPermission;
+import com.yingxue.lesson.vo.resp.PermissionRespNodeVO;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PermissionTreeTest {
+    private static final int DIRECTORY = 1;
+    private static final int MENU = 2;
+    private static final int BUTTON = 3;
+
+    /**
+     * 组织管理
+     *   ├ 用户管理 ─ 新增用户(按钮)
+     *   └ 角色管理
+     * 系统管理
+     *   └ 日志管理
+     */
+    private final List<SysPermission> permissions = Arrays.asList(
+            permission("1", "0", "组织管理", DIRECTORY),
+            permission("2", "0", "系统管理", DIRECTORY),
+            permission("11", "1", "用户管理", MENU),
+            permission("12", "1", "角色管理", MENU),
+            permission("111", "11", "新增用户", BUTTON),
+            permission("21", "2", "日志管理", MENU));
+
+    @Test
+    public void indexAndParentNames() {
+        PermissionTree tree = new PermissionTree(3, permissions);
+        assertEquals(3, tree.getVersion());
+        assertEquals(6, tree.getAll().size());
+        assertEquals("用户管理", tree.get("11").getName());
+        assertNull(tree.get("404"));
+        assertEquals("组织管理", tree.get("11").getPidName());
+        assertEquals("用户管理", tree.get("111").getPidName());
+        assertNull(tree.get("1").getPidName());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void allIsReadOnly() {
+        new PermissionTree(1, permissions).getAll().clear();
+    }
+
+    @Test
+    public void treeWithButtons() {
+        List<PermissionRespNodeVO> roots = new PermissionTree(1, permissions).toTree(true);
+        assertEquals(Arrays.asList("1", "2"), ids(roots));
+        assertEquals(Arrays.asList("11", "12"), ids(children(roots.get(0))));
+        assertEquals(Collections.singletonList("111"), ids(children(children(roots.get(0)).get(0))));
+        assertEquals("组织管理", roots.get(0).getTitle());
+        assertEquals("/menu/1", roots.get(0).getUrl());
+    }
+
+    @Test
+    public void treeWithoutButtons() {
+        List<PermissionRespNodeVO> roots = new PermissionTree(1, permissions).toTree(false);
+        assertTrue(children(children(roots.get(0)).get(0)).isEmpty());
+        assertEquals(Collections.singletonList("21"), ids(children(roots.get(1))));
+    }
+
+    @Test
+    public void treeOfGrantedIds() {
+        PermissionTree tree = new PermissionTree(1, permissions);
+        //父级没有授权，子集即使授权了也不显示
+        List<PermissionRespNodeVO> roots = tree.toTree(new HashSet<>(Arrays.asList("1", "12", "111", "21")), true);
+        assertEquals(Collections.singletonList("1"), ids(roots));
+        assertEquals(Collections.singletonList("12"), ids(children(roots.get(0))));
+    }
+
+    @Test
+    public void everyCallBuildsNewNodes() {
+        PermissionTree tree = new PermissionTree(1, permissions);
+        List<PermissionRespNodeVO> first = tree.toTree(true);
+        first.get(0).setChecked(true);
+        assertFalse(tree.toTree(true).get(0).isChecked());
+    }
+
+    @Test
+    public void emptyTree() {
+        PermissionTree tree = new PermissionTree(1, new ArrayList<>());
+        assertTrue(tree.getAll().isEmpty());
+        assertTrue(tree.toTree(true).isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<PermissionRespNodeVO> children(PermissionRespNodeVO node) {
+        return (List<PermissionRespNodeVO>) node.getChildren();
+    }
+
+    private static List<String> ids(List<PermissionRespNodeVO> nodes) {
+        List<String> ids = new ArrayList<>();
+        for (PermissionRespNodeVO node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    private static SysPermission permission(String id, String pid, String name, int type) {
+        SysPermission sysPermission = new SysPermission();
+        sysPermission.setId(id);
+        sysPermission.setPid(pid);
+        sysPermission.setName(name);
+        sysPermission.setType(type);
+        sysPermission.setUrl("/menu/" + id);
+        return sysPermission;
+    }
+}
@@ -0,0 +1,212 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.entity.SysRolePermission;
+import com.yingxue.lesson.entity.SysUserRole;
+import com.yingxue.lesson.mapper.SysRolePermissionMapper;
+import com.yingxue.lesson.mapper.SysUserRoleMapper;
+import com.yingxue.lesson.service.RedisService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * redis 用内存里的 map 模拟，增量更新在重建的不同阶段插进来
+ */
+public class AuthzIndexServiceImplTest {
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private AuthzIndexServiceImpl authzIndexService;
+    private SysUserRoleMapper sysUserRoleMapper;
+    private SysRolePermissionMapper sysRolePermissionMapper;
+    private RedisConnection connection;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        RedisService redisService = mock(RedisService.class);
+        when(redisService.get(anyString())).thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(redisService).set(anyString(), any());
+        when(redisService.setifAbsen(anyString(), any(), anyLong(), any())).thenAnswer(invocation ->
+                values.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        when(redisService.delete(anyString())).thenAnswer(invocation -> values.remove(invocation.<String>getArgument(0)) != null);
+        when(redisService.hasKey(anyString())).thenAnswer(invocation -> values.containsKey(invocation.<String>getArgument(0)));
+        when(redisService.smembers(anyString())).thenAnswer(invocation -> members(invocation.getArgument(0)));
+        when(redisService.sUnion(anyCollection())).thenAnswer(invocation -> {
+            Set<Object> union = new HashSet<>();
+            for (String key : invocation.<Collection<String>>getArgument(0)) {
+                union.addAll(members(key));
+            }
+            return union;
+        });
+        doAnswer(invocation -> {
+            String prefix = invocation.<String>getArgument(0).replace("*", "");
+            List<String> keys = new ArrayList<>();
+            for (String key : sets.keySet()) {
+                if (key.startsWith(prefix)) {
+                    keys.add(key);
+                }
+            }
+            invocation.<Consumer<List<String>>>getArgument(2).accept(keys);
+            return null;
+        }).when(redisService).scanInBatches(anyString(), anyInt(), any());
+        when(redisService.unlink(anyCollection())).thenAnswer(invocation -> {
+            sets.keySet().removeAll(invocation.<Collection<String>>getArgument(0));
+            return 0L;
+        });
+
+        connection = mock(RedisConnection.class);
+        when(connection.sAdd(any(byte[].class), any())).thenAnswer(invocation -> {
+            sets.computeIfAbsent(key(invocation), k -> new HashSet<>()).addAll(rawMembers(invocation));
+            return 1L;
+        });
+        when(connection.sRem(any(byte[].class), any())).thenAnswer(invocation -> {
+            Set<String> set = sets.get(key(invocation));
+            if (set != null) {
+                set.removeAll(rawMembers(invocation));
+            }
+            return 1L;
+        });
+        when(connection.unlink(any())).thenAnswer(invocation -> {
+            sets.remove(key(invocation));
+            return 1L;
+        });
+        when(connection.incr(any(byte[].class))).thenAnswer(invocation -> {
+            long version = values.containsKey(Constant.AUTHZ_INDEX_VERSION_KEY)
+                    ? (Long) values.get(Constant.AUTHZ_INDEX_VERSION_KEY) + 1 : 1L;
+            values.put(Constant.AUTHZ_INDEX_VERSION_KEY, version);
+            return version;
+        });
+        doAnswer(invocation -> {
+            invocation.<Consumer<RedisConnection>>getArgument(0).accept(connection);
+            return null;
+        }).when(redisService).executePipelined(any());
+
+        sysUserRoleMapper = mock(SysUserRoleMapper.class);
+        sysRolePermissionMapper = mock(SysRolePermissionMapper.class);
+        when(sysUserRoleMapper.selectAllRelations()).thenReturn(Arrays.asList(userRole("user-1", "role-1"), userRole("user-2", "role-1")));
+        when(sysRolePermissionMapper.selectAllRelations()).thenReturn(Collections.singletonList(rolePermission("role-1", "perm-1")));
+
+        authzIndexService = new AuthzIndexServiceImpl();
+        ReflectionTestUtils.setField(authzIndexService, "redisService", redisService);
+        ReflectionTestUtils.setField(authzIndexService, "sysUserRoleMapper", sysUserRoleMapper);
+        ReflectionTestUtils.setField(authzIndexService, "sysRolePermissionMapper", sysRolePermissionMapper);
+    }
+
+    @Test
+    public void rebuildMarksIndexReady() {
+        assertNull(authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+
+        assertTrue(authzIndexService.rebuild());
+        assertEquals(set("user-1", "user-2"), authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+        assertEquals(set("role-1"), authzIndexService.getRoleIdsByPermissionId("perm-1"));
+        assertFalse(values.containsKey(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY));
+    }
+
+    @Test
+    public void incrementalUpdateDuringRebuildKeepsIndexUnavailable() {
+        //重建读完数据库之后、清理旧索引之前，另一个请求给 user-3 加了 role-1：
+        //重建拿到的是旧数据，而增量写入的集合马上会被清掉，这次重建的结果不能用
+        when(sysRolePermissionMapper.selectAllRelations()).thenAnswer(invocation -> {
+            authzIndexService.updateUserRoles("user-3", null, Collections.singletonList("role-1"));
+            return Collections.singletonList(rolePermission("role-1", "perm-1"));
+        });
+
+        assertFalse(authzIndexService.rebuild());
+        assertFalse(values.containsKey(Constant.AUTHZ_INDEX_READY_KEY));
+        assertNull("index must not be served after a racing rebuild", authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+        assertFalse(values.containsKey(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY));
+
+        //下次重建时数据库已经有了 user-3
+        doReturn(Collections.singletonList(rolePermission("role-1", "perm-1"))).when(sysRolePermissionMapper).selectAllRelations();
+        when(sysUserRoleMapper.selectAllRelations()).thenReturn(Arrays.asList(
+                userRole("user-1", "role-1"), userRole("user-2", "role-1"), userRole("user-3", "role-1")));
+        assertTrue(authzIndexService.rebuild());
+        assertEquals(set("user-1", "user-2", "user-3"), authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+    }
+
+    @Test
+    public void incrementalUpdatesAfterRebuildApplyInPlace() {
+        assertTrue(authzIndexService.rebuild());
+        authzIndexService.updateUserRoles("user-2", Collections.singletonList("role-1"), Collections.singletonList("role-2"));
+        authzIndexService.updateRolePermissions("role-2", null, Collections.singletonList("perm-1"));
+
+        assertEquals(set("user-1"), authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+        assertEquals(set("user-1", "user-2"), authzIndexService.getUserIdsByRoleIds(Arrays.asList("role-1", "role-2")));
+        assertEquals(set("role-1", "role-2"), authzIndexService.getRoleIdsByPermissionId("perm-1"));
+        assertEquals(2L, values.get(Constant.AUTHZ_INDEX_VERSION_KEY));
+    }
+
+    @Test
+    public void failedIncrementalUpdateMarksIndexStale() {
+        assertTrue(authzIndexService.rebuild());
+        doThrow(new IllegalStateException("redis down")).when(connection).sAdd(any(byte[].class), any());
+
+        authzIndexService.updateUserRoles("user-3", null, Collections.singletonList("role-1"));
+        assertNull(authzIndexService.getUserIdsByRoleIds(Collections.singletonList("role-1")));
+    }
+
+    @Test
+    public void concurrentRebuildIsSkipped() {
+        values.put(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY, "1");
+        assertFalse(authzIndexService.rebuild());
+        verify(sysUserRoleMapper, never()).selectAllRelations();
+        //锁是别的节点的，不能删
+        assertTrue(values.containsKey(Constant.AUTHZ_INDEX_REBUILD_LOCK_KEY));
+    }
+
+    private Set<Object> members(String key) {
+        return sets.containsKey(key) ? new HashSet<>(sets.get(key)) : Collections.emptySet();
+    }
+
+    private static String key(InvocationOnMock invocation) {
+        return new String((byte[]) invocation.getArguments()[0], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 可变参数不管有没有被展开都取出来
+     */
+    private static List<String> rawMembers(InvocationOnMock invocation) {
+        List<String> members = new ArrayList<>();
+        Object[] arguments = invocation.getArguments();
+        for (int i = 1; i < arguments.length; i++) {
+            if (arguments[i] instanceof byte[][]) {
+                for (byte[] member : (byte[][]) arguments[i]) {
+                    members.add(new String(member, StandardCharsets.UTF_8));
+                }
+            } else {
+                members.add(new String((byte[]) arguments[i], StandardCharsets.UTF_8));
+            }
+        }
+        return members;
+    }
+
+    private static Set<String> set(String... values) {
+        return new LinkedHashSet<>(Arrays.asList(values));
+    }
+
+    private static SysUserRole userRole(String userId, String roleId) {
+        SysUserRole sysUserRole = new SysUserRole();
+        sysUserRole.setUserId(userId);
+        sysUserRole.setRoleId(roleId);
+        return sysUserRole;
+    }
+
+    private static SysRolePermission rolePermission(String roleId, String permissionId) {
+        SysRolePermission sysRolePermission = new SysRolePermission();
+        sysRolePermission.setRoleId(roleId);
+        sysRolePermission.setPermissionId(permissionId);
+        return sysRolePermission;
+    }
+}
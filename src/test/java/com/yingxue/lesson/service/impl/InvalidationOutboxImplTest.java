@@ -0,0 +1,152 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.entity.SysInvalidationOutbox;
+import com.yingxue.lesson.mapper.SysInvalidationOutboxMapper;
+import com.yingxue.lesson.service.SessionInvalidationService;
+import com.yingxue.lesson.shiro.RoleSetSnapshotStore;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class InvalidationOutboxImplTest {
+    private InvalidationOutboxImpl invalidationOutbox;
+    private SysInvalidationOutboxMapper sysInvalidationOutboxMapper;
+    private SessionInvalidationService sessionInvalidationService;
+    private RoleSetSnapshotStore roleSetSnapshotStore;
+    /**
+     * 表里的事件，按 id 排序；认领推迟发布时间的效果这里不模拟，每次扫描都能查到没删的事件
+     */
+    private final Map<Long, SysInvalidationOutbox> table = new TreeMap<>();
+
+    @Before
+    public void setUp() {
+        sysInvalidationOutboxMapper = mock(SysInvalidationOutboxMapper.class);
+        sessionInvalidationService = mock(SessionInvalidationService.class);
+        roleSetSnapshotStore = mock(RoleSetSnapshotStore.class);
+        when(sysInvalidationOutboxMapper.selectDue(anyInt(), anyInt())).thenAnswer(invocation -> new ArrayList<>(table.values()));
+        when(sysInvalidationOutboxMapper.claim(anyLong(), anyInt(), anyLong())).thenAnswer(invocation -> {
+            SysInvalidationOutbox outbox = table.get(invocation.<Long>getArgument(0));
+            outbox.setAttempts(outbox.getAttempts() + 1);
+            return 1;
+        });
+        when(sysInvalidationOutboxMapper.deleteByIds(anyList())).thenAnswer(invocation -> {
+            table.keySet().removeAll(invocation.<List<Long>>getArgument(0));
+            return 1;
+        });
+
+        AuthCacheSettings authCacheSettings = new AuthCacheSettings();
+        authCacheSettings.setOutboxBatchSize(100);
+        invalidationOutbox = new InvalidationOutboxImpl();
+        ReflectionTestUtils.setField(invalidationOutbox, "sysInvalidationOutboxMapper", sysInvalidationOutboxMapper);
+        ReflectionTestUtils.setField(invalidationOutbox, "sessionInvalidationService", sessionInvalidationService);
+        ReflectionTestUtils.setField(invalidationOutbox, "roleSetSnapshotStore", roleSetSnapshotStore);
+        ReflectionTestUtils.setField(invalidationOutbox, "authCacheSettings", authCacheSettings);
+    }
+
+    private void store(long id, String type, String ids, String taskId) {
+        SysInvalidationOutbox outbox = new SysInvalidationOutbox();
+        outbox.setId(id);
+        outbox.setType(type);
+        outbox.setIds(ids);
+        outbox.setTaskId(taskId);
+        outbox.setAttempts(0);
+        table.put(id, outbox);
+    }
+
+    private void drain() {
+        ReflectionTestUtils.invokeMethod(invalidationOutbox, "drain");
+    }
+
+    @Test
+    public void roleEventsAreMergedBeforeUserEvents() {
+        store(1, "ROLES", "r1,r2", null);
+        store(2, "TOKENS", "u1", "t2");
+        store(3, "ROLES", "r2,r3", null);
+
+        drain();
+
+        //三个角色一次失效，而且在让 token 过期之前
+        InOrder inOrder = inOrder(roleSetSnapshotStore, sessionInvalidationService);
+        inOrder.verify(roleSetSnapshotStore).invalidateRoles(new LinkedHashSet<>(Arrays.asList("r1", "r2", "r3")));
+        inOrder.verify(sessionInvalidationService).invalidateTokens("t2", Collections.singletonList("u1"));
+        verify(roleSetSnapshotStore, times(1)).invalidateRoles(any());
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void failedUserEventStaysForRetry() {
+        store(1, "AUTHORIZATION", "u1,u2", "t1");
+        store(2, "DELETED", "u3", "t2");
+        when(sessionInvalidationService.invalidateAuthorization(eq("t1"), anyList()))
+                .thenThrow(new IllegalStateException("redis down"))
+                .thenReturn(null);
+
+        drain();
+
+        //失败的留在表里，成功的删掉
+        assertEquals(Collections.singleton(1L), table.keySet());
+        assertEquals(1, (int) table.get(1L).getAttempts());
+        verify(sessionInvalidationService).invalidateDeletedUsers("t2", Collections.singletonList("u3"));
+
+        //到时间后重试，同一个任务id
+        drain();
+        assertTrue(table.isEmpty());
+        verify(sessionInvalidationService, times(2)).invalidateAuthorization("t1", Arrays.asList("u1", "u2"));
+    }
+
+    @Test
+    public void nothingIsDeletedBeforeInvalidationReturns() {
+        store(1, "TOKENS", "u1", "t1");
+        when(sessionInvalidationService.invalidateTokens(anyString(), anyList())).thenAnswer(invocation -> {
+            //会话失效执行的时候事件还在表里
+            assertTrue(table.containsKey(1L));
+            return null;
+        });
+
+        drain();
+
+        InOrder inOrder = inOrder(sessionInvalidationService, sysInvalidationOutboxMapper);
+        inOrder.verify(sessionInvalidationService).invalidateTokens("t1", Collections.singletonList("u1"));
+        inOrder.verify(sysInvalidationOutboxMapper).deleteByIds(Collections.singletonList(1L));
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    public void roleFailureHoldsBackTheWholeBatch() {
+        store(1, "ROLES", "r1", null);
+        store(2, "AUTHORIZATION", "u1", "t2");
+        doThrow(new IllegalStateException("redis down")).when(roleSetSnapshotStore).invalidateRoles(any());
+
+        drain();
+
+        //快照还没失效就让 token 过期，客户端刷新之后拿到的还是旧快照，所以用户事件也不发布
+        verifyZeroInteractions(sessionInvalidationService);
+        verify(sysInvalidationOutboxMapper, never()).deleteByIds(anyList());
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void eventClaimedByAnotherNodeIsSkipped() {
+        store(1, "TOKENS", "u1", "t1");
+        store(2, "TOKENS", "u2", "t2");
+        when(sysInvalidationOutboxMapper.claim(eq(1L), anyInt(), anyLong())).thenAnswer(invocation -> {
+            //别的节点先认领并发布了
+            table.remove(1L);
+            return 0;
+        });
+
+        drain();
+
+        verify(sessionInvalidationService, never()).invalidateTokens(eq("t1"), anyList());
+        verify(sessionInvalidationService).invalidateTokens("t2", Collections.singletonList("u2"));
+        verify(sysInvalidationOutboxMapper).deleteByIds(Collections.singletonList(2L));
+    }
+}
@@ -0,0 +1,248 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.mapper.SysSequenceMapper;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.utils.SequenceSettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SequenceServiceImplTest {
+    private static final String NAME = "dept-code-key_";
+
+    private SequenceServiceImpl sequenceService;
+    private RedisService redisService;
+    private InMemorySequenceMapper sysSequenceMapper;
+    private RecordingTransactionManager transactionManager;
+    private SequenceSettings sequenceSettings;
+    private final Map<String, AtomicLong> redisValues = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        redisService = mock(RedisService.class);
+        //和 LEASE_SCRIPT 一样：当前值小于下限时从下限开始，加上号段大小
+        when(redisService.execute(any(), anyList(), any(), any())).thenAnswer(invocation -> {
+            String key = ((List<?>) invocation.getArguments()[1]).get(0).toString();
+            long blockSize = Long.parseLong((String) invocation.getArguments()[2]);
+            long floor = Long.parseLong((String) invocation.getArguments()[3]);
+            return redisValue(key).updateAndGet(current -> Math.max(current, floor) + blockSize);
+        });
+        sysSequenceMapper = new InMemorySequenceMapper();
+        transactionManager = new RecordingTransactionManager();
+        sequenceSettings = new SequenceSettings();
+        sequenceSettings.setBlockSize(3);
+        sequenceService = newSequenceService();
+    }
+
+    private SequenceServiceImpl newSequenceService() {
+        SequenceServiceImpl service = new SequenceServiceImpl();
+        ReflectionTestUtils.setField(service, "redisService", redisService);
+        ReflectionTestUtils.setField(service, "sysSequenceMapper", sysSequenceMapper);
+        ReflectionTestUtils.setField(service, "sequenceSettings", sequenceSettings);
+        ReflectionTestUtils.setField(service, "transactionManager", transactionManager);
+        service.init();
+        return service;
+    }
+
+    @Test
+    public void handOutBlocksInOrder() {
+        for (long expected = 1; expected <= 7; expected++) {
+            assertEquals(expected, sequenceService.next(NAME));
+        }
+        //领了三次号段，数据库里记录的是最后一段的上限
+        assertEquals(9L, sysSequenceMapper.committed(NAME));
+        assertEquals(3, transactionManager.commits.size());
+    }
+
+    @Test
+    public void leaseSurvivesCallerRollback() {
+        //调用方(比如新增部门)开着事务，发号后回滚
+        TransactionStatus outer = transactionManager.getTransaction(new DefaultTransactionDefinition());
+        assertEquals(1, sequenceService.next(NAME));
+        transactionManager.rollback(outer);
+
+        //领号段用的是独立的新事务并且已经提交，回滚的只是调用方的事务
+        TransactionDefinition lease = transactionManager.definitions.get(1);
+        assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, lease.getPropagationBehavior());
+        assertEquals(1, transactionManager.commits.size());
+        assertEquals(Collections.singletonList(outer), transactionManager.rollbacks);
+        assertEquals(3L, sysSequenceMapper.committed(NAME));
+
+        //redis 被清空后换个节点继续发号，从数据库里的上限往后发，不会和回滚前发出去的号重复
+        redisValue(NAME).set(0);
+        assertEquals(4, newSequenceService().next(NAME));
+    }
+
+    @Test
+    public void redisPathTakesRowLockAndUsesDatabaseFloor() {
+        sysSequenceMapper.values.put(NAME, 100L);
+        assertEquals(101, sequenceService.next(NAME));
+        assertEquals(1, sysSequenceMapper.lockedReads.get());
+        verify(redisService).execute(any(), eq(Collections.singletonList(NAME)), eq("3"), eq("100"));
+        assertEquals(103L, sysSequenceMapper.committed(NAME));
+    }
+
+    @Test
+    public void flushedRedisRestartsFromDatabaseFloor() {
+        for (long expected = 1; expected <= 3; expected++) {
+            assertEquals(expected, sequenceService.next(NAME));
+        }
+        //redis 被清空(或者主从切换丢了数据)，计数从 0 重新开始
+        redisValue(NAME).set(0);
+        //同一个节点下一次领号段，以数据库里记的 3 为下限，不会再发 1、2、3
+        assertEquals(4, sequenceService.next(NAME));
+        verify(redisService).execute(any(), eq(Collections.singletonList(NAME)), eq("3"), eq("3"));
+        assertEquals(6L, redisValue(NAME).get());
+        assertEquals(6L, sysSequenceMapper.committed(NAME));
+        assertEquals(5, sequenceService.next(NAME));
+        assertEquals(6, sequenceService.next(NAME));
+        assertEquals(7, sequenceService.next(NAME));
+    }
+
+    @Test
+    public void leaseOfOneSequenceDoesNotBlockAnother() throws Exception {
+        //第一个序列领号段时卡在数据库的行锁上
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        sysSequenceMapper.onLock = name -> {
+            if (NAME.equals(name)) {
+                locked.countDown();
+                await(release);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Long> blocked = executor.submit(() -> sequenceService.next(NAME));
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+            //别的序列照常领号段、发号
+            Future<Long> other = executor.submit(() -> sequenceService.next("role-code-key_"));
+            assertEquals(Long.valueOf(1), other.get(5, TimeUnit.SECONDS));
+            assertFalse(blocked.isDone());
+            release.countDown();
+            assertEquals(Long.valueOf(1), blocked.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private AtomicLong redisValue(String name) {
+        return redisValues.computeIfAbsent(name, k -> new AtomicLong());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void fallBackToDatabaseWhenRedisFails() {
+        doThrow(new IllegalStateException("redis down")).when(redisService).execute(any(), anyList(), any(), any());
+        sysSequenceMapper.values.put(NAME, 10L);
+        assertEquals(11, sequenceService.next(NAME));
+        assertEquals(12, sequenceService.next(NAME));
+        assertEquals(13, sequenceService.next(NAME));
+        assertEquals(14, sequenceService.next(NAME));
+        assertEquals(16L, sysSequenceMapper.committed(NAME));
+    }
+
+    @Test
+    public void concurrentCallersNeverShareNumbers() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    List<Long> values = new ArrayList<>(perThread);
+                    for (int j = 0; j < perThread; j++) {
+                        values.add(sequenceService.next(NAME));
+                    }
+                    return values;
+                }));
+            }
+            Set<Long> all = new HashSet<>();
+            for (Future<List<Long>> future : futures) {
+                all.addAll(future.get(30, TimeUnit.SECONDS));
+            }
+            assertEquals(threads * perThread, all.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 记录每次开启的事务和提交、回滚
+     */
+    private static class RecordingTransactionManager implements PlatformTransactionManager {
+        private final List<TransactionDefinition> definitions = Collections.synchronizedList(new ArrayList<>());
+        private final List<TransactionStatus> commits = Collections.synchronizedList(new ArrayList<>());
+        private final List<TransactionStatus> rollbacks = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            definitions.add(definition);
+            return new SimpleTransactionStatus(true);
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+            commits.add(status);
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+            rollbacks.add(status);
+        }
+    }
+
+    private static class InMemorySequenceMapper implements SysSequenceMapper {
+        private final Map<String, Long> values = new ConcurrentHashMap<>();
+        private final AtomicInteger lockedReads = new AtomicInteger();
+        /**
+         * 模拟行锁等待，默认不等
+         */
+        private volatile java.util.function.Consumer<String> onLock = name -> {
+        };
+
+        @Override
+        public int insertIfAbsent(String name) {
+            return values.putIfAbsent(name, 0L) == null ? 1 : 0;
+        }
+
+        @Override
+        public Long selectNextValueForUpdate(String name) {
+            lockedReads.incrementAndGet();
+            onLock.accept(name);
+            return values.get(name);
+        }
+
+        @Override
+        public int updateNextValue(String name, long nextValue) {
+            values.put(name, nextValue);
+            return 1;
+        }
+
+        private Long committed(String name) {
+            return values.get(name);
+        }
+    }
+}
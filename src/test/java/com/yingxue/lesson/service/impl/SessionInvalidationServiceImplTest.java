@@ -0,0 +1,148 @@
+package com.yingxue.lesson.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.shiro.AuthInvalidationBus;
+import com.yingxue.lesson.utils.AuthCacheSettings;
+import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.vo.resp.InvalidationTaskRespVO;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SessionInvalidationServiceImplTest {
+    private SessionInvalidationServiceImpl sessionInvalidationService;
+    private RedisService redisService;
+    private AuthInvalidationBus authInvalidationBus;
+    private AuthCacheSettings authCacheSettings;
+    private RedisConnection connection;
+    /**
+     * 每次保存的任务进度
+     */
+    private final List<InvalidationTaskRespVO> saved = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        redisService = mock(RedisService.class);
+        authInvalidationBus = mock(AuthInvalidationBus.class);
+        connection = mock(RedisConnection.class);
+        doAnswer(invocation -> {
+            invocation.<Consumer<RedisConnection>>getArgument(0).accept(connection);
+            return null;
+        }).when(redisService).executePipelined(any());
+        doAnswer(invocation -> {
+            InvalidationTaskRespVO task = JSON.parseObject(invocation.<String>getArgument(1), InvalidationTaskRespVO.class);
+            saved.add(task);
+            return null;
+        }).when(redisService).set(anyString(), any(), anyLong(), any(TimeUnit.class));
+
+        authCacheSettings = new AuthCacheSettings();
+        authCacheSettings.setInvalidationBatchSize(2);
+        authCacheSettings.setInvalidationAsyncThreshold(3);
+        sessionInvalidationService = new SessionInvalidationServiceImpl();
+        ReflectionTestUtils.setField(sessionInvalidationService, "redisService", redisService);
+        ReflectionTestUtils.setField(sessionInvalidationService, "authInvalidationBus", authInvalidationBus);
+        ReflectionTestUtils.setField(sessionInvalidationService, "authCacheSettings", authCacheSettings);
+        TokenSettings tokenSettings = new TokenSettings();
+        tokenSettings.setRefreshTokenExpireAppTime(Duration.ofDays(30));
+        ReflectionTestUtils.setField(sessionInvalidationService, "tokenSettings", tokenSettings);
+    }
+
+    @Test
+    public void atThresholdSavesOnlyTheResult() {
+        InvalidationTaskRespVO task = sessionInvalidationService.invalidateTokens("t1", Arrays.asList("1", "2", "3"));
+
+        assertFalse(task.isAsync());
+        assertEquals(InvalidationTaskRespVO.DONE, task.getStatus());
+        assertEquals(3, task.getProcessed());
+        //两批，每批一次管道、一次广播
+        verify(redisService, times(2)).executePipelined(any());
+        verify(authInvalidationBus).publish(Arrays.asList("1", "2"));
+        verify(authInvalidationBus).publish(Collections.singletonList("3"));
+        verify(connection, times(3)).hIncrBy(eq(Constant.AUTHZ_EPOCH_KEY.getBytes()), any(byte[].class), eq(1L));
+        //小任务不记录中间进度
+        assertEquals(1, saved.size());
+        assertEquals(InvalidationTaskRespVO.DONE, saved.get(0).getStatus());
+    }
+
+    @Test
+    public void duplicateUsersCountOnce() {
+        InvalidationTaskRespVO task = sessionInvalidationService.invalidateTokens("t1", Arrays.asList("1", "2", "1", "3"));
+
+        //去重之后只有三个，没有超过阈值
+        assertFalse(task.isAsync());
+        assertEquals(3, task.getTotal());
+    }
+
+    @Test
+    public void aboveThresholdSavesProgressPerBatch() {
+        InvalidationTaskRespVO task = sessionInvalidationService.invalidateAuthorization("t1", Arrays.asList("1", "2", "3", "4"));
+
+        //返回的时候已经执行完了，发件箱才能删除事件
+        assertTrue(task.isAsync());
+        assertEquals(InvalidationTaskRespVO.DONE, task.getStatus());
+        assertNotNull(task.getFinishTime());
+        //开始一次、每批一次、结束一次
+        assertEquals(4, saved.size());
+        assertEquals(0, saved.get(0).getProcessed());
+        assertEquals(2, saved.get(1).getProcessed());
+        assertEquals(4, saved.get(2).getProcessed());
+        assertEquals(InvalidationTaskRespVO.DONE, saved.get(3).getStatus());
+        verify(connection, times(4)).unlink(any(byte[].class));
+    }
+
+    @Test
+    public void smallTaskFailureIsRecordedAndRethrown() {
+        doThrow(new IllegalStateException("redis down")).when(redisService).executePipelined(any());
+
+        try {
+            sessionInvalidationService.invalidateDeletedUsers("t1", Arrays.asList("1", "2"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("redis down", e.getMessage());
+        }
+        InvalidationTaskRespVO task = saved.get(saved.size() - 1);
+        assertEquals(InvalidationTaskRespVO.FAILED, task.getStatus());
+        assertEquals("redis down", task.getErrorMsg());
+        assertEquals(0, task.getProcessed());
+        verifyZeroInteractions(authInvalidationBus);
+    }
+
+    @Test
+    public void largeTaskFailureStopsAtTheFailedBatchAndIsRethrown() {
+        doAnswer(invocation -> {
+            invocation.<Consumer<RedisConnection>>getArgument(0).accept(connection);
+            return null;
+        }).doThrow(new IllegalStateException("redis down")).when(redisService).executePipelined(any());
+
+        try {
+            sessionInvalidationService.invalidateTokens("t1", Arrays.asList("1", "2", "3", "4", "5"));
+            fail();
+        } catch (IllegalStateException e) {
+            //抛给发件箱，事件留着重试
+        }
+        InvalidationTaskRespVO task = saved.get(saved.size() - 1);
+        assertEquals(InvalidationTaskRespVO.FAILED, task.getStatus());
+        //第一批已经生效，进度停在第一批
+        assertEquals(2, task.getProcessed());
+        verify(authInvalidationBus).publish(Arrays.asList("1", "2"));
+        verifyNoMoreInteractions(authInvalidationBus);
+    }
+
+    @Test
+    public void noUsersNoTask() {
+        assertNull(sessionInvalidationService.invalidateTokens("t1", Collections.emptyList()));
+        verifyZeroInteractions(redisService);
+    }
+}
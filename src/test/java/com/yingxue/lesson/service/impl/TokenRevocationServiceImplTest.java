@@ -0,0 +1,102 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.shiro.RevocationDecision;
+import com.yingxue.lesson.shiro.TokenBlacklistFilter;
+import com.yingxue.lesson.shiro.UserAuthState;
+import com.yingxue.lesson.shiro.UserAuthStateCache;
+import com.yingxue.lesson.utils.VerifiedToken;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TokenRevocationServiceImplTest {
+    private TokenRevocationServiceImpl tokenRevocationService;
+    private RedisService redisService;
+    private UserAuthStateCache userAuthStateCache;
+    private TokenBlacklistFilter tokenBlacklistFilter;
+    private VerifiedToken verifiedToken;
+
+    @Before
+    public void setUp() {
+        redisService = mock(RedisService.class);
+        userAuthStateCache = mock(UserAuthStateCache.class);
+        tokenBlacklistFilter = mock(TokenBlacklistFilter.class);
+        tokenRevocationService = new TokenRevocationServiceImpl();
+        ReflectionTestUtils.setField(tokenRevocationService, "redisService", redisService);
+        ReflectionTestUtils.setField(tokenRevocationService, "userAuthStateCache", userAuthStateCache);
+        ReflectionTestUtils.setField(tokenRevocationService, "tokenBlacklistFilter", tokenBlacklistFilter);
+
+        long now = System.currentTimeMillis();
+        Claims claims = Jwts.claims().setSubject("user-1").setId("jti-1")
+                .setIssuedAt(new Date(now)).setExpiration(new Date(now + 60_000));
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY, "fid-1");
+        claims.put(Constant.JWT_ISSUED_AT_MILLIS_KEY, now);
+        verifiedToken = new VerifiedToken("token", claims);
+    }
+
+    /**
+     * lua 脚本的返回：{锁定, 删除, 黑名单, 授权版本号, 所有会话吊销时间}
+     */
+    private void redisReturns(long blacklisted) {
+        when(redisService.execute(any(), anyList(), any())).thenReturn(Arrays.asList(0L, 0L, blacklisted, 0L, 0L));
+    }
+
+    @Test
+    public void missPathTrustsRedisWhenFilterMissedTheBroadcast() {
+        //其它节点吊销时的广播丢了，本地过滤器说不在
+        when(tokenBlacklistFilter.mightContainSession("fid-1")).thenReturn(false);
+        redisReturns(1L);
+
+        RevocationDecision decision = tokenRevocationService.check(verifiedToken);
+
+        assertTrue(decision.isBlacklisted());
+        //补进本地过滤器，之后用户状态命中的请求也能拦住
+        verify(tokenBlacklistFilter).rememberSession("fid-1");
+        verify(tokenBlacklistFilter, never()).recordSessionLookup(anyBoolean());
+    }
+
+    @Test
+    public void missPathRecordsFilterAccuracy() {
+        when(tokenBlacklistFilter.mightContainSession("fid-1")).thenReturn(true);
+        redisReturns(0L);
+
+        assertFalse(tokenRevocationService.check(verifiedToken).isBlacklisted());
+        //过滤器说可能在、redis 说不在，是一次误判
+        verify(tokenBlacklistFilter).recordSessionLookup(false);
+        verify(tokenBlacklistFilter, never()).rememberSession(anyString());
+    }
+
+    @Test
+    public void missPathCachesUserState() {
+        when(userAuthStateCache.currentSequence()).thenReturn(7L);
+        redisReturns(0L);
+
+        assertFalse(tokenRevocationService.check(verifiedToken).isBlacklisted());
+        verify(userAuthStateCache).put(eq("user-1"), any(UserAuthState.class), eq(7L));
+    }
+
+    @Test
+    public void hitPathAsksRedisOnlyWhenFilterMightContain() {
+        when(userAuthStateCache.get("user-1")).thenReturn(new UserAuthState(false, false, 0, 0, System.currentTimeMillis()));
+        when(tokenBlacklistFilter.mightContainSession("fid-1")).thenReturn(false);
+
+        assertFalse(tokenRevocationService.check(verifiedToken).isBlacklisted());
+        verifyZeroInteractions(redisService);
+
+        when(tokenBlacklistFilter.mightContainSession("fid-1")).thenReturn(true);
+        when(redisService.hasKey(Constant.JWT_TOKEN_FAMILY_BLACKLIST + "fid-1")).thenReturn(true);
+        assertTrue(tokenRevocationService.check(verifiedToken).isBlacklisted());
+        verify(tokenBlacklistFilter).recordSessionLookup(true);
+    }
+}
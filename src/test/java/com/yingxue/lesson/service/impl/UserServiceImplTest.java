@@ -0,0 +1,110 @@
+package com.yingxue.lesson.service.impl;
+
+import com.yingxue.lesson.constants.Constant;
+import com.yingxue.lesson.service.RedisService;
+import com.yingxue.lesson.service.TokenRevocationService;
+import com.yingxue.lesson.utils.JwtTokenUtil;
+import com.yingxue.lesson.utils.TokenSettings;
+import com.yingxue.lesson.utils.VerifiedToken;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class UserServiceImplTest {
+    private final Map<String, Object> redis = new HashMap<>();
+    private RedisService redisService;
+    private TokenRevocationService tokenRevocationService;
+    private TokenSettings tokenSettings;
+
+    @Before
+    public void setUp() {
+        tokenSettings = new TokenSettings();
+        tokenSettings.setSecretKey("78944878877848fg)");
+        tokenSettings.setIssuer("yingxue.com");
+        tokenSettings.setAccessTokenExpireTime(Duration.ofHours(2));
+        tokenSettings.setRefreshTokenExpireTime(Duration.ofHours(8));
+        JwtTokenUtil.setTokenSettings(tokenSettings);
+        JwtTokenUtil.setVerifiedTokenCache(null);
+
+        redisService = mock(RedisService.class);
+        when(redisService.get(anyString())).thenAnswer(invocation -> redis.get(invocation.<String>getArgument(0)));
+        when(redisService.setifAbsen(anyString(), any(), anyLong(), any())).thenAnswer(invocation ->
+                redis.putIfAbsent(invocation.getArgument(0), invocation.getArgument(1)) == null);
+        tokenRevocationService = mock(TokenRevocationService.class);
+        when(tokenRevocationService.isRefreshTokenRevoked(any())).thenReturn(false);
+        when(tokenRevocationService.getAuthzEpoch("user-1")).thenReturn(0L);
+    }
+
+    /**
+     * 一个节点一个实例，redis 共用
+     */
+    private UserServiceImpl node() {
+        UserServiceImpl userService = new UserServiceImpl();
+        ReflectionTestUtils.setField(userService, "redisService", redisService);
+        ReflectionTestUtils.setField(userService, "tokenRevocationService", tokenRevocationService);
+        ReflectionTestUtils.setField(userService, "tokenSettings", tokenSettings);
+        return userService;
+    }
+
+    private static String refreshToken() {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(Constant.JWT_USER_NAME, "admin");
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY, JwtTokenUtil.newTokenId());
+        return JwtTokenUtil.getRefreshToken("user-1", claims);
+    }
+
+    @Test
+    public void duplicateRefreshOnAnotherNodeGetsTheSameAccessToken() {
+        String refreshToken = refreshToken();
+        String first = node().refreshToken(refreshToken);
+        String second = node().refreshToken(refreshToken);
+
+        assertNotNull(first);
+        assertEquals(first, second);
+        VerifiedToken accessToken = JwtTokenUtil.parseToken(first);
+        assertEquals("user-1", accessToken.getUserId());
+        assertEquals("admin", accessToken.getUsername());
+        assertEquals(JwtTokenUtil.parseToken(refreshToken).getFamilyId(), accessToken.getFamilyId());
+        verify(redisService, times(2)).setifAbsen(anyString(), any(), eq(5_000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void redisHoldsNeitherTheTokenNorTheRefreshTokenId() {
+        String refreshToken = refreshToken();
+        String accessToken = node().refreshToken(refreshToken);
+        VerifiedToken verifiedAccessToken = JwtTokenUtil.parseToken(accessToken);
+        String refreshTokenId = JwtTokenUtil.parseToken(refreshToken).getTokenId();
+
+        assertEquals(1, redis.size());
+        Map.Entry<String, Object> entry = redis.entrySet().iterator().next();
+        assertTrue(entry.getKey().startsWith(Constant.JWT_REFRESH_DEDUP_KEY));
+        assertFalse(entry.getKey().contains(refreshTokenId));
+        //只有 jti 和签发时间，签名要用密钥重新算
+        assertEquals(verifiedAccessToken.getTokenId() + ":" + verifiedAccessToken.getIssuedAt(), entry.getValue());
+        assertFalse(entry.getValue().toString().contains(accessToken.substring(accessToken.lastIndexOf('.') + 1)));
+    }
+
+    @Test
+    public void differentRefreshTokensAreNotDeduplicated() {
+        assertNotEquals(node().refreshToken(refreshToken()), node().refreshToken(refreshToken()));
+        assertEquals(2, redis.size());
+    }
+
+    @Test
+    public void disabledWindowIssuesEveryTime() {
+        tokenSettings.setRefreshDedupWindow(Duration.ZERO);
+        String refreshToken = refreshToken();
+        UserServiceImpl node = node();
+        assertNotEquals(node.refreshToken(refreshToken), node.refreshToken(refreshToken));
+        assertTrue(redis.isEmpty());
+    }
+}
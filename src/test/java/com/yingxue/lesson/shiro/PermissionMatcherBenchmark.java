@@ -0,0 +1,110 @@
+package com.yingxue.lesson.shiro;
+
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次权限判断(@RequiresPermissions、shiro:hasPermission)的开销，用户分别有 10、200、2000 个权限
+ * shiro：AuthorizingRealm 原来的做法，每次判断都把用户的权限字符串逐个 new 成 WildcardPermission，再逐个 implies
+ * shiroResolved：WildcardPermission 提前建好，只逐个 implies，单看线性遍历的开销
+ * matcher：编译好的 PermissionMatcher
+ * 每次判断三个权限：排在最前面的、排在最后面的、没有的，没有的要遍历完所有权限才能得出结论，是 shiro 最慢的情况
+ * 运行：mvn test-compile 之后在 IDE 里运行 main；加 -prof gc 看每次判断分配的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermissionMatcherBenchmark {
+
+    @Param({"10", "200", "2000"})
+    private int permissionCount;
+
+    private List<String> permissions;
+    private List<Permission> resolved;
+    private PermissionMatcher matcher;
+    private String first;
+    private String last;
+    private String missing;
+
+    @Setup
+    public void setUp() {
+        //和菜单权限表里的写法一样：模块:资源:操作，每个资源四个操作
+        String[] operations = {"list", "add", "update", "delete"};
+        permissions = new ArrayList<>(permissionCount);
+        for (int i = 0; permissions.size() < permissionCount; i++) {
+            for (int j = 0; j < operations.length && permissions.size() < permissionCount; j++) {
+                permissions.add("mod" + (i % 10) + ":res" + i + ":" + operations[j]);
+            }
+        }
+        resolved = new ArrayList<>(permissions.size());
+        for (String permission : permissions) {
+            resolved.add(new WildcardPermission(permission));
+        }
+        matcher = PermissionMatcher.compile(permissions);
+        first = permissions.get(0);
+        last = permissions.get(permissions.size() - 1);
+        missing = "mod0:res0:export";
+    }
+
+    @Benchmark
+    public int shiro() {
+        return count(shiroImplies(first)) + count(shiroImplies(last)) + count(shiroImplies(missing));
+    }
+
+    @Benchmark
+    public int shiroResolved() {
+        return count(resolvedImplies(first)) + count(resolvedImplies(last)) + count(resolvedImplies(missing));
+    }
+
+    @Benchmark
+    public int matcher() {
+        return count(matcher.isPermitted(first)) + count(matcher.isPermitted(last)) + count(matcher.isPermitted(missing));
+    }
+
+    private boolean shiroImplies(String request) {
+        Permission requested = new WildcardPermission(request);
+        List<Permission> granted = new ArrayList<>(permissions.size());
+        for (String permission : permissions) {
+            granted.add(new WildcardPermission(permission));
+        }
+        for (Permission permission : granted) {
+            if (permission.implies(requested)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean resolvedImplies(String request) {
+        Permission requested = new WildcardPermission(request);
+        for (Permission permission : resolved) {
+            if (permission.implies(requested)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int count(boolean permitted) {
+        return permitted ? 1 : 0;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PermissionMatcherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
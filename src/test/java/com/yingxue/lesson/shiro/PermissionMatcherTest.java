@@ -0,0 +1,165 @@
+package com.yingxue.lesson.shiro;
+
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * 和 shiro 的 WildcardPermission.implies 对照，结果必须完全一致
+ */
+public class PermissionMatcherTest {
+    private static final List<String> REQUESTS = Arrays.asList(
+            "sys:user:list", "sys:user:add", "sys:user:update", "sys:user:delete",
+            "sys:role:list", "sys:role:add", "sys:user", "sys", "sys:user:list:view",
+            "SYS:USER:LIST", "Sys:Role:Add", "sys:user:*", "sys:*", "*", "other:user:list");
+
+    @Test
+    public void wildcard() {
+        assertSameAsShiro("*");
+        assertSameAsShiro("sys:*");
+        assertSameAsShiro("sys:*:list");
+        assertSameAsShiro("*:user:list");
+        assertSameAsShiro("sys:user:*");
+    }
+
+    @Test
+    public void multiPart() {
+        assertSameAsShiro("sys:user:list");
+        assertSameAsShiro("sys:user:list", "sys:role:add");
+        assertSameAsShiro("sys:user:list", "sys:*:add", "other:*");
+        assertSameAsShiro("sys:user:list:view");
+    }
+
+    @Test
+    public void commaList() {
+        assertSameAsShiro("sys:user:add,update");
+        assertSameAsShiro("sys:user,role:list");
+        assertSameAsShiro("sys:user,role:add,delete");
+        assertSameAsShiro("sys:user:list,*");
+    }
+
+    @Test
+    public void caseInsensitive() {
+        assertSameAsShiro("SYS:USER:LIST");
+        assertSameAsShiro("Sys:Role:*");
+        assertSameAsShiro("sys:USER:Add,Update");
+    }
+
+    @Test
+    public void trailingParts() {
+        //用户权限比请求短：包含后面所有的段
+        assertSameAsShiro("sys");
+        assertSameAsShiro("sys:user");
+        //用户权限比请求长：多出来的段必须都是 *
+        assertSameAsShiro("sys:user:*");
+        assertSameAsShiro("sys:*:*");
+        assertSameAsShiro("sys:user:list:*");
+        assertSameAsShiro("sys:user:list:*:*");
+        assertSameAsShiro("sys:user:list:view");
+    }
+
+    @Test
+    public void emptyPermissions() {
+        assertFalse(PermissionMatcher.compile(null).isPermitted("sys:user:list"));
+        assertFalse(PermissionMatcher.compile(Collections.emptyList()).isPermitted("sys:user:list"));
+        assertFalse(PermissionMatcher.compile(Arrays.asList(null, "", "  ")).isPermitted("sys:user:list"));
+    }
+
+    @Test
+    public void malformedPermissionsFailLikeShiro() {
+        for (String permission : Arrays.asList(":", "::", ",", ",:,", "sys:,", "sys:user:,", ":,:")) {
+            assertShiroRejects(permission);
+            try {
+                PermissionMatcher.compile(Arrays.asList("sys:user:list", permission));
+                fail(permission);
+            } catch (IllegalArgumentException e) {
+                //和 shiro 一样不接受，而不是编译成能匹配所有权限的空路径
+            }
+        }
+    }
+
+    @Test
+    public void unusualButValidPermissionsMatchLikeShiro() {
+        //空段、首尾的分隔符 shiro 是接受的，结果要和它一致
+        assertSameAsShiro("sys::list");
+        assertSameAsShiro("sys:user:");
+        assertSameAsShiro(":sys:user");
+        assertSameAsShiro("sys:user:list,");
+        assertSameAsShiro(" sys:user ");
+        assertSameAsShiro("sys:user: list");
+    }
+
+    private static void assertShiroRejects(String permission) {
+        try {
+            new WildcardPermission(permission);
+            fail(permission);
+        } catch (IllegalArgumentException e) {
+            //shiro 不接受
+        }
+    }
+
+    @Test
+    public void supports() {
+        assertTrue(PermissionMatcher.supports("sys:user:list"));
+        assertTrue(PermissionMatcher.supports("*"));
+        assertFalse(PermissionMatcher.supports(""));
+        assertFalse(PermissionMatcher.supports("sys:user:add,update"));
+        assertFalse(PermissionMatcher.supports(":sys"));
+        assertFalse(PermissionMatcher.supports("sys:"));
+        assertFalse(PermissionMatcher.supports("sys::list"));
+        assertFalse(PermissionMatcher.supports(" sys:user"));
+    }
+
+    @Test
+    public void randomPermissions() {
+        String[] grantParts = {"a", "b", "A", "*", "a,b", "b,*", "C"};
+        String[] requestParts = {"a", "b", "B", "c", "*"};
+        Random random = new Random(20190801L);
+        for (int round = 0; round < 2000; round++) {
+            List<String> granted = new ArrayList<>();
+            int count = random.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                granted.add(randomPermission(random, grantParts));
+            }
+            PermissionMatcher matcher = PermissionMatcher.compile(granted);
+            for (int i = 0; i < 10; i++) {
+                String request = randomPermission(random, requestParts);
+                assertEquals(granted + " -> " + request, shiroImplies(granted, request), matcher.isPermitted(request));
+            }
+        }
+    }
+
+    private static String randomPermission(Random random, String[] parts) {
+        int length = 1 + random.nextInt(4);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                builder.append(':');
+            }
+            builder.append(parts[random.nextInt(parts.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static void assertSameAsShiro(String... granted) {
+        List<String> permissions = Arrays.asList(granted);
+        PermissionMatcher matcher = PermissionMatcher.compile(permissions);
+        for (String request : REQUESTS) {
+            assertTrue(PermissionMatcher.supports(request));
+            assertEquals(permissions + " -> " + request, shiroImplies(permissions, request), matcher.isPermitted(request));
+        }
+    }
+
+    private static boolean shiroImplies(Collection<String> granted, String request) {
+        WildcardPermission requested = new WildcardPermission(request);
+        for (String permission : granted) {
+            if (new WildcardPermission(permission).implies(requested)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
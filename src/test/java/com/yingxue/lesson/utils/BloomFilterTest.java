@@ -0,0 +1,169 @@
+package com.yingxue.lesson.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String value = UUID.randomUUID().toString();
+            values.add(value);
+            filter.put(value);
+        }
+        for (String value : values) {
+            assertTrue(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateCloseToExpected() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("inserted-" + i);
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("absent-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("fpp=" + (double) falsePositives / probes, (double) falsePositives / probes < 0.02);
+        assertEquals(0.01, filter.expectedFpp(), 0.005);
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(0, 0.01);
+        assertFalse(filter.mightContain("anything"));
+        assertEquals(0, filter.expectedFpp(), 0);
+        assertTrue(filter.memoryBytes() > 0);
+    }
+
+    @Test
+    public void concurrentPuts() throws Exception {
+        BloomFilter filter = new BloomFilter(80_000, 0.01);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        filter.put(thread + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        //并发设置同一个字的不同位不能互相覆盖
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 10_000; i++) {
+                assertTrue(filter.mightContain(t + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void saturatedFilterReportsItsRealFalsePositiveRate() {
+        //黑名单超过预计数量(比如一次吊销了大量会话)，误判率会升高，监控指标要能反映出来
+        BloomFilter filter = new BloomFilter(1_000, 0.01);
+        for (int i = 0; i < 5_000; i++) {
+            filter.put(JwtTokenUtil.newTokenId());
+        }
+        int falsePositives = 0;
+        int probes = 50_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(JwtTokenUtil.newTokenId())) {
+                falsePositives++;
+            }
+        }
+        double actual = (double) falsePositives / probes;
+        assertTrue("fpp=" + actual, actual > 0.1);
+        assertEquals(actual, filter.expectedFpp(), 0.05);
+    }
+
+    @Test
+    public void tokenIdsStayWithinExpectedRate() {
+        //实际放进去的是 22 个字符的 token 家族id，前缀都一样的字符串不能让哈希退化
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put(JwtTokenUtil.newTokenId());
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(JwtTokenUtil.newTokenId())) {
+                falsePositives++;
+            }
+        }
+        assertTrue("fpp=" + (double) falsePositives / probes, (double) falsePositives / probes < 0.02);
+    }
+
+    @Test
+    public void rotationKeepsValueForAtLeastOneFullGeneration() {
+        long generationMillis = 1000;
+        AtomicLong now = new AtomicLong(10 * generationMillis);
+        RotatingBloomFilter filter = new RotatingBloomFilter(generationMillis, 1000, 0.01, now::get);
+
+        //放在这一代的最后一毫秒
+        now.set(11 * generationMillis - 1);
+        filter.put("late");
+        //下一代从头到尾都查得到，也就是放入后至少保留一个完整的 generationMillis
+        now.set(11 * generationMillis);
+        assertTrue(filter.mightContain("late"));
+        now.set(12 * generationMillis - 1);
+        assertTrue(filter.mightContain("late"));
+        //再下一代丢弃
+        now.set(12 * generationMillis);
+        assertFalse(filter.mightContain("late"));
+    }
+
+    @Test
+    public void rotationKeepsValueForAtMostTwoGenerations() {
+        long generationMillis = 1000;
+        AtomicLong now = new AtomicLong(10 * generationMillis);
+        RotatingBloomFilter filter = new RotatingBloomFilter(generationMillis, 1000, 0.01, now::get);
+
+        //放在这一代的第一毫秒
+        filter.put("early");
+        now.set(12 * generationMillis - 1);
+        assertTrue(filter.mightContain("early"));
+        now.set(12 * generationMillis);
+        assertFalse(filter.mightContain("early"));
+    }
+
+    @Test
+    public void idleFilterDropsEverythingAfterSkippingGenerations() {
+        long generationMillis = 1000;
+        AtomicLong now = new AtomicLong(10 * generationMillis);
+        RotatingBloomFilter filter = new RotatingBloomFilter(generationMillis, 1000, 0.01, now::get);
+        filter.put("token");
+
+        //很久没有访问，中间跳过了好几代，再访问时不能把很早的一代当成上一代留下来
+        now.set(15 * generationMillis);
+        assertFalse(filter.mightContain("token"));
+        filter.put("fresh");
+        now.set(16 * generationMillis);
+        assertTrue(filter.mightContain("fresh"));
+        assertFalse(filter.mightContain("token"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.yingxue.lesson.utils;
+
+import com.yingxue.lesson.constants.Constant;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtCodec 和改造前 JwtTokenUtil 静态方法的吞吐量对比
+ * jjwt*：每次调用都 base64 解码密钥、new 一个 Jwts.builder()/Jwts.parser()，和改造前的 generateToken/getClaimsFromToken 一样
+ * codec*：启动时初始化一次的 JwtCodec，密钥只解码一次，每个线程复用一个 Mac
+ * 两边签发/校验的是同一种 token(JwtCodecTest 里验证过可以互相解析)
+ * 运行：mvn test-compile 之后在 IDE 里运行 main；多线程的情况加 -t 4
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtCodecBenchmark {
+    private static final String SECRET = "78944878877848fg)";
+    private static final String ISSUER = "yingxue.com";
+    private static final String SUBJECT = "fcf34b56-a7a2-4719-9236-867495e74c31";
+
+    private JwtCodec jwtCodec;
+    private Map<String, Object> claims;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtCodec = new JwtCodec(SECRET);
+        claims = new HashMap<>();
+        claims.put(Constant.JWT_USER_NAME, "admin");
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY, JwtTokenUtil.newTokenId());
+        claims.put(Constant.JWT_AUTHZ_EPOCH_KEY, 3L);
+        token = jjwtSign();
+    }
+
+    @Benchmark
+    public String jjwtSign() {
+        long now = System.currentTimeMillis();
+        JwtBuilder builder = Jwts.builder();
+        builder.setClaims(new HashMap<>(claims));
+        builder.setSubject(SUBJECT);
+        builder.setIssuer(ISSUER);
+        builder.setId("jti");
+        builder.setIssuedAt(new Date(now));
+        builder.setExpiration(new Date(now + TimeUnit.HOURS.toMillis(2)));
+        builder.signWith(SignatureAlgorithm.HS256, DatatypeConverter.parseBase64Binary(SECRET));
+        return builder.compact();
+    }
+
+    @Benchmark
+    public String codecSign() {
+        long now = System.currentTimeMillis();
+        return jwtCodec.sign(ISSUER, SUBJECT, claims, "jti", now, now + TimeUnit.HOURS.toMillis(2));
+    }
+
+    @Benchmark
+    public Claims jjwtVerify() {
+        return Jwts.parser().setSigningKey(DatatypeConverter.parseBase64Binary(SECRET)).parseClaimsJws(token).getBody();
+    }
+
+    @Benchmark
+    public Claims codecVerify() {
+        return jwtCodec.verify(token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JwtCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,135 @@
+package com.yingxue.lesson.utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JwtCodecTest {
+    private static final String SECRET = "78944878877848fg)";
+    private static final String OTHER_SECRET = "98944878877848fg)";
+
+    private final JwtCodec codec = new JwtCodec(SECRET);
+
+    @Test
+    public void signAndVerify() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("ae", 3L);
+        String token = codec.sign("yingxue", "user-1", claims, "jti-1", now, now + 60_000);
+
+        Claims parsed = codec.verify(token);
+        assertNotNull(parsed);
+        assertEquals("user-1", parsed.getSubject());
+        assertEquals("yingxue", parsed.getIssuer());
+        assertEquals("jti-1", parsed.getId());
+        assertEquals(3, ((Number) parsed.get("ae")).intValue());
+    }
+
+    @Test
+    public void verifyTokenIssuedByJjwt() {
+        String token = Jwts.builder()
+                .setSubject("user-1")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(SignatureAlgorithm.HS256, DatatypeConverter.parseBase64Binary(SECRET))
+                .compact();
+        Claims parsed = codec.verify(token);
+        assertNotNull(parsed);
+        assertEquals("user-1", parsed.getSubject());
+    }
+
+    @Test
+    public void rejectTamperedHeader() {
+        String token = sign("user-1");
+        String payload = token.substring(token.indexOf('.') + 1, token.lastIndexOf('.'));
+        //签名是用正确密钥算的，但头部不是固定的 {"alg":"HS256"}，同样拒绝
+        String header = encode("{\"alg\":\"HS256\",\"typ\":\"JWT\"}");
+        assertNull(codec.verify(header + "." + payload + "." + hmac(SECRET, header + "." + payload)));
+        String autoType = encode("{\"@type\":\"java.lang.AutoCloseable\",\"alg\":\"HS256\"}");
+        assertNull(codec.verify(autoType + "." + payload + "." + hmac(SECRET, autoType + "." + payload)));
+    }
+
+    @Test
+    public void rejectAlgNone() {
+        String token = sign("user-1");
+        String payload = token.substring(token.indexOf('.') + 1, token.lastIndexOf('.'));
+        String header = encode("{\"alg\":\"none\"}");
+        assertNull(codec.verify(header + "." + payload + "."));
+        assertNull(codec.verify(header + "." + payload + ".e30"));
+    }
+
+    @Test
+    public void rejectTamperedPayload() {
+        String token = sign("user-1");
+        String other = sign("user-2");
+        String header = token.substring(0, token.indexOf('.'));
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        String payload = other.substring(other.indexOf('.') + 1, other.lastIndexOf('.'));
+        assertNull(codec.verify(header + "." + payload + "." + signature));
+    }
+
+    @Test
+    public void rejectWrongSignature() {
+        long now = System.currentTimeMillis();
+        String token = new JwtCodec(OTHER_SECRET).sign("yingxue", "user-1", null, "jti-1", now, now + 60_000);
+        assertNull(codec.verify(token));
+        String signed = sign("user-1");
+        String forged = signed.endsWith("AA") ? "BB" : "AA";
+        assertNull(codec.verify(signed.substring(0, signed.length() - 2) + forged));
+    }
+
+    @Test
+    public void rejectMalformedSegments() {
+        String token = sign("user-1");
+        assertNull(codec.verify(null));
+        assertNull(codec.verify(""));
+        assertNull(codec.verify("abc"));
+        assertNull(codec.verify("abc.def"));
+        assertNull(codec.verify(token.substring(0, token.lastIndexOf('.') + 1)));
+        assertNull(codec.verify(token.substring(token.indexOf('.'))));
+        assertNull(codec.verify(token + "!"));
+        String header = token.substring(0, token.indexOf('.'));
+        String content = header + ".!!!";
+        assertNull(codec.verify(content + "." + hmac(SECRET, content)));
+        String notJson = header + "." + encode("not json");
+        assertNull(codec.verify(notJson + "." + hmac(SECRET, notJson)));
+    }
+
+    @Test
+    public void rejectExpired() {
+        long now = System.currentTimeMillis();
+        String token = codec.sign("yingxue", "user-1", null, "jti-1", now - 120_000, now - 60_000);
+        assertNull(codec.verify(token));
+    }
+
+    private String sign(String subject) {
+        long now = System.currentTimeMillis();
+        return codec.sign("yingxue", subject, null, "jti-1", now, now + 60_000);
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hmac(String secret, String content) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(DatatypeConverter.parseBase64Binary(secret), "HmacSHA256"));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal(content.getBytes(StandardCharsets.US_ASCII)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
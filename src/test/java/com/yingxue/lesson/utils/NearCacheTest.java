@@ -0,0 +1,128 @@
+package com.yingxue.lesson.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void expireAfterTtl() {
+        NearCache<String, String> cache = new NearCache<>(100, Duration.ofSeconds(30), now::get);
+        cache.put("user-1", "state", cache.currentSequence());
+        now.addAndGet(30_000);
+        assertEquals("state", cache.get("user-1"));
+        now.incrementAndGet();
+        assertNull(cache.get("user-1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void dropLoadsThatRacedWithInvalidation() {
+        NearCache<String, String> cache = new NearCache<>(100, Duration.ofSeconds(30), now::get);
+        long sequence = cache.currentSequence();
+        //加载期间另一个用户失效了，也不放入：序号是整个缓存共用的
+        cache.invalidate("user-2");
+        cache.put("user-1", "stale", sequence);
+        assertNull(cache.get("user-1"));
+        cache.put("user-1", "fresh", cache.currentSequence());
+        assertEquals("fresh", cache.get("user-1"));
+    }
+
+    @Test
+    public void invalidateOnlyGivenKeys() {
+        NearCache<String, String> cache = new NearCache<>(100, Duration.ofSeconds(30), now::get);
+        for (int i = 0; i < 10; i++) {
+            cache.put("user-" + i, "state-" + i, cache.currentSequence());
+        }
+        cache.invalidate(Arrays.asList("user-1", "user-2"));
+        assertNull(cache.get("user-1"));
+        assertNull(cache.get("user-2"));
+        assertEquals("state-3", cache.get("user-3"));
+        assertEquals(8, cache.size());
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void internKeepsTheFirstFreshValue() {
+        NearCache<String, String> cache = new NearCache<>(100, Duration.ofSeconds(30), now::get);
+        String first = new String("snapshot");
+        String second = new String("snapshot");
+        assertSame(first, cache.intern("fp", first, cache.currentSequence()));
+        assertSame(first, cache.intern("fp", second, cache.currentSequence()));
+        //过期之后换成新的
+        now.addAndGet(30_001);
+        assertSame(second, cache.intern("fp", second, cache.currentSequence()));
+        //加载期间有失效，返回传进来的但不放入
+        long sequence = cache.currentSequence();
+        cache.invalidate("fp");
+        assertSame(first, cache.intern("fp", first, sequence));
+        assertNull(cache.get("fp"));
+    }
+
+    @Test
+    public void boundedPerSegment() {
+        NearCache<Integer, Integer> cache = new NearCache<>(160, Duration.ofSeconds(30), now::get);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i, cache.currentSequence());
+        }
+        assertTrue(cache.size() <= 160);
+        //最近放入的还在
+        assertEquals(Integer.valueOf(9_999), cache.get(9_999));
+    }
+
+    @Test
+    public void invalidationNeverLosesToConcurrentPut() throws Exception {
+        NearCache<String, Integer> cache = new NearCache<>(1_000, Duration.ofSeconds(30), now::get);
+        for (int round = 0; round < 2_000; round++) {
+            String key = "user-" + (round % 20);
+            CountDownLatch ready = new CountDownLatch(4);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                //加载线程：先记序号，再放入
+                futures.add(executor.submit(() -> {
+                    long sequence = cache.currentSequence();
+                    ready.countDown();
+                    await(start);
+                    cache.put(key, 1, sequence);
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                await(start);
+                cache.invalidate(key);
+            }));
+            assertTrue(ready.await(5, TimeUnit.SECONDS));
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            //所有加载都是在失效之前开始的，失效完成后不能留下它们放入的值
+            assertNull(key, cache.get(key));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.yingxue.lesson.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void coalesceConcurrentLoads() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> singleFlight.execute("user-1", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "snapshot";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        List<Future<String>> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiters.add(executor.submit(() -> singleFlight.execute("user-1", () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+        }
+        //等其它线程都进入等待再放行
+        while (singleFlight.coalescedCount() < 5) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals("snapshot", first.get(5, TimeUnit.SECONDS));
+        for (Future<String> waiter : waiters) {
+            assertEquals("snapshot", waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.loadCount());
+        assertEquals(5, singleFlight.coalescedCount());
+    }
+
+    @Test
+    public void doNotCacheFinishedLoads() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals(Integer.valueOf(1), singleFlight.execute("user-1", loads::incrementAndGet));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("user-1", loads::incrementAndGet));
+        assertEquals(2, singleFlight.loadCount());
+        assertEquals(0, singleFlight.coalescedCount());
+    }
+
+    @Test
+    public void differentKeysLoadIndependently() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        assertEquals("a", singleFlight.execute("user-1", () -> singleFlight.execute("user-2", () -> "a")));
+        assertEquals(2, singleFlight.loadCount());
+    }
+
+    @Test
+    public void propagateFailureToAllWaiters() throws Exception {
+        IllegalArgumentException failure = new IllegalArgumentException("db down");
+        assertSameFailureForAll(failure);
+    }
+
+    @Test
+    public void propagateErrorsToAllWaitersUnwrapped() throws Exception {
+        //Error 也要原样给到每个等待的线程，不能包成 ExecutionException/CompletionException
+        StackOverflowError failure = new StackOverflowError("db down");
+        assertSameFailureForAll(failure);
+    }
+
+    @Test
+    public void interruptedWaiterGivesUpWithoutDisturbingTheLoad() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> first = executor.submit(() -> singleFlight.execute("user-1", () -> {
+            loading.countDown();
+            await(release);
+            return "snapshot";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                singleFlight.execute("user-1", () -> "other");
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        waiter.start();
+        while (singleFlight.coalescedCount() < 1) {
+            Thread.sleep(1);
+        }
+        waiter.interrupt();
+        waiter.join(5_000);
+
+        assertTrue(failure.get() instanceof IllegalStateException);
+        assertTrue(failure.get().getCause() instanceof InterruptedException);
+        //中断标记要保留给调用方
+        assertTrue(interrupted.get());
+        release.countDown();
+        assertEquals("snapshot", first.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 一个线程加载失败，同时在等的 5 个线程收到的都是同一个异常对象，它们自己的加载一次都不执行
+     */
+    private void assertSameFailureForAll(Throwable failure) throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> singleFlight.execute("user-1", () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return sneakyThrow(failure);
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        List<Future<String>> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiters.add(executor.submit(() -> singleFlight.execute("user-1", () -> {
+                loads.incrementAndGet();
+                return "other";
+            })));
+        }
+        while (singleFlight.coalescedCount() < 5) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(failure, causeOf(first));
+        for (Future<String> waiter : waiters) {
+            assertSame(failure, causeOf(waiter));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.loadCount());
+        //失败之后不留痕迹，下一次重新加载
+        assertEquals("ok", singleFlight.execute("user-1", () -> "ok"));
+        assertEquals(2, singleFlight.loadCount());
+    }
+
+    private static Throwable causeOf(Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("expected failure");
+        return null;
+    }
+
+    private static String sneakyThrow(Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.yingxue.lesson.utils;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.Duration;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class TokenContextHolderTest {
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp() {
+        TokenSettings tokenSettings = new TokenSettings();
+        tokenSettings.setSecretKey("78944878877848fg)");
+        tokenSettings.setIssuer("yingxue.com");
+        tokenSettings.setAccessTokenExpireTime(Duration.ofHours(2));
+        JwtTokenUtil.setTokenSettings(tokenSettings);
+        JwtTokenUtil.setVerifiedTokenCache(null);
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void currentIsEmptyBeforeFilter() {
+        assertNull(TokenContextHolder.current());
+        assertNull(TokenContextHolder.getUserId());
+        assertNull(TokenContextHolder.resolve(null));
+    }
+
+    @Test
+    public void currentIsEmptyOutsideRequest() {
+        RequestContextHolder.resetRequestAttributes();
+        assertNull(TokenContextHolder.current());
+        assertNull(TokenContextHolder.getUserId());
+    }
+
+    @Test
+    public void shareVerifiedTokenWithinRequest() {
+        VerifiedToken verifiedToken = verifiedToken("token-1", "user-1");
+        TokenContextHolder.set(request, verifiedToken);
+
+        assertSame(verifiedToken, TokenContextHolder.current());
+        assertEquals("user-1", TokenContextHolder.getUserId());
+        //就是当前请求的 token，直接返回已经校验过的结果，不再解析
+        assertSame(verifiedToken, TokenContextHolder.resolve("token-1"));
+        assertEquals("user-1", TokenContextHolder.getUserId("token-1"));
+    }
+
+    @Test
+    public void otherTokenIsVerifiedInsteadOfTakenFromContext() {
+        String token = JwtTokenUtil.getAccessToken("user-1", new HashMap<>());
+        VerifiedToken current = JwtTokenUtil.parseToken(token);
+        TokenContextHolder.set(request, current);
+
+        //同一个请求里传入的是另一个 token(比如刷新接口带的 refresh_token)，要重新校验，不能拿当前请求的结果
+        String other = JwtTokenUtil.getAccessToken("user-2", new HashMap<>());
+        VerifiedToken resolved = TokenContextHolder.resolve(other);
+        assertNotSame(current, resolved);
+        assertEquals("user-2", resolved.getUserId());
+
+        //签名被改过的 token 即使载荷一样也解析不出来
+        String tampered = token.substring(0, token.lastIndexOf('.') + 1) + "AAAA";
+        assertNull(TokenContextHolder.resolve(tampered));
+        assertNull(TokenContextHolder.getUserId(tampered));
+        //当前请求的上下文不受影响
+        assertEquals("user-1", TokenContextHolder.getUserId());
+    }
+
+    @Test
+    public void contextEndsWithRequest() {
+        TokenContextHolder.set(request, verifiedToken("token-1", "user-1"));
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        assertNull(TokenContextHolder.current());
+    }
+
+    private static VerifiedToken verifiedToken(String token, String userId) {
+        Claims claims = Jwts.claims().setSubject(userId);
+        return new VerifiedToken(token, claims);
+    }
+}
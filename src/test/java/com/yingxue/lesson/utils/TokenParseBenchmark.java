@@ -0,0 +1,97 @@
+package com.yingxue.lesson.utils;
+
+import com.yingxue.lesson.constants.Constant;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个已认证请求里解析 access_token 的开销
+ * before：改造前的链路，凭证匹配器 getUserId、validateToken(isTokenExpired 里又解析一次)、getRemainingTime、
+ * RedisCache 取 key、域取授权、日志切面 getUserId/getUserName，每一步都用 jjwt 重新 base64 解码密钥、校验签名、解析载荷，一共八次
+ * after：过滤器里 JwtCodec 校验一次生成 VerifiedToken，后面的步骤只读字段
+ * 两边都不走 VerifiedTokenCache，比的是单次请求本身的开销
+ * 运行：mvn test-compile 之后在 IDE 里运行 main；加 -prof gc 看每次请求分配的字节数(gc.alloc.rate.norm)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenParseBenchmark {
+    private static final String SECRET = "78944878877848fg)";
+
+    private JwtCodec jwtCodec;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        jwtCodec = new JwtCodec(SECRET);
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(Constant.JWT_USER_NAME, "admin");
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY, JwtTokenUtil.newTokenId());
+        claims.put(Constant.JWT_AUTHZ_EPOCH_KEY, 3L);
+        claims.put(Constant.JWT_ISSUED_AT_MILLIS_KEY, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        token = jwtCodec.sign("yingxue.com", "fcf34b56-a7a2-4719-9236-867495e74c31", claims,
+                JwtTokenUtil.newTokenId(), now, now + TimeUnit.HOURS.toMillis(2));
+    }
+
+    /**
+     * 改造前的 JwtTokenUtil.getClaimsFromToken
+     */
+    private static Claims parseWithJjwt(String token) {
+        return Jwts.parser().setSigningKey(DatatypeConverter.parseBase64Binary(SECRET)).parseClaimsJws(token).getBody();
+    }
+
+    @Benchmark
+    public void before(Blackhole blackhole) {
+        //CustomHashedCredentialsMatcher
+        blackhole.consume(parseWithJjwt(token).getSubject());
+        //validateToken -> isTokenExpired 各解析一次
+        Claims claims = parseWithJjwt(token);
+        blackhole.consume(claims.getExpiration().before(new Date()));
+        blackhole.consume(parseWithJjwt(token).getExpiration());
+        //getRemainingTime
+        blackhole.consume(parseWithJjwt(token).getExpiration().getTime() - System.currentTimeMillis());
+        //RedisCache.getRedisCacheKey
+        blackhole.consume(parseWithJjwt(token).getSubject());
+        //CustomRealm.doGetAuthorizationInfo
+        blackhole.consume(parseWithJjwt(token).getSubject());
+        //SysLogAspect getUserId/getUserName
+        blackhole.consume(parseWithJjwt(token).getSubject());
+        blackhole.consume(parseWithJjwt(token).get(Constant.JWT_USER_NAME));
+    }
+
+    @Benchmark
+    public void after(Blackhole blackhole) {
+        //CustomAccessControlerFilter 校验一次
+        VerifiedToken verifiedToken = new VerifiedToken(token, jwtCodec.verify(token));
+        blackhole.consume(verifiedToken.getUserId());
+        blackhole.consume(verifiedToken.isExpired());
+        blackhole.consume(verifiedToken.getRemainingTime());
+        blackhole.consume(verifiedToken.getUserId());
+        blackhole.consume(verifiedToken.getUserId());
+        blackhole.consume(verifiedToken.getUserId());
+        blackhole.consume(verifiedToken.getUsername());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TokenParseBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
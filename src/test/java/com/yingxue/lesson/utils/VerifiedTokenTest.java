@@ -0,0 +1,78 @@
+package com.yingxue.lesson.utils;
+
+import com.yingxue.lesson.constants.Constant;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VerifiedTokenTest {
+
+    @Test
+    public void readClaims() {
+        long now = System.currentTimeMillis();
+        Claims claims = Jwts.claims().setSubject("user-1").setId("jti-1")
+                .setIssuedAt(new Date(now)).setExpiration(new Date(now + 60_000));
+        claims.put(Constant.JWT_USER_NAME, "admin");
+        claims.put(Constant.JWT_TOKEN_FAMILY_KEY, "fid-1");
+        claims.put(Constant.JWT_AUTHZ_EPOCH_KEY, 7);
+        claims.put(Constant.JWT_ISSUED_AT_MILLIS_KEY, now);
+
+        VerifiedToken verifiedToken = new VerifiedToken("token", claims);
+        assertEquals("token", verifiedToken.getToken());
+        assertEquals("user-1", verifiedToken.getUserId());
+        assertEquals("admin", verifiedToken.getUsername());
+        assertEquals("jti-1", verifiedToken.getTokenId());
+        assertEquals("fid-1", verifiedToken.getFamilyId());
+        assertEquals(7, verifiedToken.getAuthzEpoch());
+        assertEquals(now, verifiedToken.getIssuedAt());
+        assertFalse(verifiedToken.isExpired());
+        assertTrue(verifiedToken.getRemainingTime() > 0);
+    }
+
+    @Test
+    public void sharedClaimsAreReadOnly() {
+        List<String> roles = new ArrayList<>(Arrays.asList("admin", "dev"));
+        Claims claims = Jwts.claims().setSubject("user-1");
+        claims.put(Constant.JWT_ROLES_KEY, roles);
+
+        Claims shared = new VerifiedToken("token", claims).getClaims();
+        assertUnsupported(() -> shared.put(Constant.JWT_USER_NAME, "other"));
+        assertUnsupported(() -> shared.setSubject("user-2"));
+        assertUnsupported(() -> shared.remove(Constant.JWT_ROLES_KEY));
+        assertUnsupported(() -> ((List<?>) shared.get(Constant.JWT_ROLES_KEY)).clear());
+        //解析时的那份之后再改也影响不到缓存里的
+        roles.add("root");
+        claims.setSubject("user-3");
+        assertEquals("user-1", shared.getSubject());
+        assertEquals(Arrays.asList("admin", "dev"), shared.get(Constant.JWT_ROLES_KEY));
+    }
+
+    private static void assertUnsupported(Runnable mutation) {
+        try {
+            mutation.run();
+            fail("claims should be read-only");
+        } catch (UnsupportedOperationException e) {
+            //只读
+        }
+    }
+
+    @Test
+    public void legacyTokenFallsBackToSecondPrecision() {
+        long now = System.currentTimeMillis();
+        Claims claims = Jwts.claims().setSubject("user-1").setIssuedAt(new Date(now));
+
+        VerifiedToken verifiedToken = new VerifiedToken("token", claims);
+        assertNull(verifiedToken.getFamilyId());
+        assertEquals(0, verifiedToken.getAuthzEpoch());
+        assertEquals(now / 1000 * 1000, verifiedToken.getIssuedAt());
+        assertEquals(Long.MAX_VALUE, verifiedToken.getExpiration());
+        assertFalse(verifiedToken.isExpired());
+    }
+}